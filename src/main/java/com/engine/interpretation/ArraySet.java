@@ -0,0 +1,282 @@
+package com.engine.interpretation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * An array of the brain (! array), compiled once for matching instead of being
+ * joined into an alternation for every trigger that uses it.<p>
+ * The trigger indexes look its items up word by word in a trie of words, so
+ * finding the items at a position of a message costs the length of the longest
+ * item and not the number of items. TriggerMatcher walks a trie of the
+ * characters of the items: an @array reference is a single instruction, whatever
+ * the size of the array.<p>
+ * The trie gives the same match as the alternation tried in the order of the
+ * items, as long as the items are plain text and no item comes between the items
+ * it is a prefix of ("a", "ab", "abc" is fine, "ab", "a", "abc" isn't). The arrays
+ * that don't qualify are matched with their alternation, as before.
+ */
+public class ArraySet {
+
+    // Characters with a meaning in the alternation of the items
+    private static final String SPECIAL = "\\^$.|?*+()[]{}";
+
+    /**
+     * A node of the trie of words.
+     */
+    private static class Words {
+        HashMap<String, Words> next = null;     // Following words
+        boolean item = false;                   // An item ends here
+    }
+
+    // Variables
+    private String[] items          = null;     // Items, in order
+    private String regexp           = null;     // Alternation of the items
+    private Words words             = new Words(); // Items split in words
+    private int maxWords            = 0;        // Words of the longest item
+    private boolean atomic          = true;     // All the items are words separated by single spaces
+    private int[][] labels          = null;     // Characters leaving each node of the trie, sorted
+    private int[][] targets         = null;     // Node reached by each character
+    private int[] ends              = null;     // Index of the item ending at each node, -1 for none
+    private boolean[] exitFirst     = null;     // The item ending at a node goes before the longer ones
+    private int depth               = 0;        // Characters of the longest item
+    private boolean linear          = true;     // The trie matches like the alternation
+
+    /**
+     * Compile an array.
+     * @param items The items of the array, in order.
+     */
+    public ArraySet(Collection<String> items) {
+        this.items = items.toArray(new String[items.size()]);
+
+        // The alternation, for java.util.regex.
+        StringBuilder joined = new StringBuilder("(?:");
+        for (int i = 0; i < this.items.length; i++) {
+            if (i > 0) {
+                joined.append('|');
+            }
+            joined.append(this.items[i]);
+        }
+        this.regexp = joined.append(')').toString();
+
+        // The trie of words.
+        for (int i = 0; i < this.items.length; i++) {
+            String item = this.items[i];
+            atomic &= TriggerParser.isTokenizable(item);
+            String[] split = item.split(" ");
+            maxWords = Math.max(maxWords, split.length);
+            Words node = words;
+            for (int w = 0; w < split.length; w++) {
+                atomic &= TriggerParser.validLiteral(split[w]);
+                if (node.next == null) {
+                    node.next = new HashMap<String, Words>();
+                }
+                Words next = node.next.get(split[w]);
+                if (next == null) {
+                    next = new Words();
+                    node.next.put(split[w], next);
+                }
+                node = next;
+            }
+            node.item = true;
+        }
+        atomic &= this.items.length > 0;
+
+        buildTrie();
+    }
+
+    /**
+     * Build the trie of the characters of the items, and tell whether it matches
+     * like the alternation.
+     */
+    private void buildTrie() {
+        ArrayList<HashMap<Integer, Integer>> children = new ArrayList<HashMap<Integer, Integer>>();
+        ArrayList<Integer> found = new ArrayList<Integer>();
+        children.add(new HashMap<Integer, Integer>());
+        found.add(Integer.valueOf(-1));
+        linear = items.length > 0;
+        for (int i = 0; i < items.length; i++) {
+            String item = items[i];
+            int node = 0;
+            int length = 0;
+            for (int c = 0; c < item.length(); c += Character.charCount(item.codePointAt(c))) {
+                int cp = item.codePointAt(c);
+                linear &= SPECIAL.indexOf(cp) < 0;
+                Integer next = children.get(node).get(Integer.valueOf(cp));
+                if (next == null) {
+                    next = Integer.valueOf(children.size());
+                    children.add(new HashMap<Integer, Integer>());
+                    found.add(Integer.valueOf(-1));
+                    children.get(node).put(Integer.valueOf(cp), next);
+                }
+                node = next.intValue();
+                length++;
+            }
+            // An empty item matches at any position.
+            linear &= node != 0;
+            depth = Math.max(depth, length);
+            if (found.get(node).intValue() < 0) {
+                found.set(node, Integer.valueOf(i));
+            }
+        }
+
+        int size = children.size();
+        labels = new int[size][];
+        targets = new int[size][];
+        ends = new int[size];
+        exitFirst = new boolean[size];
+        for (int n = 0; n < size; n++) {
+            HashMap<Integer, Integer> next = children.get(n);
+            labels[n] = new int[next.size()];
+            int l = 0;
+            for (Integer cp : next.keySet()) {
+                labels[n][l++] = cp.intValue();
+            }
+            Arrays.sort(labels[n]);
+            targets[n] = new int[labels[n].length];
+            for (l = 0; l < labels[n].length; l++) {
+                targets[n][l] = next.get(Integer.valueOf(labels[n][l])).intValue();
+            }
+            ends[n] = found.get(n).intValue();
+        }
+        if (linear) {
+            linear = order(0) != null;
+        }
+    }
+
+    /**
+     * Find the first and last items below a node, and the order of the item ending
+     * at each node with the longer ones.
+     * @param node The node.
+     * @return The smallest and largest item indexes below the node, null if the
+     * items ending at a node are between the ones going through it
+     */
+    private int[] order(int node) {
+        int low = Integer.MAX_VALUE;
+        int high = -1;
+        for (int l = 0; l < targets[node].length; l++) {
+            int[] below = order(targets[node][l]);
+            if (below == null) {
+                return null;
+            }
+            low = Math.min(low, below[0]);
+            high = Math.max(high, below[1]);
+        }
+        if (ends[node] > -1 && high > -1) {
+            // The item ending here is tried before the longer ones, or after them.
+            if (ends[node] < low) {
+                exitFirst[node] = true;
+            } else if (ends[node] < high) {
+                return null;
+            }
+        }
+        if (ends[node] > -1) {
+            low = Math.min(low, ends[node]);
+            high = Math.max(high, ends[node]);
+        }
+        return new int[]{low, high};
+    }
+
+    /**
+     * Find the items starting at a word of a message.
+     * @param message The words of the message.
+     * @param from The first word of the items.
+     * @return The number of words of each item found, shortest first
+     */
+    public int[] spans(String[] message, int from) {
+        int[] result = new int[Math.max(0, Math.min(maxWords, message.length - from))];
+        int count = 0;
+        Words node = words;
+        for (int w = from; w < message.length && node.next != null; w++) {
+            node = node.next.get(message[w]);
+            if (node == null) {
+                break;
+            }
+            if (node.item) {
+                result[count++] = w - from + 1;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Get the items of the array.
+     * @return Array of items, in order. The array is shared and must not be modified.
+     */
+    public String[] listItems() {
+        return items;
+    }
+
+    /**
+     * Get the alternation of the items, "(?:a|b|c)".
+     * @return String regular expression
+     */
+    public String getRegexp() {
+        return regexp;
+    }
+
+    /**
+     * Test whether the items are all made of atomic words separated by single
+     * spaces, so the trigger indexes can use the array.
+     * @return true if they are
+     */
+    public boolean isAtomic() {
+        return atomic;
+    }
+
+    /**
+     * Test whether the trie of characters matches like the alternation.
+     * @return false if the alternation must be used
+     */
+    public boolean isLinear() {
+        return linear;
+    }
+
+    /**
+     * Get the length of the longest item, in characters.
+     * @return int depth of the trie
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Follow a character in the trie. The root is node 0.
+     * @param node The current node.
+     * @param cp The character.
+     * @return The next node, -1 if no item goes on with the character
+     */
+    public int step(int node, int cp) {
+        int l = Arrays.binarySearch(labels[node], cp);
+        return l < 0 ? -1 : targets[node][l];
+    }
+
+    /**
+     * Test whether an item ends at a node.
+     * @param node The node.
+     * @return true if it does
+     */
+    public boolean isItem(int node) {
+        return ends[node] > -1;
+    }
+
+    /**
+     * Test whether longer items go through a node.
+     * @param node The node.
+     * @return true if they do
+     */
+    public boolean hasNext(int node) {
+        return labels[node].length > 0;
+    }
+
+    /**
+     * Test whether the item ending at a node is tried before the longer ones.
+     * @param node The node.
+     * @return true if it goes first
+     */
+    public boolean isExitFirst(int node) {
+        return exitFirst[node];
+    }
+}
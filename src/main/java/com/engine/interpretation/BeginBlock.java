@@ -0,0 +1,95 @@
+package com.engine.interpretation;
+
+/**
+ * The BEGIN block of a brain, analysed when the replies are sorted. Every message
+ * is first replied to as "request" in the __begin__ topic; the trigger matching
+ * "request" is found once here, and the way to run it is chosen:<p>
+ * STATIC: a single "- {ok}" without conditions, the block can be skipped.<br>
+ * PLANNED: the trigger is known, only its conditions and its replies are run.<br>
+ * GENERAL: the match depends on the user (%Previous, tags in the triggers), or
+ * the trigger has redirects or actions; the block is replied to as any message.
+ */
+public class BeginBlock {
+
+    /**
+     * The ways to run the BEGIN block.
+     */
+    public enum Kind {
+        STATIC, PLANNED, GENERAL
+    }
+
+    // The message replied to in the BEGIN block
+    public static final String REQUEST = "request";
+
+    // Variables
+    private Kind kind           = Kind.GENERAL; // How to run the block
+    private Trigger trigger     = null;         // Trigger matching "request", null for GENERAL
+    private String pattern      = null;         // Pattern of the trigger as sorted
+
+    private BeginBlock(Kind kind, Trigger trigger, String pattern) {
+        this.kind       = kind;
+        this.trigger    = trigger;
+        this.pattern    = pattern;
+    }
+
+    /**
+     * Analyse the BEGIN block.
+     * @param topic The __begin__ topic.
+     * @param buffer Its sort buffer.
+     * @return The analysed block
+     */
+    public static BeginBlock analyse(Topic topic, SortBuffer buffer) {
+        // The %Previous's are matched against the last reply of the user.
+        Topic[] tree = topic.listTree();
+        if (topic.hasPrevious()) {
+            return new BeginBlock(Kind.GENERAL, null, null);
+        }
+        for (int i = 0; tree != null && i < tree.length; i++) {
+            if (tree[i].hasPrevious()) {
+                return new BeginBlock(Kind.GENERAL, null, null);
+            }
+        }
+
+        // The trigger must match "request" whoever the user is.
+        CompiledTrigger[] triggers = buffer.getTriggers();
+        int[] plan = RedirectResolver.search(triggers, buffer.getIndex(), REQUEST);
+        if (plan.length != 1 || triggers[plan[0]].isDynamic() || triggers[plan[0]].getTrigger() == null) {
+            return new BeginBlock(Kind.GENERAL, null, null);
+        }
+        Trigger trigger = triggers[plan[0]].getTrigger();
+        if (trigger.hasAction() || !trigger.listRedirects().isEmpty() || trigger.listReplies().isEmpty()) {
+            return new BeginBlock(Kind.GENERAL, null, null);
+        }
+
+        // A single {ok} leaves the reply as it is.
+        if (trigger.listPredicates().isEmpty() && trigger.listReplies().size() == 1
+                && "{ok}".equals(trigger.listReplies().iterator().next())) {
+            return new BeginBlock(Kind.STATIC, trigger, triggers[plan[0]].getPattern());
+        }
+        return new BeginBlock(Kind.PLANNED, trigger, triggers[plan[0]].getPattern());
+    }
+
+    /**
+     * Get the way to run the block.
+     * @return Kind kind
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Get the trigger matching "request".
+     * @return Trigger trigger, null for GENERAL
+     */
+    public Trigger getTrigger() {
+        return trigger;
+    }
+
+    /**
+     * Get the pattern of the trigger matching "request", as sorted.
+     * @return String pattern, null for GENERAL
+     */
+    public String getPattern() {
+        return pattern;
+    }
+}
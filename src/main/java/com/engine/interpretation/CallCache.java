@@ -0,0 +1,138 @@
+package com.engine.interpretation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of the calls to pure object macros ("> object name lang pure"), whose
+ * reply only depends on their arguments. The least recently used results are
+ * evicted once the cache is full. The hits, misses and evictions are counted so
+ * the size of the cache can be tuned.
+ */
+public class CallCache {
+
+    // Variables
+    private int capacity                = 0;    // Maximum number of results, 0 to disable
+    private long hits                   = 0;    // Calls answered from the cache
+    private long misses                 = 0;    // Calls run by their handler
+    private long evictions              = 0;    // Results dropped to make room
+    private LinkedHashMap<String, String> results = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            if (size() > capacity) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Create a new cache.
+     * @param capacity The maximum number of results kept, 0 to disable it.
+     */
+    public CallCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get the result of a call.
+     * @param call The text of the call tag: the name of the object and its arguments.
+     * @return The result, null if it isn't in the cache
+     */
+    public synchronized String get(String call) {
+        String result = results.get(call);
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    /**
+     * Keep the result of a call.
+     * @param call The text of the call tag.
+     * @param result The result of the object.
+     */
+    public synchronized void put(String call, String result) {
+        if (capacity > 0 && result != null) {
+            results.put(call, result);
+        }
+    }
+
+    /**
+     * Forget the results of an object, when it is loaded again.
+     * @param name The name of the object.
+     */
+    public synchronized void remove(String name) {
+        for (Iterator<String> it = results.keySet().iterator(); it.hasNext(); ) {
+            String call = it.next();
+            if (call.equals(name) || call.startsWith(name + " ")) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Change the maximum number of results, evicting the oldest ones if needed.
+     * @param capacity The maximum number of results kept, 0 to disable the cache.
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+        for (Iterator<String> it = results.keySet().iterator(); it.hasNext() && results.size() > capacity; ) {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Get the maximum number of results.
+     * @return int capacity
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of results in the cache.
+     * @return int size
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * Get the number of calls answered from the cache.
+     * @return long hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of calls to pure objects that had to be run.
+     * @return long misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of results evicted to make room for newer ones.
+     * @return long evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the share of the calls to pure objects answered from the cache.
+     * @return double hit rate, between 0 and 1
+     */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+}
@@ -1,7 +1,10 @@
 package com.engine.interpretation;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,6 +21,12 @@ public class Client {
     private String defaultRandom            = "random";     // Default random value
     private String defaultTopic             = "topic";      // Default topic value
     private String undefined                = "undefined";  // Default undefined value
+    private HashMap<CompiledTrigger, TriggerMatcher> patterns         = null; // User dependent triggers compiled for this client
+    private HashMap<String, HashSet<CompiledTrigger>> dependents   = null; // Dependency key -> cached triggers using it
+    private HashMap<String, LinkedList<PreviousMatch>> previous     = null; // Topic -> %Previous's matching the last reply
+    private HashSet<String> previousDepends                         = null; // Dependency keys of the matched %Previous's
+    private final Object lock                                       = new Object(); // Held while a reply is made for this client
+    private CompletableFuture<String> pending                       = null; // Last asynchronous reply asked for this client
     
     //log
     public final static Logger LOG = Logger.getLogger(Client.class .getName()); 
@@ -36,6 +45,11 @@ public class Client {
         //Initialize data
         this.data = new HashMap<String, String>();
         this.data.put(defaultTopic, defaultRandom);
+        //Initialize compiled patterns cache
+        this.patterns = new HashMap<CompiledTrigger, TriggerMatcher>();
+        this.dependents = new HashMap<String, HashSet<CompiledTrigger>>();
+        this.previous = new HashMap<String, LinkedList<PreviousMatch>>();
+        this.previousDepends = new HashSet<String>();
     }
 
     /**
@@ -45,21 +59,52 @@ public class Client {
     public String getId(){
         return this.id;
     }
+
+    /**
+     * Get the lock serializing the replies to this client. The data of the
+     * client can be read while it is held, by the tags of the reply evaluated
+     * on other threads for instance: the methods of the client are synchronized
+     * on the client itself.
+     * @return Object lock
+     */
+    public Object getLock(){
+        return this.lock;
+    }
+
+    /**
+     * Get the last asynchronous reply asked for this client, the next one is
+     * made after it.
+     * @return CompletableFuture reply, null if none was asked
+     */
+    public synchronized CompletableFuture<String> getPending(){
+        return this.pending;
+    }
+
+    /**
+     * Set the last asynchronous reply asked for this client.
+     * @param pending The reply.
+     */
+    public synchronized void setPending(CompletableFuture<String> pending){
+        this.pending = pending;
+    }
     
     /**
      * Set a variable for the client.
      * @param name  The name of the variable.
      * @param value The value to set in the variable.
      */
-    public void set (String name, String value) {
-        data.put(name, value);
+    public synchronized void set (String name, String value) {
+        String previous = data.put(name, value);
+        if (previous == null || !previous.equals(value)) {
+            invalidate("<get " + name + ">");
+        }
     }
 
     /**
      * Get a variable from the client. Returns the text "undefined" if it doesn't exist.
      * @param name The name of the variable.
      */
-    public String get (String name) {
+    public synchronized String get (String name) {
         String result = undefined;
         if (data.containsKey(name)) {
             result = data.get(name);
@@ -71,51 +116,56 @@ public class Client {
      * Delete a variable for the client.
      * @param name The name of the variable.
      */
-    public void delete (String name) {
+    public synchronized void delete (String name) {
         if (data.containsKey(name)) {
             data.remove(name);
+            invalidate("<get " + name + ">");
         }
     }
 
     /**
      * Retrieve a HashMap of all the user's variables and values.
-     * @return HashMap<String, String> User data key value
+     * @return HashMap<String, String> Copy of the user data key value
      */
-    public HashMap<String, String> getData () {
-        return data;
+    public synchronized HashMap<String, String> getData () {
+        return new HashMap<String, String>(data);
     }
 
     /**
      * Replace the internal HashMap with this new data (dangerous!).
      * @param newdata New data HashMap
      */
-    public void setData (HashMap<String, String> newdata) {
+    public synchronized void setData (HashMap<String, String> newdata) {
         this.data = newdata;
+        clearPatterns();
     }
 
     /**
      * Add a line to the user's input history.
      * @param text New input
      */
-    public void addInput (String text) {
+    public synchronized void addInput (String text) {
         // Push this onto the front of the input array.
         input.addFirst(text);
+        invalidate("<input>");
     }
 
     /**
      * Add a line to the user's reply history.
      * @param text New bot reply
      */
-    public void addReply (String text) {
+    public synchronized void addReply (String text) {
         // Push this onto the front of the reply array.
         reply.addFirst(text);
+        invalidate("<reply>");
+        clearPrevious();
     }
 
     /**
      * Get a specific input value by index.
      * @param index The index of the input value to get
      */
-    public String getInput (int index){
+    public synchronized String getInput (int index){
         String result = undefined;
         int position = index-1;
         try{
@@ -130,7 +180,7 @@ public class Client {
      * Get a specific reply value by index.
      * @param index The index of the reply value to get (1-9).
      */
-    public String getReply (int index){
+    public synchronized String getReply (int index){
         String result = undefined;
         int position = index-1;
         try{
@@ -140,4 +190,91 @@ public class Client {
         }
         return result;
     }
+
+    /**
+     * Get the pattern compiled for this client from a user dependent trigger.
+     * @param trigger The compiled trigger
+     * @return TriggerMatcher cached, null if it must be (re)compiled
+     */
+    public synchronized TriggerMatcher getPattern (CompiledTrigger trigger) {
+        return patterns.get(trigger);
+    }
+
+    /**
+     * Cache the pattern compiled for this client from a user dependent trigger.
+     * It is kept until one of the values it was built from changes.
+     * @param trigger The compiled trigger
+     * @param pattern The pattern built with this client's data
+     */
+    public synchronized void setPattern (CompiledTrigger trigger, TriggerMatcher pattern) {
+        if (patterns.put(trigger, pattern) != null) {
+            return;
+        }
+        String[] keys = trigger.getDependencies();
+        for (int i = 0; i < keys.length; i++) {
+            HashSet<CompiledTrigger> list = dependents.get(keys[i]);
+            if (list == null) {
+                list = new HashSet<CompiledTrigger>();
+                dependents.put(keys[i], list);
+            }
+            list.add(trigger);
+        }
+    }
+
+    /**
+     * Drop the cached patterns built from a value that changed.
+     * @param key Dependency key such as "<get name>", "<bot name>", "<input>" or "<reply>"
+     */
+    public synchronized void invalidate (String key) {
+        if (previousDepends.contains(key)) {
+            clearPrevious();
+        }
+        HashSet<CompiledTrigger> list = dependents.remove(key);
+        if (list == null) {
+            return;
+        }
+        for (Iterator<CompiledTrigger> it = list.iterator(); it.hasNext();) {
+            patterns.remove(it.next());
+        }
+    }
+
+    /**
+     * Drop every cached pattern, e.g. after the replies were sorted again.
+     */
+    public synchronized void clearPatterns () {
+        patterns.clear();
+        dependents.clear();
+        clearPrevious();
+    }
+
+    /**
+     * Get the %Previous's of a topic tree that matched the bot's last reply.
+     * @param topic The topic the tree starts from.
+     * @return List of matches, null if they must be computed again
+     */
+    public synchronized LinkedList<PreviousMatch> getPrevious (String topic) {
+        return previous.get(topic);
+    }
+
+    /**
+     * Keep the %Previous's of a topic tree that matched the bot's last reply. They
+     * are dropped with the next reply, or when a value they were built from changes.
+     * @param topic The topic the tree starts from.
+     * @param matches The matching %Previous's, in the order they were tried.
+     * @param depends Dependency keys of the %Previous's of the tree.
+     */
+    public synchronized void setPrevious (String topic, LinkedList<PreviousMatch> matches, String[] depends) {
+        previous.put(topic, matches);
+        for (int i = 0; i < depends.length; i++) {
+            previousDepends.add(depends[i]);
+        }
+    }
+
+    /**
+     * Drop every %Previous match.
+     */
+    public synchronized void clearPrevious () {
+        previous.clear();
+        previousDepends.clear();
+    }
 }
\ No newline at end of file
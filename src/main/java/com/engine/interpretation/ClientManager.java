@@ -2,22 +2,23 @@ package com.engine.interpretation;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * A manager for all the Bot users.
+ * A manager for all the Bot users. The clients can be looked up and created by
+ * several threads at once.
  */
 public class ClientManager {
 	
     //Variables
-    private HashMap<String, Client> clients = null;     // List of users
+    private ConcurrentHashMap<String, Client> clients = null; // List of users
 
     /**
      * Create a client manager. Only one needed per bot.
      */
     public ClientManager () {
-        this.clients = new HashMap<String, Client>();
+        this.clients = new ConcurrentHashMap<String, Client>();
     }
 
     /**
@@ -27,10 +28,15 @@ public class ClientManager {
      */
     public com.engine.interpretation.Client client (String username) {
         // Is this a new topic? then create a new User
-        if (!clients.containsKey(username)) {
-            clients.put(username, new Client(username));
+        Client client = clients.get(username);
+        if (client == null) {
+            Client created = new Client(username);
+            client = clients.putIfAbsent(username, created);
+            if (client == null) {
+                client = created;
+            }
         }
-        return clients.get(username);
+        return client;
     }
 
     /**
@@ -58,4 +64,24 @@ public class ClientManager {
         }
         return result;
     }
+
+    /**
+     * Drop the cached patterns built from a value shared by all clients, such
+     * as a bot variable.
+     * @param key Dependency key, e.g. "<bot name>"
+     */
+    public void invalidate (String key) {
+        for (Iterator<Client> it = clients.values().iterator(); it.hasNext();) {
+            it.next().invalidate(key);
+        }
+    }
+
+    /**
+     * Drop the cached patterns of every client.
+     */
+    public void clearPatterns () {
+        for (Iterator<Client> it = clients.values().iterator(); it.hasNext();) {
+            it.next().clearPatterns();
+        }
+    }
 }
\ No newline at end of file
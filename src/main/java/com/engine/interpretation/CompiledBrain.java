@@ -0,0 +1,344 @@
+package com.engine.interpretation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Trigger index turned into Java code. The word trie of a topic (see
+ * TriggerTrie) is written out as a class with one method per node: the words
+ * leaving a node become a string switch, the arrays straight comparisons and
+ * only the wildcards need a loop. The class is compiled in memory when the
+ * replies are sorted and loaded by its own class loader, so the JIT gets plain
+ * monomorphic code for each topic instead of walking a generic structure.<p>
+ * Triggers that can't be expanded (the ones with <get>, <input>... tags among
+ * them) are not part of the generated code and are always candidates, matched
+ * the usual way. If the Java compiler isn't available (the interpreter runs on a
+ * JRE) or the topic is too big for a class, the trie itself is used.
+ */
+public class CompiledBrain implements TriggerIndex {
+
+    // Biggest trie turned into a class, methods are limited to 65535
+    public static final int MAX_NODES = 20000;
+
+    // Variables
+    private Function<String[], BitSet> code = null; // Generated matcher
+    private BitSet unindexed                = null; // Ranks of the triggers not in the code
+
+    // Unique class names
+    private static final AtomicInteger classes = new AtomicInteger();
+
+    //Log
+    private final static Logger LOG = Logger.getLogger(CompiledBrain.class .getName());
+
+    /**
+     * Build the compiled index of a sort buffer.
+     * @param topic The name of the topic, for the logs.
+     * @param triggers The compiled triggers of the topic, in sort buffer order.
+     * @param arrays The arrays of the interpreter (! array).
+     * @return The compiled index, or a TriggerTrie if it can't be compiled
+     */
+    @SuppressWarnings("unchecked")
+    public static TriggerIndex compile(String topic, CompiledTrigger[] triggers, HashMap<String, ArraySet> arrays) {
+        TriggerTrie trie = new TriggerTrie(triggers, arrays);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            LOG.log(Level.WARNING, "No Java compiler available, topic {0} uses the word trie", topic);
+            return trie;
+        }
+        if (trie.size() > MAX_NODES) {
+            LOG.log(Level.WARNING, "Topic {0} is too big to be compiled ({1} nodes), it uses the word trie", new Object[]{topic, trie.size()});
+            return trie;
+        }
+
+        String name = "CompiledTopic" + classes.incrementAndGet();
+        String source = new Generator(trie).source(name);
+        try {
+            Class<?> generated = load(compiler, name, source);
+            if (generated == null) {
+                return trie;
+            }
+            CompiledBrain brain = new CompiledBrain();
+            brain.code = (Function<String[], BitSet>) generated.getDeclaredConstructor().newInstance();
+            brain.unindexed = trie.unindexed();
+            LOG.log(Level.INFO, "Compiled topic {0} into class {1}", new Object[]{topic, name});
+            return brain;
+        } catch (ReflectiveOperationException ex) {
+            LOG.log(Level.SEVERE, "Can''t create the compiled class of topic " + topic, ex);
+        }
+        return trie;
+    }
+
+    /**
+     * Compile a source file in memory and load its class.
+     * @param compiler The Java compiler.
+     * @param name The name of the class.
+     * @param source The source code.
+     * @return The class, null if it didn't compile
+     */
+    private static Class<?> load(JavaCompiler compiler, String name, final String source) {
+        final Map<String, ByteArrayOutputStream> output = new HashMap<String, ByteArrayOutputStream>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+        JavaFileManager manager = new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, final String className, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        output.put(className, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + name + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        Boolean success;
+        try {
+            success = compiler.getTask(null, manager, diagnostics, Arrays.asList("-g:none", "-nowarn"), null, Arrays.asList(file)).call();
+        } finally {
+            try {
+                manager.close();
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Can''t close the file manager of " + name, ex);
+            }
+        }
+        if (success == null || !success.booleanValue()) {
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                LOG.log(Level.SEVERE, "Compiling {0}: {1}", new Object[]{name, diagnostic.getMessage(null)});
+            }
+            return null;
+        }
+
+        ClassLoader loader = new ClassLoader(CompiledBrain.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String className) throws ClassNotFoundException {
+                ByteArrayOutputStream bytes = output.get(className);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(className);
+                }
+                byte[] code = bytes.toByteArray();
+                return defineClass(className, code, 0, code.length);
+            }
+        };
+        try {
+            return loader.loadClass(name);
+        } catch (ClassNotFoundException ex) {
+            LOG.log(Level.SEVERE, "Compiled class " + name + " can''t be loaded", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Find the triggers that may match a message.
+     * @param words The words of the formatted message.
+     * @return Ranks of the candidate triggers in ascending order, or null if the
+     * message can't be split in words and every trigger must be tried
+     */
+    @Override
+    public int[] candidates(String[] words) {
+        if (words == null) {
+            return null;
+        }
+        BitSet found = code.apply(words);
+        found.or(unindexed);
+
+        int[] result = new int[found.cardinality()];
+        int r = 0;
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+            result[r++] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Writes the source code of a trie.
+     */
+    private static class Generator {
+        private TriggerTrie trie;
+        private StringBuilder out = new StringBuilder();
+        private HashMap<TriggerTrie.Node, Integer> loops = new HashMap<TriggerTrie.Node, Integer>();
+
+        private Generator(TriggerTrie trie) {
+            this.trie = trie;
+        }
+
+        /**
+         * Write the class.
+         * @param name The name of the class.
+         * @return The source code
+         */
+        private String source(String name) {
+            // Nodes reached through a wildcard or an array can be reached again
+            // at the same word, those are the only ones to remember.
+            numberLoops(trie.root());
+
+            out.append("public final class ").append(name)
+                    .append(" implements java.util.function.Function<String[], java.util.BitSet> {\n");
+            out.append("    public java.util.BitSet apply(String[] w) {\n");
+            out.append("        java.util.BitSet f = new java.util.BitSet();\n");
+            out.append("        n").append(trie.root().id).append("(w, 0, f, new java.util.BitSet());\n");
+            out.append("        return f;\n");
+            out.append("    }\n");
+            out.append("    private static boolean number(String s) {\n");
+            out.append("        for (int i = 0; i < s.length(); i++) { char c = s.charAt(i); if (c < '0' || c > '9') return false; }\n");
+            out.append("        return s.length() > 0;\n");
+            out.append("    }\n");
+            out.append("    private static boolean alpha(String s) {\n");
+            out.append("        for (int i = 0; i < s.length(); i++) { char c = s.charAt(i); if (c < 'a' || c > 'z') return false; }\n");
+            out.append("        return s.length() > 0;\n");
+            out.append("    }\n");
+            node(trie.root(), new HashSet<TriggerTrie.Node>());
+            out.append("}\n");
+            return out.toString();
+        }
+
+        private void numberLoops(TriggerTrie.Node node) {
+            if (node.star != null) {
+                loops.put(node.star, Integer.valueOf(loops.size()));
+            }
+            if (node.alpha != null) {
+                loops.put(node.alpha, Integer.valueOf(loops.size()));
+            }
+            if (node.arrays != null) {
+                for (TriggerTrie.Node next : node.arrays.values()) {
+                    loops.put(next, Integer.valueOf(loops.size()));
+                }
+            }
+            for (TriggerTrie.Node child : children(node)) {
+                numberLoops(child);
+            }
+        }
+
+        private LinkedList<TriggerTrie.Node> children(TriggerTrie.Node node) {
+            LinkedList<TriggerTrie.Node> result = new LinkedList<TriggerTrie.Node>();
+            if (node.words != null) {
+                result.addAll(node.words.values());
+            }
+            if (node.arrays != null) {
+                result.addAll(node.arrays.values());
+            }
+            if (node.star != null) {
+                result.add(node.star);
+            }
+            if (node.alpha != null) {
+                result.add(node.alpha);
+            }
+            if (node.number != null) {
+                result.add(node.number);
+            }
+            return result;
+        }
+
+        /**
+         * Write the method of a node and of the nodes below it.
+         */
+        private void node(TriggerTrie.Node node, HashSet<TriggerTrie.Node> done) {
+            if (!done.add(node)) {
+                return;
+            }
+            String call = "(w, %s, f, s);\n";
+            out.append("    private static void n").append(node.id)
+                    .append("(String[] w, int i, java.util.BitSet f, java.util.BitSet s) {\n");
+            Integer loop = loops.get(node);
+            if (loop != null) {
+                out.append("        int k = ").append(loop).append(" * (w.length + 1) + i;\n");
+                out.append("        if (s.get(k)) return;\n");
+                out.append("        s.set(k);\n");
+            }
+            out.append("        if (i == w.length) {\n");
+            if (node.ends != null) {
+                for (int r = node.ends.nextSetBit(0); r >= 0; r = node.ends.nextSetBit(r + 1)) {
+                    out.append("            f.set(").append(r).append(");\n");
+                }
+            }
+            out.append("            return;\n");
+            out.append("        }\n");
+            if (node.words != null) {
+                out.append("        switch (w[i]) {\n");
+                for (Map.Entry<String, TriggerTrie.Node> entry : node.words.entrySet()) {
+                    out.append("            case ").append(literal(entry.getKey())).append(": n")
+                            .append(entry.getValue().id).append(String.format(call, "i + 1"));
+                    out.append("                break;\n");
+                }
+                out.append("            default:\n");
+                out.append("                break;\n");
+                out.append("        }\n");
+            }
+            if (node.number != null) {
+                out.append("        if (number(w[i])) n").append(node.number.id).append(String.format(call, "i + 1"));
+            }
+            if (node.alpha != null) {
+                out.append("        for (int j = i; j < w.length && alpha(w[j]); j++) n").append(node.alpha.id).append(String.format(call, "j + 1"));
+            }
+            if (node.star != null) {
+                out.append("        for (int j = i + 1; j <= w.length; j++) n").append(node.star.id).append(String.format(call, "j"));
+            }
+            if (node.arrays != null) {
+                for (Map.Entry<String, TriggerTrie.Node> entry : node.arrays.entrySet()) {
+                    HashSet<String> seen = new HashSet<String>();
+                    for (String[] item : trie.items(entry.getKey())) {
+                        if (!seen.add(Arrays.toString(item))) {
+                            continue;
+                        }
+                        out.append("        if (i + ").append(item.length).append(" <= w.length");
+                        for (int t = 0; t < item.length; t++) {
+                            out.append(" && ").append(literal(item[t])).append(".equals(w[i + ").append(t).append("])");
+                        }
+                        out.append(") n").append(entry.getValue().id).append(String.format(call, "i + " + item.length));
+                    }
+                }
+            }
+            out.append("    }\n");
+
+            for (TriggerTrie.Node child : children(node)) {
+                node(child, done);
+            }
+        }
+
+        /**
+         * Write a string literal, with unicode escapes for anything but ASCII
+         * letters and digits.
+         */
+        private static String literal(String text) {
+            StringBuilder result = new StringBuilder("\"");
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-') {
+                    result.append(c);
+                } else {
+                    result.append(String.format("\\u%04x", (int) c));
+                }
+            }
+            return result.append('"').toString();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.engine.interpretation;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A trigger of a topic's sort buffer prepared for reply matching. The regular
+ * expression is built and compiled once when the replies are sorted. Triggers
+ * using bot or user variables (or the chat history) keep the partially built
+ * expression, which is completed with the user's data at match time.
+ */
+public class CompiledTrigger {
+
+    // Variables
+    private String pattern      = null;     // Trigger text as found in the sort buffer
+    private Trigger trigger     = null;     // Trigger object owning the replies
+    private String regexp       = null;     // Regular expression without user dependent values
+    private TriggerMatcher compiled = null; // Compiled expression, null if user dependent or invalid
+    private boolean dynamic     = false;    // Has <bot>, <get>, <input> or <reply> tags
+    private String[] depends    = null;     // Tags the user dependent expression is built from
+    private String[][] expansions = null;   // Word tokens for the trigger indexes, null if not indexable
+    private AtomicLong hits     = new AtomicLong(); // Times the trigger matched, for the adaptive order
+
+    //Log
+    private final static Logger LOG = Logger.getLogger(CompiledTrigger.class .getName());
+
+    /**
+     * Create a new compiled trigger.
+     * @param pattern   The trigger text from the sort buffer.
+     * @param trigger   The Trigger object that owns the replies (may be null).
+     * @param regexp    The trigger already formatted for the regular expression
+     * engine, except for user dependent tags.
+     * @param expansions The trigger split in words by TriggerParser, null if it
+     * can't be indexed.
+     * @param arrays The compiled arrays the expression refers to.
+     */
+    public CompiledTrigger(String pattern, Trigger trigger, String regexp, String[][] expansions, HashMap<String, ArraySet> arrays) {
+        this.pattern = pattern;
+        this.trigger = trigger;
+        this.regexp  = regexp;
+        this.dynamic = regexp.indexOf("<bot") > -1 || regexp.indexOf("<get") > -1
+                || regexp.indexOf("<input") > -1 || regexp.indexOf("<reply") > -1;
+
+        // Static triggers are compiled right away, never again at match time.
+        if (dynamic) {
+            this.depends = dependencies(regexp);
+        } else {
+            try {
+                this.compiled = TriggerMatcher.compile(regexp, arrays);
+                this.expansions = expansions;
+            } catch (PatternSyntaxException ex) {
+                LOG.log(Level.SEVERE, "Trigger {0} is not a valid expression and will never match: {1}", new Object[]{pattern, ex.getMessage()});
+            }
+        }
+    }
+
+    /**
+     * List the values a user dependent expression is built from, as the keys used
+     * by Client to invalidate its cached patterns: "<get name>", "<bot name>",
+     * "<input>" for any input of the history and "<reply>" for any reply.
+     * @param regexp The formatted trigger.
+     * @return Array of dependency keys
+     */
+    private static String[] dependencies(String regexp) {
+        LinkedList<String> result = new LinkedList<String>();
+        Matcher m = Pattern.compile("<(bot|get) (.+?)>|<(input|reply)[0-9]?>").matcher(regexp);
+        while (m.find()) {
+            String key;
+            if (m.group(1) != null) {
+                key = "<" + m.group(1) + " " + m.group(2) + ">";
+            } else {
+                key = "<" + m.group(3) + ">";
+            }
+            if (!result.contains(key)) {
+                result.add(key);
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Get the trigger text as found in the sort buffer.
+     * @return String pattern
+     */
+    public String getPattern() {
+        return this.pattern;
+    }
+
+    /**
+     * Get the Trigger object holding the replies, conditions and redirects.
+     * @return Trigger owner, null if it could not be found
+     */
+    public Trigger getTrigger() {
+        return this.trigger;
+    }
+
+    /**
+     * Get the regular expression without the user dependent values.
+     * @return String regular expression
+     */
+    public String getRegexp() {
+        return this.regexp;
+    }
+
+    /**
+     * Get the compiled expression for static triggers.
+     * @return TriggerMatcher compiled, null for dynamic or invalid triggers
+     */
+    public TriggerMatcher getCompiled() {
+        return this.compiled;
+    }
+
+    /**
+     * Test whether the trigger needs the user's data to be matched.
+     * @return true if the trigger has <bot>, <get>, <input> or <reply> tags
+     */
+    public boolean isDynamic() {
+        return this.dynamic;
+    }
+
+    /**
+     * List the tags the expression of a dynamic trigger depends on.
+     * @return Array of dependency keys, null for static triggers
+     */
+    public String[] getDependencies() {
+        return this.depends;
+    }
+
+    /**
+     * Get the word tokens of the trigger, one sequence per combination of its
+     * optionals.
+     * @return Array of token sequences, null if the trigger can't be indexed
+     */
+    public String[][] getExpansions() {
+        return this.expansions;
+    }
+
+    /**
+     * Count a match of the trigger.
+     */
+    public void hit() {
+        this.hits.incrementAndGet();
+    }
+
+    /**
+     * Get the number of matches counted since the last aging.
+     * @return long hits
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Halve the number of matches, so the order follows what users say lately.
+     */
+    public void age() {
+        long current = this.hits.get();
+        while (!this.hits.compareAndSet(current, current / 2)) {
+            current = this.hits.get();
+        }
+    }
+}
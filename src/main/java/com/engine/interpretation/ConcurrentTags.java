@@ -0,0 +1,191 @@
+package com.engine.interpretation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Evaluation of the slow tags of a reply ({@redirect} and <call>) at the same
+ * time on a bounded executor, the results being put back in their places.<p>
+ * A redirect replies to its target with a SessionJournal of the user's profile:
+ * the variables (and the topic) it sets are applied in the order of the reply
+ * once every redirect is done. A redirect that read a variable set by a redirect
+ * before it, or that can't be evaluated out of order, is evaluated again in
+ * order, so the reply and the profile end up as if the redirects had been
+ * evaluated one after the other. The calls of the pure objects don't touch the
+ * profile and just run at the same time, the other calls are run in order.
+ */
+public class ConcurrentTags {
+
+    /**
+     * A tag to evaluate.
+     */
+    public interface Tag {
+        /**
+         * Evaluate the tag.
+         * @param profile The profile of the user, a SessionJournal when the tag
+         * is evaluated out of order.
+         * @return The text replacing the tag
+         */
+        public String evaluate(Client profile);
+    }
+
+    // Variables
+    private ExecutorService executor    = null;     // Runs the tags out of order
+
+    //Log
+    private final static Logger LOG = Logger.getLogger(ConcurrentTags.class .getName());
+
+    /**
+     * Create a new evaluator.
+     * @param executor The executor running the tags, bounded (for example
+     * Executors.newFixedThreadPool).
+     */
+    public ConcurrentTags(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Evaluate tags that may change the user's profile, such as redirects.
+     * @param profile The real profile of the user.
+     * @param tags The tags, in the order of the reply.
+     * @return The text of each tag
+     */
+    public String[] evaluate(Client profile, Tag[] tags) {
+        SessionJournal[] journals = new SessionJournal[tags.length];
+        ArrayList<Future<String>> futures = submit(profile, tags, journals, null);
+
+        // The first tag is evaluated meanwhile by the caller.
+        String[] results = new String[tags.length];
+        boolean[] done = new boolean[tags.length];
+        if (tags.length > 0) {
+            journals[0] = new SessionJournal(profile);
+            try {
+                results[0] = tags[0].evaluate(journals[0]);
+                done[0] = true;
+            } catch (SessionJournal.OutOfOrder ex) {
+                done[0] = false;
+            }
+        }
+        for (int t = 1; t < tags.length; t++) {
+            done[t] = wait(futures.get(t), results, t);
+        }
+
+        // Apply the variables set in order, the tags that read a variable set
+        // before them are evaluated again.
+        HashSet<String> written = new HashSet<String>();
+        for (int t = 0; t < tags.length; t++) {
+            if (done[t] && !journals[t].readAny(written)) {
+                written.addAll(journals[t].apply());
+                continue;
+            }
+            LOG.log(Level.INFO, "Evaluate tag {0} again in order", t);
+            HashMap<String, String> before = new HashMap<String, String>(profile.getData());
+            results[t] = tags[t].evaluate(profile);
+            written.addAll(changes(before, profile.getData()));
+        }
+        return results;
+    }
+
+    /**
+     * Evaluate tags that don't touch the user's profile, such as the calls of
+     * pure objects, with the ones that must run in order.
+     * @param tags The tags, in the order of the reply.
+     * @param ordered The tags that must be evaluated in order, by the caller.
+     * @return The text of each tag
+     */
+    public String[] evaluate(Tag[] tags, boolean[] ordered) {
+        ArrayList<Future<String>> futures = submit(null, tags, null, ordered);
+        String[] results = new String[tags.length];
+        for (int t = 0; t < tags.length; t++) {
+            if (futures.get(t) == null || !wait(futures.get(t), results, t)) {
+                results[t] = tags[t].evaluate(null);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Submit the tags to the executor.
+     * @param profile The profile of the user, null if the tags don't use it.
+     * @param journals Receives the journal of each tag submitted, null if the
+     * tags don't use the profile (the first one is left to the caller then).
+     * @param ordered The tags not to submit, null for all of them.
+     * @return The future of each tag, null when it wasn't submitted
+     */
+    private ArrayList<Future<String>> submit(Client profile, Tag[] tags, SessionJournal[] journals, boolean[] ordered) {
+        ArrayList<Future<String>> futures = new ArrayList<Future<String>>(tags.length);
+        for (int t = 0; t < tags.length; t++) {
+            futures.add(null);
+        }
+        for (int t = journals == null ? 0 : 1; t < tags.length; t++) {
+            if (ordered != null && ordered[t]) {
+                continue;
+            }
+            final Tag tag = tags[t];
+            final SessionJournal journal = journals == null ? null : new SessionJournal(profile);
+            if (journals != null) {
+                journals[t] = journal;
+            }
+            try {
+                futures.set(t, executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return tag.evaluate(journal);
+                    }
+                }));
+            } catch (RejectedExecutionException ex) {
+                // Full, the tag is evaluated in order.
+                futures.set(t, null);
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Wait for a tag.
+     * @return true if it was evaluated, false if it must be evaluated in order
+     */
+    private static boolean wait(Future<String> future, String[] results, int t) {
+        if (future == null) {
+            return false;
+        }
+        try {
+            results[t] = future.get();
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return false;
+        } catch (ExecutionException ex) {
+            // Out of order, or failed: in order it fails as it always did.
+            return false;
+        }
+    }
+
+    /**
+     * Find the variables changed by a tag evaluated in order.
+     */
+    private static HashSet<String> changes(HashMap<String, String> before, HashMap<String, String> after) {
+        HashSet<String> result = new HashSet<String>();
+        for (String name : after.keySet()) {
+            String value = after.get(name);
+            if (value == null ? before.get(name) != null : !value.equals(before.get(name))) {
+                result.add(name);
+            }
+        }
+        for (String name : before.keySet()) {
+            if (!after.containsKey(name)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,227 @@
+package com.engine.interpretation;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A *Condition line parsed once when the trigger is loaded: the two operands,
+ * the operator and the reply given when the condition is true. The operands
+ * still have their tags, the caller renders them right before the test, so the
+ * conditions after the first true one are never rendered.
+ */
+public class Condition {
+
+    // The operator and the operands of a condition
+    private static final Pattern CONDITION = Pattern.compile("^(.+?)\\s+(==|eq|startsWith|\\!=|ne|<>|<|<=|>|>=)\\s+(.+?)$");
+
+    /**
+     * The operators of the conditions. eq, ne and startsWith compare strings,
+     * the inequalities compare numbers and the others compare both ways: the
+     * condition is true if it is true for the strings or for the numbers.
+     */
+    public enum Operator {
+        EQUALS("==", true, true),
+        EQ("eq", true, false),
+        STARTS_WITH("startsWith", true, false),
+        NOT_EQUALS("!=", true, true),
+        NE("ne", true, false),
+        DIFFERENT("<>", true, true),
+        LESS("<", false, true),
+        LESS_OR_EQUAL("<=", false, true),
+        GREATER(">", false, true),
+        GREATER_OR_EQUAL(">=", false, true);
+
+        private String symbol;              // The operator as written in the condition
+        private boolean strings;            // Compares strings
+        private boolean numbers;            // Compares numbers
+
+        private Operator(String symbol, boolean strings, boolean numbers) {
+            this.symbol     = symbol;
+            this.strings    = strings;
+            this.numbers    = numbers;
+        }
+
+        /**
+         * Get the operator written with a symbol.
+         * @param symbol The symbol.
+         * @return The operator, null if there is none
+         */
+        public static Operator forSymbol(String symbol) {
+            Operator[] operators = values();
+            for (int i = 0; i < operators.length; i++) {
+                if (operators[i].symbol.equals(symbol)) {
+                    return operators[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Get the symbol of the operator.
+         * @return String symbol
+         */
+        public String getSymbol() {
+            return symbol;
+        }
+    }
+
+    // Variables
+    private String left         = null;     // Left operand, with its tags
+    private Operator operator   = null;     // Comparison
+    private String right        = null;     // Right operand, with its tags
+    private String reply        = null;     // Reply when the condition is true
+
+    /**
+     * Create a new condition.
+     * @param left The left operand.
+     * @param operator The operator.
+     * @param right The right operand.
+     * @param reply The reply when the condition is true.
+     */
+    public Condition(String left, Operator operator, String right, String reply) {
+        this.left       = left;
+        this.operator   = operator;
+        this.right      = right;
+        this.reply      = reply;
+    }
+
+    /**
+     * Parse a *Condition line.
+     * @param line The text of the line, "left operator right => reply".
+     * @return The condition, null if the line isn't one
+     */
+    public static Condition parse(String line) {
+        // Separate the condition from the potential reply.
+        String[] halves = line.split("\\s*=>\\s*");
+        if (halves.length < 2) {
+            return null;
+        }
+
+        // Split up the condition.
+        Matcher mCond = CONDITION.matcher(halves[0].trim());
+        if (!mCond.find()) {
+            return null;
+        }
+        return new Condition(mCond.group(1).trim(), Operator.forSymbol(mCond.group(2).trim()),
+                mCond.group(3).trim(), halves[1].trim());
+    }
+
+    /**
+     * Test the condition.
+     * @param left The left operand, with its tags processed.
+     * @param right The right operand, with its tags processed.
+     * @return true if the condition is true
+     */
+    public boolean test(String left, String right) {
+        // Defaults
+        if (left.length() == 0) {
+            left = "undefined";
+        }
+        if (right.length() == 0) {
+            right = "undefined";
+        }
+
+        // String comparing.
+        if (operator.strings) {
+            switch (operator) {
+                case EQUALS:
+                case EQ:
+                    if (left.equals(right)) {
+                        return true;
+                    }
+                    break;
+                case STARTS_WITH:
+                    if (left.startsWith(right)) {
+                        return true;
+                    }
+                    break;
+                default:
+                    if (!left.equals(right)) {
+                        return true;
+                    }
+                    break;
+            }
+        }
+        if (!operator.numbers) {
+            return false;
+        }
+
+        // Numeric comparing, when both sides are numbers.
+        Integer lt = number(left);
+        Integer rt = lt == null ? null : number(right);
+        if (rt == null) {
+            return false;
+        }
+        int compared = lt.compareTo(rt);
+        switch (operator) {
+            case EQUALS:
+                return compared == 0;
+            case NOT_EQUALS:
+            case DIFFERENT:
+                return compared != 0;
+            case LESS:
+                return compared < 0;
+            case LESS_OR_EQUAL:
+                return compared <= 0;
+            case GREATER:
+                return compared > 0;
+            default:
+                return compared >= 0;
+        }
+    }
+
+    /**
+     * Read a number the way Integer.parseInt does, without throwing for the
+     * operands that obviously aren't numbers.
+     * @return The number, null if the text isn't one
+     */
+    private static Integer number(String text) {
+        int start = text.charAt(0) == '-' || text.charAt(0) == '+' ? 1 : 0;
+        if (start == text.length()) {
+            return null;
+        }
+        for (int i = start; i < text.length(); i++) {
+            if (!Character.isDigit(text.charAt(i))) {
+                return null;
+            }
+        }
+        try {
+            return Integer.valueOf(Integer.parseInt(text));
+        } catch (NumberFormatException e) {
+            // Too big.
+            return null;
+        }
+    }
+
+    /**
+     * Get the left operand.
+     * @return String left operand, with its tags
+     */
+    public String getLeft() {
+        return left;
+    }
+
+    /**
+     * Get the operator.
+     * @return Operator operator
+     */
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * Get the right operand.
+     * @return String right operand, with its tags
+     */
+    public String getRight() {
+        return right;
+    }
+
+    /**
+     * Get the reply given when the condition is true.
+     * @return String reply
+     */
+    public String getReply() {
+        return reply;
+    }
+}
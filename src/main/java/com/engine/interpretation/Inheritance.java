@@ -41,18 +41,29 @@ public class Inheritance {
      * @return Collection of sorted items
      */
     public Collection<String> dump (LinkedList<String> sorted) {
+        return dump(sorted, new LinkedList<Integer>());
+    }
+
+    /**
+     * Dump the buckets out and add them to the given vector, keeping track of the
+     * groups of triggers the sort can't tell apart (same bucket and word count).
+     * @param sorted    Collection of items
+     * @param groups    Receives the size of each group, in sort order
+     * @return Collection of sorted items
+     */
+    public Collection<String> dump (LinkedList<String> sorted, LinkedList<Integer> groups) {
         
         // Sort each sort-category by the number of words they have, in descending order.
-        sorted = addSortedList(sorted, atomic);
-        sorted = addSortedList(sorted, option);
-        sorted = addSortedList(sorted, alpha);
-        sorted = addSortedList(sorted, number);
-        sorted = addSortedList(sorted, wild);
+        sorted = addSortedList(sorted, atomic, groups);
+        sorted = addSortedList(sorted, option, groups);
+        sorted = addSortedList(sorted, alpha, groups);
+        sorted = addSortedList(sorted, number, groups);
+        sorted = addSortedList(sorted, wild, groups);
 
         // Add the singleton wildcards too.
-        sorted = addSortedList(sorted, under);
-        sorted = addSortedList(sorted, pound);
-        sorted = addSortedList(sorted, star);
+        sorted = addSortedList(sorted, under, groups);
+        sorted = addSortedList(sorted, pound, groups);
+        sorted = addSortedList(sorted, star, groups);
 
         return sorted;
     }
@@ -62,9 +73,10 @@ public class Inheritance {
      * running sort buffer.
      * @param vector The running sort buffer vector
      * @param hash   The hash of word count -> triggers vector
+     * @param groups Receives the size of each word count group
      * @return  Collection of sorted list
      */
-    private LinkedList<String> addSortedList (LinkedList<String> target, TreeMap<Integer, Collection<String> > map) {
+    private LinkedList<String> addSortedList (LinkedList<String> target, TreeMap<Integer, Collection<String> > map, LinkedList<Integer> groups) {
         // We've been given a hash where the keys are integers (word counts) and
         // the values are all triggers with that number of words in them (where
         // words are things that aren't wildcards).
@@ -79,6 +91,9 @@ public class Inheritance {
                 String val = (String) colIter.next();
                 target.add(val);
             }
+            if (!collection.isEmpty()) {
+                groups.add(collection.size());
+            }
         }  
 
         // Return the new vector.
@@ -89,9 +104,13 @@ public class Inheritance {
      * A helper function for sortReplies, adds a vector of wildcard triggers to the running sort buffer.
      * @param target    The running sort buffer list
      * @param list      The list of wildcard triggers
+     * @param groups    Receives the size of the list
      */
-    private LinkedList<String> addSortedList (LinkedList<String> target, LinkedList<String> list) {
-        
+    private LinkedList<String> addSortedList (LinkedList<String> target, LinkedList<String> list, LinkedList<Integer> groups) {
+        if (!list.isEmpty()) {
+            groups.add(list.size());
+        }
+
         for (Iterator<String> iter=list.descendingIterator(); iter.hasNext();) {  
             String trigger = (String) iter.next(); 
             target.add(trigger);
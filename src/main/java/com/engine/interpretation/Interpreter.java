@@ -11,20 +11,30 @@ import com.engine.property.IProperty;
 import com.engine.property.PropertyManager;
 import com.engine.translate.ITranslation;
 import com.engine.util.Parser;
-import com.engine.util.Utils;
 import com.memetix.mst.language.Language;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import org.apache.commons.lang.StringUtils;
 
 /**
@@ -36,7 +46,15 @@ import org.apache.commons.lang.StringUtils;
  * interpreter.loadDirectory("./replies");<p>
  * // Sort replies<br> rs.sortReplies();<p>
  * // Get a reply for the user<br> String reply = interpreter.reply("user", "Hello
- * bot!");
+ * bot!");<p>
+ * THREADS<p>
+ * Once the replies are sorted, reply() may be called by any number of threads:
+ * the replies to a user are made one at a time, the users are served at the
+ * same time. The brain is never changed in place while it is served. The
+ * definitions (! var, ! sub...) are copied, changed and swapped, and the code
+ * streamed into sorted topics ({!stream} tags included) is parsed into a copy
+ * of the topics, swapped in whole; sortReplies() sorts a copy as well. The
+ * changes of the brain are made one at a time.
  */
 public class Interpreter {
     
@@ -63,26 +81,45 @@ public class Interpreter {
     public static final String CMD_LEARN       = "=";
     
     // The topic data structure, and the "thats" data structure.
-    public TopicManager topics = null;
+    public volatile TopicManager topics = null;     // replaced whole once the replies are sorted
     
     // Bot's users' data structure.
     public ClientManager clients = null;
     
     // Object handlers
-    public HashMap<String, ObjectHandler> handlers = null;
-    public HashMap<String, String> objects         = null; // name->language mappers
+    public volatile HashMap<String, ObjectHandler> handlers = null;
+    public volatile HashMap<String, String> objects         = null; // name->language mappers
+    private volatile HashSet<String> pure              = new HashSet<String>(); // objects whose result only depends on their arguments
+    private CallCache callCache                        = new CallCache(1024);   // results of the pure objects
     public String filesPath                        = null; // Path to .rs files
     public String perlPath                         = null; // Path to perl
    
-    // Simpler internal data structures.
+    // Simpler internal data structures. The maps are copied when they change, and
+    // must be read, not modified.
     public LinkedList<String> vTopics                  = null; // vector containing topic list (for quicker lookups)
-    public HashMap<String, String> globals             = null; // ! global
-    public HashMap<String, String> vars                = null; // ! var
-    public HashMap<String, LinkedList<String>> arrays  = null; // ! array
-    public HashMap<String, String> subs                = null; // ! sub
-    public String[] subs_s                             = null; // sorted subs
-    public HashMap<String, String> person              = null; // ! person
-    public String[] person_s                           = null; // sorted persons
+    public volatile HashMap<String, String> globals    = null; // ! global
+    public volatile HashMap<String, String> vars       = null; // ! var
+    public volatile HashMap<String, LinkedList<String>> arrays = null; // ! array
+    private volatile HashMap<String, ArraySet> arraySets = new HashMap<String, ArraySet>(); // ! array, compiled by sortReplies
+    public volatile HashMap<String, String> subs       = null; // ! sub
+    public volatile HashMap<String, String> person     = null; // ! person
+    private volatile SubstitutionAutomaton subsAutomaton = null; // ! sub, built by sortReplies
+    private volatile SubstitutionAutomaton personAutomaton = null; // ! person, built by sortReplies
+
+    // Trigger matching engine
+    private TriggerIndex.Engine engine                 = TriggerIndex.Engine.TRIE;
+    private volatile boolean sorted                    = false; // replies have been sorted
+    private ParallelSearch parallel                    = null;  // search of big topics in parallel
+    private ConcurrentTags concurrentTags              = null;  // evaluation of the slow tags of a reply at the same time
+    private volatile ExecutorService async             = null;  // runs replyAsync, null for the default one
+    private int reorderPeriod                          = 0;     // replies between two reorders, 0 = never
+    private AtomicInteger replies                      = new AtomicInteger(); // replies since the start
+    private volatile HashMap<String, ReplyTemplate> templates = new HashMap<String, ReplyTemplate>(); // compiled replies, null if not compilable
+    private volatile boolean compileReplies            = true;  // render the replies from their ReplyTemplate
+    private RedirectResolver resolver                  = null;  // static redirects, collected by sortReplies
+    private volatile BeginBlock beginBlock             = null;  // BEGIN block, analysed with its sort buffer
+    private ThreadLocal<HashMap<SortBuffer, HashMap<String, int[]>>> turn
+            = new ThreadLocal<HashMap<SortBuffer, HashMap<String, int[]>>>(); // searches done during the current reply
     
     //Log
     private final static Logger LOG = Logger.getLogger(Interpreter.class .getName()); 
@@ -126,9 +163,7 @@ public class Interpreter {
         this.vars       = new HashMap<String, String>();        
         this.arrays     = new HashMap<String, LinkedList<String>>(); 
         this.subs       = new HashMap<String, String>();         
-        this.subs_s     = null;                                 
         this.person     = new HashMap<String, String>();         
-        this.person_s   = null;     
 
         setLogLevel(Level.ALL);
     }
@@ -215,7 +250,7 @@ public class Interpreter {
         LinkedList lines = new LinkedList(Arrays.asList(code.split("\n")));
 
         // Send the lines to the parser.
-        return Parser.parseRS(this, "(streamed)", lines);
+        return parse("(streamed)", lines);
     }
 
     /**
@@ -230,8 +265,41 @@ public class Interpreter {
         LinkedList lines = new LinkedList(Arrays.asList(code));
         
         // The coder has already broken the lines for us!
-        return Parser.parseRS(this,"(streamed)", lines);
-        //return parse("(streamed)", lines);
+        return parse("(streamed)", lines);
+    }
+
+    /**
+     * Parse Interpreter code into the brain. Once the replies are sorted, code
+     * that isn't only definitions (! var, ! sub...) is parsed into a copy of the
+     * topics, which replaces them when it is complete: the replies being made
+     * keep the topics they started with. Like before, the new triggers are only
+     * matched once the replies are sorted again.
+     * @param filename The name of the source, for the messages.
+     * @param code The lines of code.
+     * @return true on success
+     */
+    public synchronized boolean parse(String filename, LinkedList<String> code) {
+        if (!sorted || definitionsOnly(code)) {
+            return Parser.parseRS(this, topics, filename, code);
+        }
+        TopicManager copy = topics.copy();
+        boolean result = Parser.parseRS(this, copy, filename, code);
+        topics = copy;
+        return result;
+    }
+
+    /**
+     * Test whether code only has definitions and comments, which don't touch the
+     * topics.
+     */
+    private static boolean definitionsOnly(LinkedList<String> code) {
+        for (String line : code) {
+            line = line.trim();
+            if (line.length() > 0 && !line.startsWith(CMD_DEFINE) && !line.startsWith("//")) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -252,7 +320,247 @@ public class Interpreter {
             default:
                 break;
         }
-        this.handlers.put(name.name(), handler);
+        setHandler(name.name(), handler);
+    }
+
+    /**
+     * Add a handler of its own for a programming language. The handlers are
+     * replaced, not changed, so the replies being made keep the ones they saw.
+     * @param name The name of the programming language, as written after
+     * "> object name".
+     * @param handler The handler of the objects written in that language.
+     */
+    public synchronized void setHandler(String name, ObjectHandler handler) {
+        HashMap<String, ObjectHandler> copy = new HashMap<String, ObjectHandler>(this.handlers);
+        copy.put(name.toUpperCase(), handler);
+        this.handlers = copy;
+    }
+
+    /**
+     * Map an object to the language of its handler, once its code is loaded.
+     * @param name The name of the object.
+     * @param lang The language, as named by ObjectHandler.Handler.
+     */
+    public synchronized void setObject(String name, String lang) {
+        HashMap<String, String> copy = new HashMap<String, String>(this.objects);
+        copy.put(name, lang);
+        this.objects = copy;
+    }
+
+    /**
+     * Declare whether an object is pure (> object name lang pure): its result only
+     * depends on its arguments, so the results of its calls are cached. The cached
+     * results of the object are forgotten, as it was just loaded.
+     * @param name The name of the object.
+     * @param pure Whether the object is pure.
+     */
+    public synchronized void setPure(String name, boolean pure) {
+        HashSet<String> objects = new HashSet<String>(this.pure);
+        if (pure) {
+            objects.add(name);
+        } else {
+            objects.remove(name);
+        }
+        this.pure = objects;
+        callCache.remove(name);
+    }
+
+    /**
+     * Test whether an object is pure.
+     * @param name The name of the object.
+     * @return true if it was declared pure
+     */
+    public boolean isPure(String name) {
+        return pure.contains(name);
+    }
+
+    /**
+     * Get the cache of the results of the pure objects, with its hit rate and
+     * evictions. Its capacity is 1024 results by default, 0 disables it.
+     * @return CallCache cache
+     */
+    public CallCache getCallCache() {
+        return callCache;
+    }
+
+    /**
+     * Select how the triggers of a topic are searched for a match: SCAN tries the
+     * regular expression of every trigger of the sort buffer, TRIE walks the words
+     * of the message through a trie of the triggers, AUTOMATON reads them once
+     * through a deterministic automaton of the whole topic, PREFILTER only tries
+     * the triggers whose required words are all in the message, COMPILED runs the
+     * trie turned into a Java class (see CompiledBrain). All of them give the same
+     * replies. The indexes are rebuilt if the replies are already sorted.
+     * @param engine The engine to use.
+     */
+    public synchronized void setEngine(TriggerIndex.Engine engine) {
+        this.engine = engine;
+        if (sorted) {
+            Object[] topicsListed = this.topics.listTopics();
+            for (int t = 0; t < topicsListed.length; t++) {
+                Topic topic = topics.topic(topicsListed[t].toString());
+                SortBuffer buffer = topic.buffer();
+                if (buffer == null) {
+                    continue;
+                }
+                topic.setBuffer(buildBuffer(topics, topicsListed[t].toString(), buffer.getTriggers(), buffer.getGroups()));
+            }
+        }
+    }
+
+    /**
+     * Search the big topics in parallel: when a message has at least threshold
+     * triggers to be compared with, the sort buffer is split in chunks matched on
+     * the pool (see ParallelSearch). The trigger found is the one the sequential
+     * search would find.
+     * @param pool The pool running the chunks, null to search sequentially.
+     * @param threshold The number of triggers from which a search is split.
+     */
+    public void setParallelSearch(ForkJoinPool pool, int threshold) {
+        this.parallel = pool == null ? null : new ParallelSearch(pool, threshold);
+    }
+
+    /**
+     * Evaluate the {@redirect} and <call> tags of a reply at the same time: the
+     * redirects of a reply are given to the executor together, then its calls
+     * (see ConcurrentTags). The variables and the topic they set are applied in
+     * the order of the reply, and the redirects that depend on each other are
+     * evaluated one after the other, so the replies don't change. Only the calls
+     * of the pure objects are run at the same time.
+     * @param executor A bounded executor, such as Executors.newFixedThreadPool;
+     * null to evaluate the tags one after the other.
+     */
+    public void setConcurrentTags(ExecutorService executor) {
+        this.concurrentTags = executor == null ? null : new ConcurrentTags(executor);
+    }
+
+    /**
+     * Choose how the tags of the replies are processed: from the ReplyTemplate
+     * each reply is parsed into (the default), or with the regular expressions
+     * of every tag family, as they always were. Both give the same replies.
+     * @param compile true to use the templates
+     */
+    public void setCompileReplies(boolean compile) {
+        this.compileReplies = compile;
+    }
+
+    /**
+     * Reorder the triggers by how often they match. The sort only orders the
+     * triggers by inheritance, weight, kind and number of words; the ones it can't
+     * tell apart are tried in any order, so the most matched go first. Every period
+     * replies the triggers are reordered with reorderTriggers().
+     * @param period The number of replies between two reorders, 0 to keep the order.
+     */
+    public void setAdaptiveOrder(int period) {
+        this.reorderPeriod = period;
+    }
+
+    /**
+     * Reorder the triggers of each group of equivalent triggers (see setAdaptiveOrder)
+     * by their number of matches, most matched first, and halve the counts. The
+     * new sort buffers are published whole, replies being searched keep the old one.
+     */
+    public synchronized void reorderTriggers() {
+        Object[] topicsListed = this.topics.listTopics();
+        for (int t = 0; t < topicsListed.length; t++) {
+            Topic topic = topics.topic(topicsListed[t].toString());
+            SortBuffer buffer = topic.buffer();
+            if (buffer == null) {
+                continue;
+            }
+            CompiledTrigger[] current = buffer.getTriggers();
+            CompiledTrigger[] reordered = current.clone();
+            int[] groups = buffer.getGroups();
+            final long[] hits = new long[current.length];
+            for (int i = 0; i < current.length; i++) {
+                hits[i] = current[i].getHits();
+                current[i].age();
+            }
+
+            // Stable sort of each group, so the triggers never matched keep their place.
+            boolean changed = false;
+            int start = 0;
+            for (int g = 0; g < groups.length; g++) {
+                int end = start + groups[g];
+                if (groups[g] > 1) {
+                    Integer[] order = new Integer[groups[g]];
+                    for (int i = 0; i < order.length; i++) {
+                        order[i] = Integer.valueOf(start + i);
+                    }
+                    Arrays.sort(order, new Comparator<Integer>() {
+                        @Override
+                        public int compare(Integer a, Integer b) {
+                            return Long.compare(hits[b.intValue()], hits[a.intValue()]);
+                        }
+                    });
+                    for (int i = 0; i < order.length; i++) {
+                        reordered[start + i] = current[order[i].intValue()];
+                        changed |= order[i].intValue() != start + i;
+                    }
+                }
+                start = end;
+            }
+            if (changed) {
+                LOG.log(Level.FINE, "Reordered the triggers of topic {0}", topicsListed[t]);
+                topic.setBuffer(buildBuffer(topics, topicsListed[t].toString(), reordered, groups));
+            }
+        }
+    }
+
+    /**
+     * Build the index of a compiled sort buffer for the selected engine.
+     * @param topic The name of the topic.
+     * @param compiled The compiled triggers of the topic.
+     * @return The index, null to scan every trigger
+     */
+    private TriggerIndex buildIndex(String topic, CompiledTrigger[] compiled) {
+        switch (engine) {
+            case TRIE:
+                return new TriggerTrie(compiled, arraySets);
+            case AUTOMATON:
+                return new TriggerAutomaton(compiled, arraySets);
+            case PREFILTER:
+                return new TriggerPrefilter(compiled);
+            case COMPILED:
+                return CompiledBrain.compile(topic, compiled, arraySets);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Build the sort buffer of a topic: the index of its compiled triggers for the
+     * selected engine, and the triggers matched by the static redirects.
+     * @param topics The topics being sorted.
+     * @param topic The name of the topic.
+     * @param compiled The compiled triggers of the topic, in sort order.
+     * @param groups The sizes of the groups of equivalent triggers.
+     * @return The sort buffer
+     */
+    private SortBuffer buildBuffer(TopicManager topics, String topic, CompiledTrigger[] compiled, int[] groups) {
+        TriggerIndex index = buildIndex(topic, compiled);
+        HashMap<String, int[]> resolved = resolver == null ? new HashMap<String, int[]>() : resolver.resolve(compiled, index);
+        SortBuffer buffer = new SortBuffer(compiled, index, groups, resolved);
+        if (topic.equals("__begin__") && topics == this.topics && sorted) {
+            // The sort publishes its own once it is complete.
+            beginBlock = BeginBlock.analyse(topics.topic(topic), buffer);
+            LOG.log(Level.INFO, "The BEGIN block is {0}", beginBlock.getKind());
+        }
+        return buffer;
+    }
+
+    /**
+     * Analyse the BEGIN block of sorted topics.
+     * @param topics The topics.
+     * @return The analysed block, null if there is no BEGIN block
+     */
+    private BeginBlock analyseBegin(TopicManager topics) {
+        if (!topics.exists("__begin__") || topics.topic("__begin__").buffer() == null) {
+            return null;
+        }
+        BeginBlock block = BeginBlock.analyse(topics.topic("__begin__"), topics.topic("__begin__").buffer());
+        LOG.log(Level.INFO, "The BEGIN block is {0}", block.getKind());
+        return block;
     }
 
     /**
@@ -268,7 +576,7 @@ public class Interpreter {
      * @param name The variable name.
      * @param value The variable's value.
      */
-    public boolean setGlobal(String name, String value) {
+    public synchronized boolean setGlobal(String name, String value) {
         
         boolean delete = false;
         
@@ -296,11 +604,13 @@ public class Interpreter {
         }
 
         // It's a user-defined global. OK.
+        HashMap<String, String> copy = new HashMap<String, String>(globals);
         if (delete) {
-            globals.remove(name);
+            copy.remove(name);
         } else {
-            globals.put(name, value);
+            copy.put(name, value);
         }
+        globals = copy;
 
         return true;
     }
@@ -312,12 +622,17 @@ public class Interpreter {
      * @param name The variable name.
      * @param value The variable's value.
      */
-    public boolean setVariable(String name, String value) {
+    public synchronized boolean setVariable(String name, String value) {
+        HashMap<String, String> copy = new HashMap<String, String>(vars);
         if (value == null || "<undef>".equals(value)) {
-            vars.remove(name);
+            copy.remove(name);
         } else {
-            vars.put(name, value);
+            copy.put(name, value);
         }
+        vars = copy;
+
+        // Triggers compiled with the old value are stale.
+        clients.invalidate("<bot " + name + ">");
 
         return true;
     }
@@ -330,12 +645,16 @@ public class Interpreter {
      * @param output The text to replace it with (must be lowercase, no special
      * characters).
      */
-    public boolean setSubstitution(String pattern, String output) {
+    public synchronized boolean setSubstitution(String pattern, String output) {
+        // The messages are matched with their accents folded.
+        pattern = MessageNormalizer.fold(pattern);
+        HashMap<String, String> copy = new HashMap<String, String>(subs);
         if (output == null || "<undef>".equals(output)) {
-            subs.remove(pattern);
+            copy.remove(pattern);
         } else {
-            subs.put(pattern, output);
+            copy.put(pattern, output);
         }
+        subs = copy;
 
         return true;
     }
@@ -349,13 +668,90 @@ public class Interpreter {
      * @param output The text to replace it with (must be lowercase, no special
      * characters).
      */
-    public boolean setPersonSubstitution(String pattern, String output) {
+    public synchronized boolean setPersonSubstitution(String pattern, String output) {
+        // The stars they swap come from the messages, matched with their accents folded.
+        pattern = MessageNormalizer.fold(pattern);
+        HashMap<String, String> copy = new HashMap<String, String>(person);
         if (output == null || "<undef>".equals(output)) {
-            person.remove(pattern);
+            copy.remove(pattern);
         } else {
-            person.put(pattern, output);
+            copy.put(pattern, output);
+        }
+        person = copy;
+
+        return true;
+    }
+
+    /**
+     * Set an array (equivalent to ! array). A null list of items will delete
+     * the array. If the replies are already sorted, only the triggers using the
+     * array are compiled again, and the indexes of their topics rebuilt.
+     * @param name The name of the array.
+     * @param items The items of the array, with their accents folded.
+     */
+    public synchronized boolean setArray(String name, LinkedList<String> items) {
+        HashMap<String, LinkedList<String>> copy = new HashMap<String, LinkedList<String>>(arrays);
+        if (items == null) {
+            copy.remove(name);
+        } else {
+            copy.put(name, items);
+        }
+        arrays = copy;
+        if (!sorted) {
+            return true;
+        }
+
+        // Replies being matched keep the arrays they started with.
+        HashMap<String, ArraySet> compiled = new HashMap<String, ArraySet>(arraySets);
+        if (items == null) {
+            compiled.remove(name);
+        } else {
+            compiled.put(name, new ArraySet(items));
+        }
+        arraySets = compiled;
+
+        // The triggers are filled in with a plain text replacement of the name,
+        // so a longer name starting with it is affected too.
+        String reference = "@" + name;
+        Object[] topicsListed = this.topics.listTopics();
+        for (int t = 0; t < topicsListed.length; t++) {
+            Topic topic = topics.topic(topicsListed[t].toString());
+            SortBuffer buffer = topic.buffer();
+            if (buffer == null) {
+                continue;
+            }
+            CompiledTrigger[] current = buffer.getTriggers();
+            CompiledTrigger[] updated = null;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].getPattern().indexOf(reference) > -1) {
+                    if (updated == null) {
+                        updated = current.clone();
+                    }
+                    updated[i] = compileTrigger(current[i].getPattern(), current[i].getTrigger());
+                }
+            }
+            if (updated != null) {
+                LOG.log(Level.FINE, "Array {0} changed the triggers of topic {1}", new Object[]{name, topicsListed[t]});
+                topic.setBuffer(buildBuffer(topics, topicsListed[t].toString(), updated, buffer.getGroups()));
+            }
+            if (topic.hasPrevious()) {
+                boolean uses = false;
+                Object[] previous = topic.listPrevious();
+                for (int i = 0; i < previous.length && !uses; i++) {
+                    uses = previous[i].toString().indexOf(reference) > -1;
+                    Object[] follows = topic.listPreviousTriggers(previous[i].toString());
+                    for (int k = 0; k < follows.length && !uses; k++) {
+                        uses = follows[k].toString().indexOf(reference) > -1;
+                    }
+                }
+                if (uses) {
+                    compilePrevious(topics, topicsListed[t].toString());
+                }
+            }
         }
 
+        // Triggers and %Previous's compiled for the users are stale.
+        clients.clearPatterns();
         return true;
     }
 
@@ -367,10 +763,14 @@ public class Interpreter {
      * @param value The value to set.
      */
     public boolean setUservar(String user, String name, String value) {
-        if (value == null || "<undef>".equals(value)) {
-            clients.client(user).delete(name);
-        } else {
-            clients.client(user).set(name, value);
+        // Not in the middle of a reply to the user.
+        com.engine.interpretation.Client profile = clients.client(user);
+        synchronized (profile.getLock()) {
+            if (value == null || "<undef>".equals(value)) {
+                profile.delete(name);
+            } else {
+                profile.set(name, value);
+            }
         }
 
         return true;
@@ -386,7 +786,10 @@ public class Interpreter {
      */
     public boolean setUservars(String user, HashMap<String, String> data) {
         // TODO: this should be handled more sanely. ;)
-        clients.client(user).setData(data);
+        com.engine.interpretation.Client profile = clients.client(user);
+        synchronized (profile.getLock()) {
+            profile.setData(data);
+        }
         return true;
     }
 
@@ -400,7 +803,7 @@ public class Interpreter {
     }
 
     /**
-     * Retrieve a listing of all the uservars for a user as a HashMap. Returns
+     * Retrieve a copy of all the uservars for a user as a HashMap. Returns
      * null if the user doesn't exist.
      * @param user The user ID to get the vars for.
      */
@@ -430,18 +833,252 @@ public class Interpreter {
     /**
      * After loading replies into memory, call this method to (re)initialize
      * internal sort buffers. This is necessary for accurate trigger matching.
+     * Sorted again, the replies are sorted in a copy of the topics, which replaces
+     * them when it is complete.
+     */
+    public synchronized void sortReplies() {
+        sortReplies(sorted ? topics.copy() : topics);
+    }
+
+    /**
+     * Sort the replies of topics, and make them the topics of the bot.
+     * @param topics The topics to sort.
      */
-    public void sortReplies() {
+    private void sortReplies(TopicManager topics) {
         // We need to make sort buffers under each topic.
-        Object[] topicsListed = this.topics.listTopics();
+        Object[] topicsListed = topics.listTopics();
         LOG.log(Level.INFO, "There are {0} topics to sort replies for.", topicsListed.length);
 
         // Tell the topic manager to sort its topics' replies.
-        this.topics.sortReplies();
+        topics.sortReplies();
+
+        // Collect the redirects whose target is known now.
+        LinkedList<Trigger> all = new LinkedList<Trigger>();
+        for (int t = 0; t < topicsListed.length; t++) {
+            Topic topic = topics.topic(topicsListed[t].toString());
+            Object[] triggers = topic.listTriggers(true);
+            for (int i = 0; i < triggers.length; i++) {
+                all.add(topic.trigger(triggers[i].toString()));
+            }
+        }
+        resolver = new RedirectResolver(all);
+
+        // Compile the arrays before the triggers using them.
+        HashMap<String, ArraySet> compiled = new HashMap<String, ArraySet>();
+        for (String name : arrays.keySet()) {
+            compiled.put(name, new ArraySet(arrays.get(name)));
+        }
+        arraySets = compiled;
+
+        // Build the regular expressions of the sorted triggers only once.
+        for (int t = 0; t < topicsListed.length; t++) {
+            compileTriggers(topics, topicsListed[t].toString());
+        }
+
+        // Redirects that lead back to their trigger only stop at the recursion depth.
+        for (int t = 0; t < topicsListed.length; t++) {
+            SortBuffer buffer = topics.topic(topicsListed[t].toString()).buffer();
+            for (String cycle : resolver.findCycles(buffer)) {
+                LOG.log(Level.WARNING, "Redirect cycle in topic {0}: {1}", new Object[]{topicsListed[t], cycle});
+            }
+        }
+        HashMap<String, ReplyTemplate> replyTemplates = compileReplies(topics);
+
+        // Build the substitutions into automata.
+        SubstitutionAutomaton substitutions = new SubstitutionAutomaton(subs);
+        SubstitutionAutomaton persons = new SubstitutionAutomaton(person);
+
+        // Everything is built, the replies being made can switch to it.
+        templates = replyTemplates;
+        subsAutomaton = substitutions;
+        personAutomaton = persons;
+        beginBlock = analyseBegin(topics);
+        this.topics = topics;
+        clients.clearPatterns();
+        sorted = true;
+    }
+
+    /**
+     * Parse the replies and the conditions of every trigger into ReplyTemplates,
+     * so processTags doesn't have to run its regular expressions on them.
+     * @param topics The topics being sorted.
+     * @return The templates of the replies
+     */
+    private HashMap<String, ReplyTemplate> compileReplies(TopicManager topics) {
+        HashMap<String, ReplyTemplate> compiled = new HashMap<String, ReplyTemplate>();
+        Object[] topicsListed = topics.listTopics();
+        for (int t = 0; t < topicsListed.length; t++) {
+            Topic topic = topics.topic(topicsListed[t].toString());
+            Object[] triggers = topic.listTriggers(true);
+            for (int i = 0; i < triggers.length; i++) {
+                Trigger trigger = topic.trigger(triggers[i].toString());
+                LinkedList<String> texts = new LinkedList<String>(trigger.listReplies());
+
+                // The operands of the conditions and their replies.
+                for (Condition condition : trigger.listPredicates()) {
+                    texts.add(condition.getReply());
+                    texts.add(condition.getLeft());
+                    texts.add(condition.getRight());
+                }
+
+                for (String text : texts) {
+                    if (!compiled.containsKey(text)) {
+                        compiled.put(text, ReplyTemplate.compile(text));
+                    }
+                }
+            }
+        }
+        LOG.log(Level.INFO, "Compiled {0} replies", compiled.size());
+        return compiled;
+    }
+
+    /**
+     * Compile the sort buffer of a topic. Every trigger gets its regular expression
+     * and a direct pointer to the Trigger object owning it, whether the trigger
+     * belongs to the topic itself or to one it includes or inherits.
+     * @param topics The topics being sorted.
+     * @param topic The name of the topic to compile.
+     */
+    private void compileTriggers(TopicManager topics, String topic) {
+        Object[] triggers = topics.topic(topic).listTriggers();
+        CompiledTrigger[] compiled = new CompiledTrigger[triggers.length];
+        for (int i = 0; i < triggers.length; i++) {
+            String pattern = triggers[i].toString();
+
+            // Find the owner of the trigger, it may come from an inherited topic.
+            Trigger owner;
+            if (topics.topic(topic).triggerExists(pattern)) {
+                owner = topics.topic(topic).trigger(pattern);
+            } else {
+                owner = topics.findTriggerByInheritance(topic, pattern, 0);
+            }
+
+            compiled[i] = compileTrigger(pattern, owner);
+        }
+        topics.topic(topic).setBuffer(buildBuffer(topics, topic, compiled, topics.topic(topic).listGroups()));
+        compilePrevious(topics, topic);
+        LOG.log(Level.INFO, "Compiled {0} triggers for topic {1}", new Object[]{compiled.length, topic});
+    }
 
-        // Sort the substitutions.
-        subs_s = com.engine.interpretation.Util.sortByLength(com.engine.interpretation.Util.SSh2s(subs));
-        person_s = com.engine.interpretation.Util.sortByLength(com.engine.interpretation.Util.SSh2s(person));
+    /**
+     * Compile a trigger of a sort buffer, with its expansions for the indexes.
+     * @param pattern The trigger text from the sort buffer.
+     * @param owner The Trigger object owning the replies.
+     * @return The compiled trigger
+     */
+    private CompiledTrigger compileTrigger(String pattern, Trigger owner) {
+        return new CompiledTrigger(pattern, owner, triggerRegexp(pattern),
+                TriggerParser.expand(pattern, arraySets), arraySets);
+    }
+
+    /**
+     * Compile the %Previous's of a topic and the triggers that follow them.
+     * @param topics The topics the topic belongs to.
+     * @param topic The name of the topic.
+     */
+    private void compilePrevious(TopicManager topics, String topic) {
+        HashMap<String, CompiledTrigger> previous = new HashMap<String, CompiledTrigger>();
+        HashMap<String, CompiledTrigger[]> follows = new HashMap<String, CompiledTrigger[]>();
+        if (topics.topic(topic).hasPrevious()) {
+            Object[] listed = topics.topic(topic).listPrevious();
+            for (int i = 0; i < listed.length; i++) {
+                String pattern = listed[i].toString();
+                previous.put(pattern, new CompiledTrigger(pattern, null, triggerRegexp(pattern), null, arraySets));
+
+                Object[] candidates = topics.topic(topic).listPreviousTriggers(pattern);
+                CompiledTrigger[] followers = new CompiledTrigger[candidates.length];
+                for (int k = 0; k < candidates.length; k++) {
+                    String realTrigger = candidates[k].toString() + "{previous}" + pattern;
+                    Trigger owner = topics.topic(topic).triggerExists(realTrigger) ? topics.topic(topic).trigger(realTrigger) : null;
+                    followers[k] = new CompiledTrigger(candidates[k].toString(), owner, triggerRegexp(candidates[k].toString()), null, arraySets);
+                }
+                follows.put(pattern, followers);
+            }
+        }
+        topics.topic(topic).setCompiledPrevious(previous, follows);
+    }
+
+    /**
+     * Get a reply from the Interpreter interpreter without waiting for it. The
+     * reply is made on its own thread, a virtual one when the JVM has them, so
+     * the replies waiting for the knowledge base or the translator don't hold a
+     * thread of the caller each. The replies to a user are made in the order they
+     * were asked, one after the other.
+     * @param username A unique user ID for the user chatting with the bot.
+     * @param message The user's message to the bot.
+     * @return The future reply
+     */
+    public CompletableFuture<String> replyAsync(final String username, final String message) {
+        // Nothing else is locked while the Client is: the Interpreter takes the
+        // clients' locks under its own.
+        ExecutorService executor = asyncExecutor();
+        com.engine.interpretation.Client profile = clients.client(username);
+        synchronized (profile) {
+            CompletableFuture<String> previous = profile.getPending();
+            if (previous == null) {
+                previous = CompletableFuture.completedFuture(null);
+            }
+
+            // After the previous reply, whether it failed or not.
+            CompletableFuture<String> next = previous.handle(new BiFunction<String, Throwable, String>() {
+                @Override
+                public String apply(String reply, Throwable failure) {
+                    return null;
+                }
+            }).thenApplyAsync(new Function<String, String>() {
+                @Override
+                public String apply(String ignored) {
+                    return reply(username, message);
+                }
+            }, executor);
+            profile.setPending(next);
+            return next;
+        }
+    }
+
+    /**
+     * Set the executor running the replies of replyAsync. By default they run on
+     * virtual threads, or on a cached pool of daemon threads before Java 21.
+     * @param executor The executor, null for the default one.
+     */
+    public void setAsyncExecutor(ExecutorService executor) {
+        this.async = executor;
+    }
+
+    /**
+     * Get the executor running the replies of replyAsync.
+     */
+    private ExecutorService asyncExecutor() {
+        ExecutorService executor = async;
+        return executor != null ? executor : AsyncExecutor.DEFAULT;
+    }
+
+    /**
+     * Holds the default executor of replyAsync, created when first needed and
+     * shared by the interpreters.
+     */
+    private static class AsyncExecutor {
+        private static final ExecutorService DEFAULT = newAsyncExecutor();
+    }
+
+    /**
+     * Create an executor starting a virtual thread for each task, looked up so
+     * the engine still runs on the JVMs without them.
+     */
+    private static ExecutorService newAsyncExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            LOG.log(Level.INFO, "No virtual threads, the asynchronous replies run on a cached pool");
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "interpreter-async");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
     }
 
     /**
@@ -450,6 +1087,26 @@ public class Interpreter {
      * @param message The user's message to the bot.
      */
     public String reply(String username, String message) {
+        // The searches that don't depend on the user are remembered while this
+        // reply lasts, so redirects to the same message don't search it again.
+        // The replies to a user are made one at a time, the users at the same time.
+        synchronized (clients.client(username).getLock()) {
+            HashMap<SortBuffer, HashMap<String, int[]>> outer = turn.get();
+            turn.set(new HashMap<SortBuffer, HashMap<String, int[]>>());
+            try {
+                return topLevelReply(username, message);
+            } finally {
+                turn.set(outer);
+            }
+        }
+    }
+
+    /**
+     * Get a reply to a message of a user, with its BEGIN block and its history.
+     * @param username A unique user ID for the user chatting with the bot.
+     * @param message The user's message to the bot.
+     */
+    private String topLevelReply(String username, String message) {
         LOG.log(Level.INFO, "Get reply to [{0}] {1}", new Object[]{username, message});
 
         // Format their message first.
@@ -458,9 +1115,16 @@ public class Interpreter {
         // This will hold the final reply.
         String reply = "";
 
-        // If the BEGIN statement exists, consult it first.
-        if (topics.exists("__begin__")) {
-            String begin = this.reply(username, "request", true, 0);
+        // If the BEGIN statement exists, consult it first. A static one is skipped,
+        // and the conditions and replies of a known trigger are run directly.
+        BeginBlock block = beginBlock;
+        BeginBlock.Kind kind = block == null ? BeginBlock.Kind.GENERAL : block.getKind();
+        if (topics.exists("__begin__") && kind == BeginBlock.Kind.STATIC) {
+            reply = this.reply(username, message, false, 0);
+        } else if (topics.exists("__begin__") && kind == BeginBlock.Kind.PLANNED) {
+            reply = plannedBegin(username, message, block);
+        } else if (topics.exists("__begin__")) {
+            String begin = this.reply(username, BeginBlock.REQUEST, true, 0);
 
             // OK to continue?
             if (begin.indexOf("{ok}") > -1) {
@@ -491,10 +1155,82 @@ public class Interpreter {
         clients.client(username).addInput(message);
         clients.client(username).addReply(reply);
 
+        // Find the %Previous's matching this reply now, the next message will only
+        // have to be compared with the triggers that follow them. The reply is
+        // made already: if the topic tree can't be walked, they are looked up
+        // with the next message, as they were before.
+        String current = clients.client(username).get("topic");
+        if (topics.exists(current)) {
+            try {
+                matchPrevious(username, clients.client(username), current);
+            } catch (RuntimeException ex) {
+                LOG.log(Level.WARNING, "Couldn't match the %Previous's of topic " + current, ex);
+                clients.client(username).clearPrevious();
+            }
+        }
+
+        // Time to put the most matched triggers first?
+        if (reorderPeriod > 0 && replies.incrementAndGet() % reorderPeriod == 0) {
+            reorderTriggers();
+        }
+
         // Return their reply.
         return reply;
     }
     
+    /**
+     * Run a BEGIN block whose trigger is known (see BeginBlock), then get the
+     * reply to the message if the block has {ok}.
+     * @param username The username of the calling user.
+     * @param message The (formatted!) message sent by the user.
+     * @param block The analysed BEGIN block.
+     */
+    private String plannedBegin(String username, String message, BeginBlock block) {
+        com.engine.interpretation.Client profile = clients.client(username);
+        Trigger trigger = block.getTrigger();
+        profile.set("__lastmatch__", block.getPattern());
+
+        // The first true condition, or one of the replies.
+        String begin = "";
+        for (Condition condition : trigger.listPredicates()) {
+            String left = processTags(username, profile, BeginBlock.REQUEST, condition.getLeft(),
+                    new LinkedList<String>(), new LinkedList<String>(), 1);
+            String right = processTags(username, profile, BeginBlock.REQUEST, condition.getRight(),
+                    new LinkedList<String>(), new LinkedList<String>(), 1);
+            if (condition.test(left, right)) {
+                begin = condition.getReply();
+                break;
+            }
+        }
+        if (begin.length() == 0) {
+            begin = trigger.getChoice(trigger.choose(rand));
+        }
+        if (begin.length() == 0) {
+            begin = "ERR: No Reply Found";
+        }
+        begin = beginTags(profile, begin);
+
+        // Not OK to continue.
+        if (begin.indexOf("{ok}") < 0) {
+            return "";
+        }
+
+        // The reply has had its tags processed, the final substitutions are only
+        // needed by the tags of the BEGIN block around {ok}.
+        String reply = this.reply(username, message, false, 0);
+        boolean tags = begin.replace("{ok}", "").indexOf('<') > -1 || begin.replace("{ok}", "").indexOf('{') > -1;
+        try {
+            begin = begin.replaceAll("\\{ok\\}", reply);
+        } catch (Exception ex) {
+            begin = reply;
+        }
+        if (!tags) {
+            return begin;
+        }
+        return processTags(username, profile, message, begin,
+                new LinkedList<String>(), new LinkedList<String>(), 0);
+    }
+
     /**
      * Internal method for getting a reply.
      * @param user The username of the calling user.
@@ -504,15 +1240,25 @@ public class Interpreter {
      * @param step The recursion depth that we're at so far.
      */
     private String reply(String user, String message, boolean begin, int step) {
+        return reply(user, clients.client(user), message, begin, step);
+    }
+
+    /**
+     * Internal method for getting a reply with a given profile, a SessionJournal
+     * when the reply is a redirect evaluated out of order.
+     * @param user The username of the calling user.
+     * @param profile The user's profile.
+     * @param message The (formatted!) message sent by the user.
+     * @param begin Whether the context is that we're in the BEGIN statement or
+     * not.
+     * @param step The recursion depth that we're at so far.
+     */
+    private String reply(String user, com.engine.interpretation.Client profile, String message, boolean begin, int step) {
 
         String topic = "random";                                // Default topic = random
         LinkedList<String> stars = new LinkedList<String>();    // Wildcard matches
         LinkedList<String> botstars = new LinkedList<String>(); // Wildcards in %Previous
         String reply = "";                                      // The eventual reply
-        com.engine.interpretation.Client profile;                         // The user's profile object
-
-        // Get the user's profile.
-        profile = clients.client(user);
 
         // Update their topic.
         topic = profile.get("topic");
@@ -543,123 +1289,122 @@ public class Interpreter {
         String matchedTrigger = "";
 
         // See if there are any %previous's in this topic, or any topic related to it. This
-        // should only be done the first time -- not during a recursive redirection.
+        // should only be done the first time -- not during a recursive redirection. The
+        // %previous's matching the bot's last reply were found when it was sent.
         if (step == 0) {
-            LOG.log(Level.INFO, "Looking for a %Previous");
-            Object[] allTopics = {topic};
-            //		if (this.topics.topic(topic).includes() || this.topics.topic(topic).inherits()) {
-            // We need to walk the topic tree.
-            allTopics = this.topics.getTopicTree(topic, 0);
-            //		}
-            for (int i = 0; i < allTopics.length; i++) {
-                // Does this topic have a %Previous anywhere?
-                LOG.log(Level.INFO, "Seeing if {0} has a %Previous", allTopics[i]);
-                if (this.topics.topic(allTopics[i].toString()).hasPrevious()) {
-                    LOG.log(Level.INFO, "Topic {0} has at least one %Previous", allTopics[i]);
-
-                    // Get them.
-                    Object[] previous = this.topics.topic(allTopics[i].toString()).listPrevious();
-                    for (int j = 0; j < previous.length; j++) {
-                        LOG.log(Level.INFO, "Candidate: {0}", previous[j].toString());
-
-                        // Try to match the bot's last reply against this.
-                        String lastReply = formatMessage(profile.getReply(1));
-                        String regexp = triggerRegexp(user, profile, previous[j].toString());
-                        LOG.log(Level.INFO, "Compare {0} <=> {1} ({2})", new Object[]{lastReply, previous[j].toString(), regexp});
-
-                        // Does it match?
-                        Pattern re = Pattern.compile("^" + regexp + "$");
-                        Matcher m = re.matcher(lastReply.trim());
-                        while (m.find() == true) {
-                            LOG.log(Level.INFO, "OMFG the lastReply matches!");
-
-                            // Harvest the botstars.
-                            for (int s = 1; s <= m.groupCount(); s++) {
-                                LOG.log(Level.INFO, "Add botstar: {0}", m.group(s));
-                                botstars.add(m.group(s));
+            LinkedList<PreviousMatch> previous = profile.getPrevious(topic);
+            if (previous == null) {
+                previous = matchPrevious(user, profile, topic);
+            }
+            for (Iterator<PreviousMatch> it = previous.iterator(); it.hasNext(); ) {
+                PreviousMatch match = it.next();
+                LOG.log(Level.INFO, "The last reply matches %Previous {0}", match.getPrevious());
+                botstars.addAll(match.getBotstars());
+
+                // Now see if the user matched a trigger of this %Previous too!
+                CompiledTrigger[] candidates = match.getCandidates();
+                for (int k = 0; k < candidates.length; k++) {
+                    LOG.log(Level.INFO, "Does the user''s message match {0}?", candidates[k].getPattern());
+                    int[] mH = matchTrigger(user, profile, candidates[k], message);
+                    if (mH != null) {
+                        LOG.log(Level.INFO, "It's a match!!!");
+
+                        // Make sure it's all valid.
+                        if (candidates[k].getTrigger() != null) {
+                            // Seems to be! Collect the stars.
+                            for (int s = 1; s < mH.length / 2; s++) {
+                                LOG.log(Level.INFO, "Add star: {0}", TriggerMatcher.group(message, mH, s));
+                                stars.add(TriggerMatcher.group(message, mH, s));
                             }
 
-                            // Now see if the user matched this trigger too!
-                            Object[] candidates = this.topics.topic(allTopics[i].toString()).listPreviousTriggers(previous[j].toString());
-                            for (int k = 0; k < candidates.length; k++) {
-                                LOG.log(Level.INFO, "Does the user''s message match {0}?", candidates[k]);
-                                String humanside = triggerRegexp(user, profile, candidates[k].toString());
-                                LOG.log(Level.INFO, "Compare {0} <=> {1} ({2})", new Object[]{message, candidates[k].toString(), humanside});
-
-                                Pattern reH = Pattern.compile("^" + humanside + "$");
-                                Matcher mH = reH.matcher(message);
-                                while (mH.find() == true) {
-                                    LOG.log(Level.INFO, "It's a match!!!");
-
-                                    // Make sure it's all valid.
-                                    String realTrigger = candidates[k].toString() + "{previous}" + previous[j].toString();
-                                    if (this.topics.topic(allTopics[i].toString()).triggerExists(realTrigger)) {
-                                        // Seems to be! Collect the stars.
-                                        for (int s = 1; s <= mH.groupCount(); s++) {
-                                            LOG.log(Level.INFO, "Add star: {0}", mH.group(s));
-                                            stars.add(mH.group(s));
-                                        }
-
-                                        foundMatch = true;
-                                        matchedTrigger = candidates[k].toString();
-                                        matched = this.topics.topic(allTopics[i].toString()).trigger(realTrigger);
-                                    }
-
-                                    break;
-                                }
-
-                                if (foundMatch) {
-                                    break;
-                                }
-                            }
-                            if (foundMatch) {
-                                break;
-                            }
+                            foundMatch = true;
+                            matchedTrigger = candidates[k].getPattern();
+                            matched = candidates[k].getTrigger();
                         }
                     }
+
+                    if (foundMatch) {
+                        break;
+                    }
                 }
             }
         }
 
         // Search their topic for a match to their trigger.
         if (foundMatch == false) {
-            // Go through the sort buffer for their topic.
-            Object[] triggers = topics.topic(topic).listTriggers();
-            for (int a = 0; a < triggers.length; a++) {
-                String trigger = triggers[a].toString();
-
-                // Prepare the trigger for the regular expression engine.
-                String regexp = triggerRegexp(user, profile, trigger);
-                LOG.log(Level.INFO, "Try to match \"{0}\" against \"{1}\" ({2})", new Object[]{message, trigger, regexp});
-
+            // Go through the compiled sort buffer for their topic. The word index
+            // narrows it down to the triggers that may match, in the same order.
+            SortBuffer buffer = topics.topic(topic).buffer();
+            CompiledTrigger[] triggers = buffer == null ? topics.topic(topic).listCompiled() : buffer.getTriggers();
+            TriggerIndex index = buffer == null ? null : buffer.getIndex();
+
+            // A static redirect, or a message already searched during this reply,
+            // only has its known match left to try, after the triggers that need
+            // the user's data ranked before it.
+            HashMap<String, int[]> searched = null;
+            int[] known = null;
+            if (buffer != null) {
+                known = buffer.resolve(message);
+                HashMap<SortBuffer, HashMap<String, int[]>> current = turn.get();
+                if (current != null) {
+                    searched = current.get(buffer);
+                    if (searched == null) {
+                        searched = new HashMap<String, int[]>();
+                        current.put(buffer, searched);
+                    }
+                    if (known == null) {
+                        known = searched.get(message);
+                    }
+                }
+            }
+            int[] candidates = known;
+            if (known == null) {
+                candidates = index == null ? null : index.candidates(MessageNormalizer.tokenize(message));
+            }
+            int count = candidates == null ? triggers.length : candidates.length;
+            int[] tried = searched == null || known != null ? null : new int[count];
+            int size = 0;
+            boolean dynamicMatch = false;
+            if (parallel != null && parallel.worthIt(count)) {
+                // Big topic: find the match in parallel, only the triggers that
+                // need the user's data are left to try before it.
+                candidates = parallel.search(triggers, candidates, message);
+                count = candidates.length;
+            }
+            for (int c = 0; c < count; c++) {
+                int a = candidates == null ? c : candidates[c];
                 // Is it a match?
-                Pattern re = Pattern.compile("^" + regexp + "$");
-                Matcher m = re.matcher(message);
-                if (m.find() == true) {
-                    LOG.log(Level.INFO, "The trigger matches! Star count: {0}", m.groupCount());
+                int[] m = matchTrigger(user, profile, triggers[a], message);
+                if (tried != null && (triggers[a].isDynamic() || m != null)) {
+                    // The search is known without the static triggers that didn't match.
+                    tried[size++] = a;
+                }
+                if (m != null) {
+                    dynamicMatch = triggers[a].isDynamic();
+                    int starcount = m.length / 2 - 1;
+                    LOG.log(Level.INFO, "The trigger {0} matches! Star count: {1}", new Object[]{triggers[a].getPattern(), starcount});
 
                     // Harvest the stars.
-                    int starcount = m.groupCount();
                     for (int s = 1; s <= starcount; s++) {
-                        LOG.log(Level.INFO, "Add star: {0}", m.group(s));
-                        stars.add(m.group(s));
+                        LOG.log(Level.INFO, "Add star: {0}", TriggerMatcher.group(message, m, s));
+                        stars.add(TriggerMatcher.group(message, m, s));
                     }
 
-                    // We found a match, but what if the trigger we matched belongs to
-                    // an inherited topic? Check for that.
-                    if (this.topics.topic(topic).triggerExists(trigger)) {
-                        // No, the trigger does belong to us.
-                        matched = this.topics.topic(topic).trigger(trigger);
-                    } else {
-                        LOG.log(Level.INFO, "Trigger doesn't exist under this topic, trying to find it!");
-                        matched = this.topics.findTriggerByInheritance(topic, trigger, 0);
+                    // The owner was resolved at compile time, even when the trigger
+                    // belongs to an inherited or included topic.
+                    matched = triggers[a].getTrigger();
+                    if (reorderPeriod > 0) {
+                        triggers[a].hit();
                     }
-
                     foundMatch = true;
-                    matchedTrigger = trigger;
+                    matchedTrigger = triggers[a].getPattern();
                     break;
                 }
             }
+            // A search that stopped at a dynamic trigger doesn't know the static match.
+            if (tried != null && !dynamicMatch) {
+                searched.put(message, Arrays.copyOf(tried, size));
+            }
         }
 
         // Store what trigger they matched on (matchedTrigger can be blank if they didn't match).
@@ -734,6 +1479,7 @@ public class Interpreter {
                 
                 // Check for non persistence (learning content)
                 if (!trigger.isPersistent()){
+                    SessionJournal.requireOrder(profile);
                     String temp = trigger.listReplies().iterator().next();
                     temp = replaceWildcardsWithValues(trigger.listReplies().iterator().next(),stars);
                     
@@ -747,106 +1493,29 @@ public class Interpreter {
                             String value = mSet.group(2);
 
                             // Set the uservar.
-                            vars.put(var, value);
+                            setVariable(var, value);
                             LOG.log(Level.INFO, "Set user var {0}={1}", new Object[]{var, value});
                         }
                     }
                     
-                    persistenceManager.save(vars.get("subject"), vars.get("definition"));
+                    HashMap<String, String> learned = vars;
+                    persistenceManager.save(learned.get("subject"), learned.get("definition"));
                 }
                 
-                // Check for conditions.
-                Object[] conditions = trigger.listConditions().toArray();
-                if (conditions.length > 0) {
+                // Check for conditions, parsed when the trigger was loaded.
+                if (!trigger.listPredicates().isEmpty()) {
                     LOG.log(Level.INFO, "This trigger has some conditions!");
 
-                    // See if any conditions are true.
-                    boolean truth = false;
-                    for (int c = 0; c < conditions.length; c++) {
-                        // Separate the condition from the potential reply.
-                        String[] halves = conditions[c].toString().split("\\s*=>\\s*");
-                        String condition = halves[0].trim();
-                        String potreply = halves[1].trim();
-
-                        // Split up the condition.
-                        Pattern reCond = Pattern.compile("^(.+?)\\s+(==|eq|startsWith|\\!=|ne|<>|<|<=|>|>=)\\s+(.+?)$");
-                        Matcher mCond = reCond.matcher(condition);
-                        while (mCond.find()) {
-                            String left = mCond.group(1).trim();
-                            String eq = mCond.group(2).trim();
-                            String right = mCond.group(3).trim();
-
-                            // Process tags on both halves.
-                            left = processTags(user, profile, message, left, stars, botstars, step + 1);
-                            right = processTags(user, profile, message, right, stars, botstars, step + 1);
-                            LOG.log(Level.INFO, "Compare: {0} {1} {2}", new Object[]{left, eq, right});
-
-                            // Defaults
-                            if (left.length() == 0) {
-                                left = "undefined";
-                            }
-                            if (right.length() == 0) {
-                                right = "undefined";
-                            }
-
-                            // Validate the expression.
-                            if (eq.equals("eq") || eq.equals("ne") || eq.equals("==") || eq.equals("!=") || eq.equals("<>")) {
-                                // String equality comparing.
-                                if ((eq.equals("eq") || eq.equals("==")) && left.equals(right)) {
-                                    truth = true;
-                                    break;
-                                } else if ((eq.equals("ne") || eq.equals("!=") || eq.equals("<>")) && !left.equals(right)) {
-                                    truth = true;
-                                    break;
-                                }
-                            } 
-                            //Validate String related equalities
-                            else if (eq.equals("startsWith") && left.startsWith(right)){
-                                truth = true;
-                                break;
-                            }
-
-                            // Numeric comparing.
-                            int lt = 0;
-                            int rt = 0;
-
-                            // Turn the two sides into numbers.
-                            try {
-                                lt = Integer.parseInt(left);
-                                rt = Integer.parseInt(right);
-                            } catch (NumberFormatException e) {
-                                // Oh well!
-                                break;
-                            }
-
-                            // Run the remaining equality checks.
-                            if (eq.equals("==") || eq.equals("!=") || eq.equals("<>")) {
-                                // Equality checks.
-                                if (eq.equals("==") && lt == rt) {
-                                    truth = true;
-                                    break;
-                                } else if ((eq.equals("!=") || eq.equals("<>")) && lt != rt) {
-                                    truth = true;
-                                    break;
-                                }
-                            } else if (eq.equals("<") && lt < rt) {
-                                truth = true;
-                                break;
-                            } else if (eq.equals("<=") && lt <= rt) {
-                                truth = true;
-                                break;
-                            } else if (eq.equals(">") && lt > rt) {
-                                truth = true;
-                                break;
-                            } else if (eq.equals(">=") && lt >= rt) {
-                                truth = true;
-                                break;
-                            }
-                        }
+                    // See if any conditions are true. The operands of a condition
+                    // are only processed when the ones before it were false.
+                    for (Condition condition : trigger.listPredicates()) {
+                        String left = processTags(user, profile, message, condition.getLeft(), stars, botstars, step + 1);
+                        String right = processTags(user, profile, message, condition.getRight(), stars, botstars, step + 1);
+                        LOG.log(Level.INFO, "Compare: {0} {1} {2}", new Object[]{left, condition.getOperator().getSymbol(), right});
 
                         // True condition?
-                        if (truth) {
-                            reply = potreply;
+                        if (condition.test(left, right)) {
+                            reply = condition.getReply();
                             break;
                         }
                     }
@@ -857,85 +1526,20 @@ public class Interpreter {
                     break;
                 }
 
-                // Return one of the replies at random. We lump any redirects in as well.
-                Object[] redirects = trigger.listRedirects().toArray();
-                Object[] replies = trigger.listReplies().toArray();
-
-                // Take into account their weights.
-                LinkedList<Integer> bucket = new LinkedList<Integer>();
-                Pattern reWeight = Pattern.compile("\\{weight=(\\d+?)\\}");
-
-                // Look at weights on redirects.
-                for (int i = 0; i < redirects.length; i++) {
-                    if (redirects[i].toString().indexOf("{weight=") > -1) {
-                        Matcher mWeight = reWeight.matcher(redirects[i].toString());
-                        while (mWeight.find()) {
-                            int weight = Integer.parseInt(mWeight.group(1));
-
-                            // Add to the bucket this many times.
-                            if (weight > 1) {
-                                for (int j = 0; j < weight; j++) {
-                                    LOG.log(Level.INFO, "Trigger has a redirect (weight {0}): {1}", new Object[]{weight, redirects[i]});
-                                    bucket.add(i);
-                                }
-                            } else {
-                                LOG.log(Level.INFO, "Trigger has a redirect (weight {0}): {1}", new Object[]{weight, redirects[i]});
-                                bucket.add(i);
-                            }
-
-                            // Only one weight is supported.
-                            break;
-                        }
-                    } else {
-                        LOG.log(Level.INFO, "Trigger has a redirect: {0}", redirects[i]);
-                        bucket.add(i);
-                    }
-                }
-
-                // Look at weights on replies.
-                for (int i = 0; i < replies.length; i++) {
-                    if (replies[i].toString().indexOf("{weight=") > -1) {
-                        Matcher mWeight = reWeight.matcher(replies[i].toString());
-                        while (mWeight.find()) {
-                            int weight = Integer.parseInt(mWeight.group(1));
-
-                            // Add to the bucket this many times.
-                            if (weight > 1) {
-                                for (int j = 0; j < weight; j++) {
-                                    LOG.log(Level.INFO, "Trigger has a reply (weight {0}): {1}", new Object[]{weight, replies[i]});
-                                    bucket.add(redirects.length + i);
-                                }
-                            } else {
-                                LOG.log(Level.INFO, "Trigger has a reply (weight {0}): {1}", new Object[]{weight, replies[i]});
-                                bucket.add(redirects.length + i);
-                            }
-
-                            // Only one weight is supported.
-                            break;
-                        }
-                    } else {
-                        LOG.log(Level.INFO, "Trigger has a reply: {0}", replies[i]);
-                        bucket.add(redirects.length + i);
-                    }
-                }
-
-                // Pull a random value out.
-                Object[] choices = bucket.toArray();
-                if (choices.length > 0) {
-                    int choice = (Integer)choices[ rand.nextInt(choices.length)];
-                    LOG.log(Level.INFO, "Possible choices: {0}; chosen: {1}", new Object[]{choices.length, choice});
-                    if (choice < redirects.length) {
+                // Return one of the replies at random. We lump any redirects in as well,
+                // taking into account their weights: the trigger has them ready.
+                int choice = trigger.choose(rand);
+                if (choice > -1) {
+                    LOG.log(Level.INFO, "Chosen: {0}", choice);
+                    if (trigger.isRedirect(choice)) {
                         // The choice was a redirect!
-                        String redirect = redirects[choice].toString().replaceAll("\\{weight=\\d+\\}", "");
+                        String redirect = trigger.getChoice(choice);
                         LOG.log(Level.INFO, "Chosen a redirect to {0}!", redirect);
-                        reply = reply(user, redirect, begin, step + 1);
+                        reply = reply(user, profile, redirect, begin, step + 1);
                     } else {
                         // The choice was a reply!
-                        choice -= redirects.length;
-                        if (choice < replies.length) {
-                            LOG.log(Level.INFO, "Chosen a reply: {0}", replies[choice]);
-                            reply = replies[choice].toString();
-                        }
+                        reply = trigger.getChoice(choice);
+                        LOG.log(Level.INFO, "Chosen a reply: {0}", reply);
                     }
                 }
             }
@@ -952,34 +1556,7 @@ public class Interpreter {
 
         // Special tag processing for the BEGIN statement.
         if (begin) {
-            // The BEGIN block may have {topic} or <set> tags and that's all.
-            // <set> tag
-            if (reply.indexOf("<set") > -1) {
-                Pattern reSet = Pattern.compile("<set (.+?)=(.+?)>");
-                Matcher mSet = reSet.matcher(reply);
-                while (mSet.find()) {
-                    String tag = mSet.group(0);
-                    String var = mSet.group(1);
-                    String value = mSet.group(2);
-
-                    // Set the uservar.
-                    profile.set(var, value);
-                    reply = reply.replace(tag, "");
-                }
-            }
-
-            // {topic} tag
-            if (reply.indexOf("{topic=") > -1) {
-                Pattern reTopic = Pattern.compile("\\{topic=(.+?)\\}");
-                Matcher mTopic = reTopic.matcher(reply);
-                while (mTopic.find()) {
-                    String tag = mTopic.group(0);
-                    topic = mTopic.group(1);
-                    LOG.log(Level.INFO, "Set user''s topic to: {0}", topic);
-                    profile.set("topic", topic);
-                    reply = reply.replace(tag, "");
-                }
-            }
+            reply = beginTags(profile, reply);
         } else {
             // Process tags.
             reply = processTags(user, profile, message, reply, stars, botstars, step);
@@ -987,7 +1564,83 @@ public class Interpreter {
 
         return reply;
     }
+
+    /**
+     * Process the tags of a reply of the BEGIN block: it may have {topic} or
+     * <set> tags and that's all.
+     * @param profile The profile of the user.
+     * @param reply The reply of the BEGIN block.
+     * @return The reply without its tags
+     */
+    private String beginTags(com.engine.interpretation.Client profile, String reply) {
+        // <set> tag
+        if (reply.indexOf("<set") > -1) {
+            Pattern reSet = Pattern.compile("<set (.+?)=(.+?)>");
+            Matcher mSet = reSet.matcher(reply);
+            while (mSet.find()) {
+                String tag = mSet.group(0);
+                String var = mSet.group(1);
+                String value = mSet.group(2);
+
+                // Set the uservar.
+                profile.set(var, value);
+                reply = reply.replace(tag, "");
+            }
+        }
+
+        // {topic} tag
+        if (reply.indexOf("{topic=") > -1) {
+            Pattern reTopic = Pattern.compile("\\{topic=(.+?)\\}");
+            Matcher mTopic = reTopic.matcher(reply);
+            while (mTopic.find()) {
+                String tag = mTopic.group(0);
+                String topic = mTopic.group(1);
+                LOG.log(Level.INFO, "Set user''s topic to: {0}", topic);
+                profile.set("topic", topic);
+                reply = reply.replace(tag, "");
+            }
+        }
+        return reply;
+    }
     
+    /**
+     * Run the object of a <call> tag. The results of the pure objects are taken
+     * from the cache when they were computed before.
+     * @param user The user ID of the caller.
+     * @param data The text of the tag: the name of the object and its arguments.
+     * @return The result of the object
+     */
+    private String callObject(String user, com.engine.interpretation.Client profile, String data) {
+        String[] parts = data.split(" ");
+        String name = parts[0];
+        LinkedList<String> args = new LinkedList<String>();
+        for (int i = 1; i < parts.length; i++) {
+            args.add(parts[i]);
+        }
+
+        // See if we know of this object, and what language handles it.
+        String lang = objects.get(name);
+        if (lang == null) {
+            return "[ERR: Object Not Found]";
+        }
+        boolean cached = pure.contains(name);
+        if (!cached) {
+            // The object may use the profile of the user.
+            SessionJournal.requireOrder(profile);
+        } else {
+            String result = callCache.get(data);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        String result = handlers.get(lang).onCall(name, user, args.toArray());
+        if (cached) {
+            callCache.put(data, result);
+        }
+        return result;
+    }
+
     private String replaceWildcardsWithValues(String text, LinkedList<String> stars){
         text = text.replaceAll("<star>", stars.get(0).toString());
         for (int i = 1; i < stars.size(); i++) {
@@ -998,12 +1651,116 @@ public class Interpreter {
         return text;
     }
     
+    /**
+     * Match the user's message against a compiled trigger. Static triggers use
+     * their precompiled expression, the triggers depending on the user's data are
+     * completed and compiled once per user, and again only when one of the values
+     * they were built from changes.
+     * @param user The user ID of the caller.
+     * @param profile The user's profile.
+     * @param trigger The compiled trigger.
+     * @param message The formatted message.
+     * @return The offsets of the stars (see TriggerMatcher), or null
+     */
+    private int[] matchTrigger(String user, Client profile, CompiledTrigger trigger, String message) {
+        TriggerMatcher re = trigger.getCompiled();
+        if (re == null) {
+            if (!trigger.isDynamic()) {
+                // Invalid expression, reported when it was compiled.
+                return null;
+            }
+
+            // Reuse the pattern built from this user's data, unless it changed.
+            re = profile.getPattern(trigger);
+            if (re == null) {
+                String regexp = userRegexp(user, profile, trigger.getRegexp());
+                try {
+                    re = TriggerMatcher.compile(regexp, arraySets);
+                } catch (PatternSyntaxException ex) {
+                    LOG.log(Level.SEVERE, "Trigger {0} is not a valid expression for user {1}: {2}", new Object[]{trigger.getPattern(), user, ex.getMessage()});
+                    return null;
+                }
+                profile.setPattern(trigger, re);
+            }
+        }
+        return re.match(message);
+    }
+
+    /**
+     * Find the %Previous's of a topic tree that match the bot's last reply to a
+     * user, and keep them in the user's profile until the next reply.
+     * @param user The user ID of the caller.
+     * @param profile The user's profile.
+     * @param topic The topic of the user.
+     * @return The matching %Previous's, in the order they must be tried
+     */
+    private LinkedList<PreviousMatch> matchPrevious(String user, Client profile, String topic) {
+        LinkedList<PreviousMatch> result = new LinkedList<PreviousMatch>();
+        LinkedList<String> depends = new LinkedList<String>();
+        String lastReply = null;
+
+        // We need to walk the topic tree, flattened when the replies were sorted.
+        Topic[] allTopics = this.topics.topic(topic).listTree();
+        if (allTopics == null) {
+            Object[] names = this.topics.getTopicTree(topic, 0);
+            allTopics = new Topic[names.length];
+            for (int i = 0; i < names.length; i++) {
+                allTopics[i] = this.topics.topic(names[i].toString());
+            }
+        }
+        for (int i = 0; i < allTopics.length; i++) {
+            Topic current = allTopics[i];
+            if (!current.hasPrevious()) {
+                continue;
+            }
+            LOG.log(Level.INFO, "Topic {0} has at least one %Previous", current.name);
+            if (lastReply == null) {
+                lastReply = formatMessage(profile.getReply(1)).trim();
+            }
+
+            Object[] previous = current.listPrevious();
+            for (int j = 0; j < previous.length; j++) {
+                CompiledTrigger compiled = current.compiledPrevious(previous[j].toString());
+                if (compiled == null) {
+                    continue;
+                }
+                if (compiled.isDynamic()) {
+                    depends.addAll(Arrays.asList(compiled.getDependencies()));
+                }
+
+                // Try to match the bot's last reply against this.
+                int[] m = matchTrigger(user, profile, compiled, lastReply);
+                if (m != null) {
+                    // Harvest the botstars.
+                    LinkedList<String> botstars = new LinkedList<String>();
+                    for (int s = 1; s < m.length / 2; s++) {
+                        botstars.add(TriggerMatcher.group(lastReply, m, s));
+                    }
+                    result.add(new PreviousMatch(compiled.getPattern(), botstars, current.compiledFollows(compiled.getPattern())));
+                }
+            }
+        }
+
+        profile.setPrevious(topic, result, depends.toArray(new String[depends.size()]));
+        return result;
+    }
+
     /**
      * Formats a trigger for the regular expression engine.
      * @param user The user ID of the caller.
      * @param trigger The raw trigger text.
      */
     private String triggerRegexp(String user, com.engine.interpretation.Client profile, String trigger) {
+        return userRegexp(user, profile, triggerRegexp(trigger));
+    }
+
+    /**
+     * Formats the user independent parts of a trigger for the regular expression
+     * engine: wildcards, optionals and arrays. Bot variables, user variables and
+     * the chat history tags are left for userRegexp().
+     * @param trigger The raw trigger text.
+     */
+    private String triggerRegexp(String trigger) {
         // If the trigger is simply '*', it needs to become (.*?) so it catches the empty string.
         String regexp = trigger.replaceAll("^\\*$", "<zerowidthstar>");
 
@@ -1051,7 +1808,7 @@ public class Interpreter {
         // Make \w more accurate for our purposes.
         regexp = regexp.replaceAll("\\\\w", "[a-z ]");
 
-        // Filter in arrays.
+        // Filter in arrays, as references to the compiled arrays (see TriggerMatcher).
         if (regexp.indexOf("@") > -1) {
             // Match the array's name.
             Pattern reArray = Pattern.compile("\\@(.+?)\\b");
@@ -1061,21 +1818,8 @@ public class Interpreter {
                 String name = mArray.group(1);
 
                 // Do we have an array by this name?
-                if (arrays.containsKey(name)) {
-                    Object[] values = arrays.get(name).toArray();
-                    StringBuilder joined = new StringBuilder();
-
-                    // Join the array.
-                    for (int i = 0; i < values.length; i++) {
-                        joined.append(values[i].toString());
-                        if (i < values.length - 1) {
-                            joined.append("|");
-                        }
-                    }
-
-                    // Final contents...
-                    String rep = "(?:" + joined.toString() + ")";
-                    regexp = regexp.replace(array, rep);
+                if (arraySets.containsKey(name)) {
+                    regexp = regexp.replace(array, "(?@" + name + ")");
                 } else {
                     // No array by this name.
                     regexp = regexp.replace(array, "");
@@ -1083,17 +1827,29 @@ public class Interpreter {
             }
         }
 
+        return regexp;
+    }
+
+    /**
+     * Fill the bot variables, user variables and chat history of a user into a
+     * trigger already formatted by triggerRegexp().
+     * @param user The user ID of the caller.
+     * @param profile The user's profile.
+     * @param regexp The formatted trigger.
+     */
+    private String userRegexp(String user, com.engine.interpretation.Client profile, String regexp) {
         // Filter in bot variables.
         if (regexp.indexOf("<bot") > -1) {
+            HashMap<String, String> current = vars;
             Pattern reBot = Pattern.compile("<bot (.+?)>");
             Matcher mBot = reBot.matcher(regexp);
             while (mBot.find()) {
                 String tag = mBot.group(0);
                 String var = mBot.group(1);
-                String value = vars.get(var).toLowerCase();//.replace("[^a-z0-9 ]+", "");
+                String value = current.get(var).toLowerCase();//.replace("[^a-z0-9 ]+", "");
 
                 // Have this?
-                if (vars.containsKey(var)) {
+                if (current.containsKey(var)) {
                     regexp = regexp.replace(tag, value);
                 } else {
                     regexp = regexp.replace(tag, "undefined");
@@ -1139,7 +1895,8 @@ public class Interpreter {
             }
         }
 
-        return regexp;
+        // The values are matched against a message with its accents folded.
+        return MessageNormalizer.fold(regexp);
     }
 
     /**
@@ -1170,6 +1927,34 @@ public class Interpreter {
         Object[] stars = vstars.toArray();
         Object[] botstars = vbotstars.toArray();
 
+        // Replies are parsed when they are sorted, anything else now.
+        ReplyTemplate template = null;
+        if (compileReplies) {
+            HashMap<String, ReplyTemplate> compiled = templates;
+            if (compiled.containsKey(reply)) {
+                template = compiled.get(reply);
+            } else {
+                template = ReplyTemplate.compile(reply);
+            }
+        }
+        if (template != null) {
+            return template.render(new TagContext(user, profile, step), user, stars, botstars);
+        }
+        return regexTags(user, profile, reply, stars, botstars, step);
+    }
+
+    /**
+     * Process reply tags with regular expressions, for the replies that can't be
+     * compiled into a ReplyTemplate.
+     * @param user The name of the end user.
+     * @param profile The Interpreter client object holding the user's profile
+     * @param reply The bot's original reply including tags.
+     * @param stars The wildcards the user's message matched, padded.
+     * @param botstars The wildcards in any %Previous, padded.
+     * @param step The current recursion depth limit.
+     */
+    private String regexTags(String user, com.engine.interpretation.Client profile,
+            String reply, Object[] stars, Object[] botstars, int step) {
         // Shortcut tags.
         reply = reply.replaceAll("<person>", "{person}<star>{/person}");
         reply = reply.replaceAll("<@>", "{@<star>}");
@@ -1242,8 +2027,9 @@ public class Interpreter {
                 String var = mBot.group(1);
 
                 // Have this?
-                if (vars.containsKey(var)) {
-                    reply = reply.replace(tag, vars.get(var));
+                String value = vars.get(var);
+                if (value != null) {
+                    reply = reply.replace(tag, value);
                 } else {
                     reply = reply.replace(tag, "undefined");
                 }
@@ -1259,8 +2045,9 @@ public class Interpreter {
                 String var = mEnv.group(1);
 
                 // Have this?
-                if (globals.containsKey(var)) {
-                    reply = reply.replace(tag, globals.get(var));
+                String value = globals.get(var);
+                if (value != null) {
+                    reply = reply.replace(tag, value);
                 } else {
                     reply = reply.replace(tag, "undefined");
                 }
@@ -1277,6 +2064,7 @@ public class Interpreter {
                 LOG.log(Level.INFO, "Stream new code in: {0}", code);
 
                 // Stream it.
+                SessionJournal.requireOrder(profile);
                 this.stream(code);
                 reply = reply.replace(tag, "");
             }
@@ -1292,7 +2080,7 @@ public class Interpreter {
 
                 // Run person substitutions.
                 LOG.log(Level.INFO, "Run person substitutions: before: {0}", text);
-                text = com.engine.interpretation.Util.substitute(person_s, person, text);
+                text = personAutomaton.apply(text);
                 LOG.log(Level.INFO, "After: {0}", text);
                 reply = reply.replace(tag, text);
             }
@@ -1425,7 +2213,7 @@ public class Interpreter {
                 String target = mRed.group(1).trim();
 
                 // Do the reply redirect.
-                String subreply = this.reply(user, target, false, step + 1);
+                String subreply = this.reply(user, profile, target, false, step + 1);
                 reply = reply.replace(tag, subreply);
             }
         }
@@ -1437,26 +2225,141 @@ public class Interpreter {
             while (mCall.find()) {
                 String tag = mCall.group(0);
                 String data = mCall.group(1);
-                String[] parts = data.split(" ");
-                String name = parts[0];
-                LinkedList<String> args = new LinkedList<String>();
-                for (int i = 1; i < parts.length; i++) {
-                    args.add(parts[i]);
-                }
+                reply = reply.replace(tag, callObject(user, profile, data));
+            }
+        }
 
-                // See if we know of this object.
-                if (objects.containsKey(name)) {
-                    // What language handles it?
-                    String lang = objects.get(name);
-                    String result = handlers.get(lang).onCall(name, user, args.toArray());
-                    reply = reply.replace(tag, result);
-                } else {
-                    reply = reply.replace(tag, "[ERR: Object Not Found]");
+        return reply;
+    }
+
+    /**
+     * Gives the tags of a ReplyTemplate access to the user's data and to the
+     * interpreter, exactly like regexTags() uses them.
+     */
+    private class TagContext implements ReplyTemplate.Context {
+        private String user;
+        private com.engine.interpretation.Client profile;
+        private int step;
+
+        private TagContext(String user, com.engine.interpretation.Client profile, int step) {
+            this.user    = user;
+            this.profile = profile;
+            this.step    = step;
+        }
+
+        @Override
+        public String input(int index) {
+            return profile.getInput(index).toLowerCase();
+        }
+
+        @Override
+        public String reply(int index) {
+            return profile.getReply(index).toLowerCase();
+        }
+
+        @Override
+        public int random(int bound) {
+            return rand.nextInt(bound);
+        }
+
+        @Override
+        public String bot(String name) {
+            String value = vars.get(name);
+            return value != null ? value : "undefined";
+        }
+
+        @Override
+        public String env(String name) {
+            String value = globals.get(name);
+            return value != null ? value : "undefined";
+        }
+
+        @Override
+        public void stream(String code) {
+            LOG.log(Level.INFO, "Stream new code in: {0}", code);
+            SessionJournal.requireOrder(profile);
+            Interpreter.this.stream(code);
+        }
+
+        @Override
+        public String person(String text) {
+            return personAutomaton.apply(text);
+        }
+
+        @Override
+        public String transform(String format, String text) {
+            return stringTransform(format, text);
+        }
+
+        @Override
+        public String get(String name) {
+            return profile.get(name);
+        }
+
+        @Override
+        public void set(String name, String value) {
+            profile.set(name, value);
+        }
+
+        @Override
+        public String redirect(String target) {
+            return Interpreter.this.reply(user, profile, target, false, step + 1);
+        }
+
+        @Override
+        public String call(String data) {
+            return callObject(user, profile, data);
+        }
+
+        @Override
+        public String[] redirect(String[] targets) {
+            ConcurrentTags concurrent = concurrentTags;
+            if (concurrent == null || profile instanceof SessionJournal) {
+                // One after the other, also inside a redirect evaluated out of order.
+                String[] results = new String[targets.length];
+                for (int t = 0; t < targets.length; t++) {
+                    results[t] = redirect(targets[t]);
                 }
+                return results;
+            }
+            ConcurrentTags.Tag[] tags = new ConcurrentTags.Tag[targets.length];
+            for (int t = 0; t < targets.length; t++) {
+                final String target = targets[t];
+                tags[t] = new ConcurrentTags.Tag() {
+                    @Override
+                    public String evaluate(com.engine.interpretation.Client journal) {
+                        return Interpreter.this.reply(user, journal, target, false, step + 1);
+                    }
+                };
             }
+            return concurrent.evaluate(profile, tags);
         }
 
-        return reply;
+        @Override
+        public String[] call(String[] data) {
+            ConcurrentTags concurrent = concurrentTags;
+            ConcurrentTags.Tag[] tags = new ConcurrentTags.Tag[data.length];
+            boolean[] ordered = new boolean[data.length];
+            for (int d = 0; d < data.length; d++) {
+                final String call = data[d];
+                tags[d] = new ConcurrentTags.Tag() {
+                    @Override
+                    public String evaluate(com.engine.interpretation.Client journal) {
+                        return callObject(user, profile, call);
+                    }
+                };
+                // Only the pure objects don't need the profile.
+                ordered[d] = !pure.contains(call.split(" ")[0]);
+            }
+            if (concurrent == null || profile instanceof SessionJournal) {
+                String[] results = new String[data.length];
+                for (int d = 0; d < data.length; d++) {
+                    results[d] = tags[d].evaluate(profile);
+                }
+                return results;
+            }
+            return concurrent.evaluate(tags, ordered);
+        }
     }
 
     /**
@@ -1500,17 +2403,16 @@ public class Interpreter {
     }
 
     /**
-     * Format the user's message to begin reply matching. Lowercases it, runs
-     * substitutions, and neutralizes what's left.
+     * Format the user's message to begin reply matching. Lowercases it, folds
+     * its accents and whitespace, runs substitutions, and neutralizes what's left.
      * @param message The input message to format.
      */
     private String formatMessage(String message) {
-        // Lowercase it first.
-        message = message.toLowerCase();
+        // Lowercase it first, folding accents and whitespace in the same pass.
+        message = MessageNormalizer.normalize(message);
 
-        message = Utils.removeAccents(message);
         // Run substitutions.
-        message = com.engine.interpretation.Util.substitute(subs_s, subs, message);
+        message = subsAutomaton.apply(message);
 
         // Sanitize what's left.
         //message = message.replaceAll("[^a-z0-9 ]", "");
@@ -0,0 +1,221 @@
+package com.engine.interpretation;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replies of one Interpreter made by a fixed number of shards, each one a single
+ * thread with its own bounded queue. A user always goes to the same shard (the
+ * hash of the ID): the messages of a user are replied to in the order they
+ * arrive, one at a time, and the users of different shards are served at the
+ * same time. The shards share the sorted brain and the clients of the
+ * Interpreter, which is left as it is: the lock of a user is never waited for,
+ * and the Interpreter can still be called directly or by other pools.<p>
+ * When the queue of a shard is full, the message is handled by the rejection
+ * policy of the pool. Running it on the thread of the caller isn't one of them,
+ * the messages of the user could be replied to out of order.
+ */
+public class InterpreterPool {
+
+    /**
+     * What to do with a message when the queue of its shard is full.
+     */
+    public enum Rejection {
+        ABORT,          // reply() throws a RejectedExecutionException
+        BLOCK,          // reply() waits for room in the queue
+        DISCARD_OLDEST  // the oldest message of the queue is cancelled
+    }
+
+    // Variables
+    private Interpreter interpreter         = null;     // The brain, shared by the shards
+    private ThreadPoolExecutor[] shards     = null;     // One thread each
+    private Rejection rejection             = null;     // Policy when a queue is full
+
+    //Log
+    private final static Logger LOG = Logger.getLogger(InterpreterPool.class .getName());
+
+    /**
+     * Create a pool of shards over an Interpreter, whose replies must be sorted.
+     * @param interpreter The Interpreter.
+     * @param count The number of shards, usually the number of cores.
+     * @param capacity The number of messages waiting in the queue of a shard.
+     * @param rejection What to do with a message when its queue is full.
+     */
+    public InterpreterPool(Interpreter interpreter, int count, int capacity, Rejection rejection) {
+        this.interpreter = interpreter;
+        this.rejection = rejection;
+        this.shards = new ThreadPoolExecutor[Math.max(count, 1)];
+        for (int s = 0; s < shards.length; s++) {
+            shards[s] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(capacity, 1)), new Shard(s), handler(rejection));
+        }
+        LOG.log(Level.INFO, "{0} shards of {1} messages", new Object[]{shards.length, capacity});
+    }
+
+    /**
+     * Get a reply from the shard of the user.
+     * @param username A unique user ID for the user chatting with the bot.
+     * @param message The user's message to the bot.
+     * @return The future reply
+     * @throws RejectedExecutionException when the queue is full with ABORT, or
+     * the pool is shut down
+     */
+    public Future<String> reply(final String username, final String message) {
+        return submit(username, new Callable<String>() {
+            @Override
+            public String call() {
+                return interpreter.reply(username, message);
+            }
+        });
+    }
+
+    /**
+     * Run a task on the shard of a user, after the messages of the user queued
+     * before it.
+     * @param username The user ID.
+     * @param task The task, replying to the user for instance.
+     * @return The future result of the task
+     * @throws RejectedExecutionException when the queue is full with ABORT, or
+     * the pool is shut down
+     */
+    public <T> Future<T> submit(String username, Callable<T> task) {
+        return shards[shard(username)].submit(task);
+    }
+
+    /**
+     * Get the Interpreter replying to the messages.
+     * @return Interpreter interpreter
+     */
+    public Interpreter getInterpreter() {
+        return interpreter;
+    }
+
+    /**
+     * Get the number of shards.
+     * @return int count
+     */
+    public int countShards() {
+        return shards.length;
+    }
+
+    /**
+     * Get the shard of a user.
+     * @param username The user ID.
+     * @return The index of the shard
+     */
+    public int shard(String username) {
+        return (username.hashCode() & 0x7fffffff) % shards.length;
+    }
+
+    /**
+     * Get the number of messages waiting in the queue of a shard.
+     * @param shard The index of the shard.
+     * @return int number of messages
+     */
+    public int getQueued(int shard) {
+        return shards[shard].getQueue().size();
+    }
+
+    /**
+     * Get the policy applied to the messages when a queue is full.
+     * @return Rejection policy
+     */
+    public Rejection getRejection() {
+        return rejection;
+    }
+
+    /**
+     * Stop taking messages, the ones queued are still replied to.
+     */
+    public void shutdown() {
+        for (int s = 0; s < shards.length; s++) {
+            shards[s].shutdown();
+        }
+    }
+
+    /**
+     * Wait for the messages queued after shutdown() to be replied to.
+     * @param timeout The longest time to wait.
+     * @param unit The unit of the timeout.
+     * @return true if every shard is done, false if the timeout was reached
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int s = 0; s < shards.length; s++) {
+            if (!shards[s].awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make the handler of a rejection policy.
+     */
+    private static RejectedExecutionHandler handler(Rejection rejection) {
+        switch (rejection) {
+            case BLOCK:
+                return new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable task, ThreadPoolExecutor shard) {
+                        if (shard.isShutdown()) {
+                            throw new RejectedExecutionException("The pool is shut down");
+                        }
+                        try {
+                            shard.getQueue().put(task);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting for the queue", ex);
+                        }
+                        // Shut down while waiting: the thread of the shard may be
+                        // gone, and the task would never run.
+                        if (shard.isShutdown() && shard.remove(task)) {
+                            throw new RejectedExecutionException("The pool is shut down");
+                        }
+                    }
+                };
+            case DISCARD_OLDEST:
+                return new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable task, ThreadPoolExecutor shard) {
+                        if (shard.isShutdown()) {
+                            throw new RejectedExecutionException("The pool is shut down");
+                        }
+                        Runnable oldest = shard.getQueue().poll();
+                        if (oldest instanceof Future) {
+                            ((Future<?>) oldest).cancel(false);
+                        }
+                        LOG.log(Level.WARNING, "Queue full, the oldest message was dropped");
+                        shard.execute(task);
+                    }
+                };
+            default:
+                return new ThreadPoolExecutor.AbortPolicy();
+        }
+    }
+
+    /**
+     * Names the thread of a shard.
+     */
+    private static class Shard implements ThreadFactory {
+        private int index = 0;      // Index of the shard
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            return new Thread(task, "interpreter-shard-" + index);
+        }
+    }
+}
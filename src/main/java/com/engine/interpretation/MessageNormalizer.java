@@ -0,0 +1,153 @@
+package com.engine.interpretation;
+
+import java.text.Normalizer;
+
+/**
+ * Normalization of the messages before they are matched: case folding, accent
+ * folding, whitespace collapsing and splitting in words, each done in a single
+ * pass over the characters of the message.<p>
+ * Accents are folded with a lookup table of the letters of Latin-1 and Latin
+ * Extended-A ("canci\u00F3n" and "cancion" are the same message). The triggers,
+ * %Previous and arrays of the brain are folded the same way when they are
+ * loaded, so a trigger written with its accents still matches.
+ */
+public class MessageNormalizer {
+
+    // First and last characters of the lookup table
+    private static final char FIRST = '\u00C0';
+    private static final char LAST  = '\u017F';
+
+    // Letters that don't decompose into a base letter and an accent, followed by
+    // their folded text
+    private static final String[] LIGATURES = {
+        "\u00C6", "AE", "\u00E6", "ae", "\u00D0", "D", "\u00F0", "d",
+        "\u00D8", "O", "\u00F8", "o", "\u00DE", "TH", "\u00FE", "th",
+        "\u00DF", "ss", "\u0110", "D", "\u0111", "d", "\u0126", "H",
+        "\u0127", "h", "\u0131", "i", "\u0132", "IJ", "\u0133", "ij",
+        "\u0138", "k", "\u013F", "L", "\u0140", "l", "\u0141", "L",
+        "\u0142", "l", "\u0149", "'n", "\u014A", "N", "\u014B", "n",
+        "\u0152", "OE", "\u0153", "oe", "\u017F", "s"
+    };
+
+    // Folded text of each character of the table, null to keep the character
+    private static final String[] FOLDS = new String[LAST - FIRST + 1];
+
+    static {
+        for (char c = FIRST; c <= LAST; c++) {
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            char base = decomposed.charAt(0);
+            if (decomposed.length() > 1 && base < 0x80 && Character.isLetter(base)) {
+                FOLDS[c - FIRST] = String.valueOf(base);
+            }
+        }
+        for (int i = 0; i < LIGATURES.length; i += 2) {
+            FOLDS[LIGATURES[i].charAt(0) - FIRST] = LIGATURES[i + 1];
+        }
+    }
+
+    /**
+     * Normalize a message: lowercase it, fold its accents, and collapse its
+     * whitespace into single spaces, without any at the start or the end.
+     * @param message The message of the user.
+     * @return The normalized message
+     */
+    public static String normalize(String message) {
+        int length = message.length();
+        StringBuilder result = new StringBuilder(length);
+        boolean space = false;
+        for (int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            if (isSpace(c)) {
+                space = result.length() > 0;
+                continue;
+            }
+            if (space) {
+                result.append(' ');
+                space = false;
+            }
+            c = Character.toLowerCase(c);
+            String folded = c >= FIRST && c <= LAST ? FOLDS[c - FIRST] : null;
+            if (folded == null) {
+                result.append(c);
+            } else {
+                result.append(folded);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Fold the accents of a trigger or an array item of the brain. The names in
+     * tags (<bot name>, <get name>) are kept as they are.
+     * @param text The text to fold.
+     * @return The folded text, the same String if it had no accents
+     */
+    public static String fold(String text) {
+        StringBuilder result = null;
+        boolean tag = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '<') {
+                tag = true;
+            } else if (c == '>') {
+                tag = false;
+            }
+            String folded = !tag && c >= FIRST && c <= LAST ? FOLDS[c - FIRST] : null;
+            if (folded != null && result == null) {
+                result = new StringBuilder(text.length() + 8);
+                result.append(text, 0, i);
+            }
+            if (folded != null) {
+                result.append(folded);
+            } else if (result != null) {
+                result.append(c);
+            }
+        }
+        return result == null ? text : result.toString();
+    }
+
+    /**
+     * Split a formatted message in words at its spaces. The indexes of the
+     * topics describe messages made of words separated by single spaces only
+     * (see TriggerParser.isTokenizable).
+     * @param message The formatted message.
+     * @return The words of the message, or null if it isn't made of words
+     * separated by single spaces
+     */
+    public static String[] tokenize(String message) {
+        int length = message.length();
+        if (length == 0 || message.charAt(0) == ' ' || message.charAt(length - 1) == ' ') {
+            return null;
+        }
+        int count = 1;
+        for (int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            if (c == ' ') {
+                if (message.charAt(i - 1) == ' ') {
+                    return null;
+                }
+                count++;
+            } else if (Character.isWhitespace(c) || c == '\u0085') {
+                return null;
+            }
+        }
+        String[] words = new String[count];
+        int w = 0;
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (message.charAt(i) == ' ') {
+                words[w++] = message.substring(start, i);
+                start = i + 1;
+            }
+        }
+        words[w] = message.substring(start);
+        return words;
+    }
+
+    /**
+     * Test whether a character separates words.
+     */
+    private static boolean isSpace(char c) {
+        return Character.isWhitespace(c) || c == '\u0085' || c == '\u00A0' || c == '\u2007' || c == '\u202F';
+    }
+}
@@ -0,0 +1,141 @@
+package com.engine.interpretation;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Search of a big sort buffer split in chunks matched in parallel on a
+ * ForkJoinPool. The sort buffer order decides which trigger wins, so every chunk
+ * publishes the position of its first match and gives up as soon as a better one
+ * (lower position) was found by another chunk. The result is the trigger the
+ * sequential scan would have stopped at.<p>
+ * Triggers that need the user's data to be matched (<get>, <input>...) are not
+ * matched here, the profile of the user is not thread safe: the ones ranked
+ * before the match found are returned with it, and the caller tries them in
+ * order before the match.
+ */
+public class ParallelSearch {
+
+    // Smallest chunk of triggers given to a thread
+    public static final int CHUNK = 2048;
+
+    // Variables
+    private ForkJoinPool pool   = null;     // Pool running the chunks
+    private int threshold       = 0;        // Smallest search done in parallel
+
+    /**
+     * Create a new parallel search.
+     * @param pool The pool running the chunks.
+     * @param threshold The number of triggers from which a search is split.
+     */
+    public ParallelSearch(ForkJoinPool pool, int threshold) {
+        this.pool       = pool;
+        this.threshold  = Math.max(threshold, CHUNK);
+    }
+
+    /**
+     * Test whether a search is big enough to be done in parallel.
+     * @param count The number of triggers to try.
+     * @return true if it is
+     */
+    public boolean worthIt(int count) {
+        return count >= threshold;
+    }
+
+    /**
+     * Find the first trigger that matches a message.
+     * @param triggers The compiled sort buffer.
+     * @param candidates The ranks of the triggers to try, null for all of them.
+     * @param message The formatted message.
+     * @return Ranks of the triggers the caller must still try, in order: the
+     * dynamic triggers ranked before the match, and the match itself
+     */
+    public int[] search(CompiledTrigger[] triggers, int[] candidates, String message) {
+        int count = candidates == null ? triggers.length : candidates.length;
+        AtomicInteger best = new AtomicInteger(count);
+        ConcurrentLinkedQueue<Integer> dynamic = new ConcurrentLinkedQueue<Integer>();
+        pool.invoke(new Chunk(triggers, candidates, 0, count, message, best, dynamic));
+
+        // Only keep the dynamic triggers found before the match.
+        int found = best.get();
+        BitSet positions = new BitSet();
+        for (Integer c : dynamic) {
+            if (c.intValue() < found) {
+                positions.set(c.intValue());
+            }
+        }
+        if (found < count) {
+            positions.set(found);
+        }
+        int[] result = new int[positions.cardinality()];
+        int r = 0;
+        for (int c = positions.nextSetBit(0); c >= 0; c = positions.nextSetBit(c + 1)) {
+            result[r++] = candidates == null ? c : candidates[c];
+        }
+        return result;
+    }
+
+    /**
+     * A part of the search, split in two until it is small enough.
+     */
+    private static class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private CompiledTrigger[] triggers;
+        private int[] candidates;
+        private int from;
+        private int to;
+        private String message;
+        private AtomicInteger best;
+        private ConcurrentLinkedQueue<Integer> dynamic;
+
+        private Chunk(CompiledTrigger[] triggers, int[] candidates, int from, int to, String message,
+                AtomicInteger best, ConcurrentLinkedQueue<Integer> dynamic) {
+            this.triggers   = triggers;
+            this.candidates = candidates;
+            this.from       = from;
+            this.to         = to;
+            this.message    = message;
+            this.best       = best;
+            this.dynamic    = dynamic;
+        }
+
+        @Override
+        protected void compute() {
+            if (from >= best.get()) {
+                // A better match was found already.
+                return;
+            }
+            if (to - from > CHUNK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Chunk(triggers, candidates, from, middle, message, best, dynamic),
+                        new Chunk(triggers, candidates, middle, to, message, best, dynamic));
+                return;
+            }
+            for (int c = from; c < to && c < best.get(); c++) {
+                CompiledTrigger trigger = triggers[candidates == null ? c : candidates[c]];
+                if (trigger.isDynamic()) {
+                    dynamic.add(Integer.valueOf(c));
+                    continue;
+                }
+                TriggerMatcher re = trigger.getCompiled();
+                if (re != null && re.match(message) != null) {
+                    publish(c);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Keep a position if it is better than the best one so far.
+         */
+        private void publish(int c) {
+            int current = best.get();
+            while (c < current && !best.compareAndSet(current, c)) {
+                current = best.get();
+            }
+        }
+    }
+}
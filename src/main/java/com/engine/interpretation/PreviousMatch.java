@@ -0,0 +1,53 @@
+package com.engine.interpretation;
+
+import java.util.LinkedList;
+
+/**
+ * A %Previous that matched the bot's last reply to a user. They are computed
+ * once per turn and kept in the user's Client, so the next message only has to
+ * be compared with the triggers that follow them.
+ */
+public class PreviousMatch {
+
+    // Variables
+    private String previous                 = null;     // %Previous text
+    private LinkedList<String> botstars     = null;     // Stars matched in the bot's reply
+    private CompiledTrigger[] candidates    = null;     // Triggers following this %Previous
+
+    /**
+     * Create a new %Previous match.
+     * @param previous The %Previous text.
+     * @param botstars The stars matched in the bot's last reply.
+     * @param candidates The compiled triggers following this %Previous, owned by
+     * their "trigger{previous}previous" Trigger object.
+     */
+    public PreviousMatch(String previous, LinkedList<String> botstars, CompiledTrigger[] candidates) {
+        this.previous   = previous;
+        this.botstars   = botstars;
+        this.candidates = candidates;
+    }
+
+    /**
+     * Get the %Previous text.
+     * @return String previous
+     */
+    public String getPrevious() {
+        return this.previous;
+    }
+
+    /**
+     * Get the stars matched in the bot's last reply.
+     * @return LinkedList of botstars
+     */
+    public LinkedList<String> getBotstars() {
+        return this.botstars;
+    }
+
+    /**
+     * Get the triggers to compare the user's message with.
+     * @return Array of compiled triggers
+     */
+    public CompiledTrigger[] getCandidates() {
+        return this.candidates;
+    }
+}
@@ -0,0 +1,163 @@
+package com.engine.interpretation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/**
+ * The static redirects of a brain: the @redirect lines and the {@...} tags
+ * without tags inside them, whose target message is known when the replies are
+ * sorted. Each sort buffer gets the trigger every target matches, so following
+ * these redirects doesn't search the topic again, and the redirects that lead
+ * back to their own trigger are found before any user runs into them.<p>
+ * The triggers that need the user's data to be matched (<get>, <input>...) can't
+ * be tried in advance: the ones ranked before the match are kept with it, and
+ * the caller tries them in order before the match.
+ */
+public class RedirectResolver {
+
+    // Variables
+    private HashMap<Trigger, String[]> targets  = new HashMap<Trigger, String[]>(); // Static targets of each trigger
+    private HashSet<String> messages            = new HashSet<String>();            // All the static targets
+
+    /**
+     * Collect the static redirects of triggers.
+     * @param triggers The triggers of every topic.
+     */
+    public RedirectResolver(Collection<Trigger> triggers) {
+        for (Trigger trigger : triggers) {
+            LinkedList<String> found = new LinkedList<String>(trigger.listRedirects());
+            for (String reply : trigger.listReplies()) {
+                tags(reply, found);
+            }
+            for (Condition condition : trigger.listPredicates()) {
+                tags(condition.getReply(), found);
+            }
+            if (!found.isEmpty()) {
+                targets.put(trigger, found.toArray(new String[found.size()]));
+                messages.addAll(found);
+            }
+        }
+    }
+
+    /**
+     * Find the {@...} tags of a reply that have no tags inside them.
+     */
+    private static void tags(String reply, Collection<String> found) {
+        int i = reply.indexOf("{@");
+        while (i > -1) {
+            int end = reply.indexOf('}', i + 2);
+            if (end < 0) {
+                return;
+            }
+            String target = reply.substring(i + 2, end);
+            if (target.indexOf('<') < 0 && target.indexOf('{') < 0 && target.trim().length() > 0) {
+                found.add(target.trim());
+            }
+            i = reply.indexOf("{@", end + 1);
+        }
+    }
+
+    /**
+     * Find the trigger each static target matches in a sort buffer.
+     * @param triggers The compiled sort buffer.
+     * @param index The index of the sort buffer, null to scan it.
+     * @return The ranks of the triggers left to try for each target (see search)
+     */
+    public HashMap<String, int[]> resolve(CompiledTrigger[] triggers, TriggerIndex index) {
+        HashMap<String, int[]> result = new HashMap<String, int[]>();
+        for (String message : messages) {
+            result.put(message, search(triggers, index, message));
+        }
+        return result;
+    }
+
+    /**
+     * Find the trigger a message matches without the data of a user.
+     * @param triggers The compiled sort buffer.
+     * @param index The index of the sort buffer, null to scan it.
+     * @param message The message.
+     * @return The ranks of the triggers to try, in order: the triggers that
+     * need the user's data ranked before the match, and the match itself
+     */
+    public static int[] search(CompiledTrigger[] triggers, TriggerIndex index, String message) {
+        int[] candidates = index == null ? null : index.candidates(MessageNormalizer.tokenize(message));
+        int count = candidates == null ? triggers.length : candidates.length;
+        int[] plan = new int[count];
+        int size = 0;
+        for (int c = 0; c < count; c++) {
+            int rank = candidates == null ? c : candidates[c];
+            CompiledTrigger trigger = triggers[rank];
+            if (trigger.isDynamic()) {
+                plan[size++] = rank;
+                continue;
+            }
+            TriggerMatcher re = trigger.getCompiled();
+            if (re != null && re.match(message) != null) {
+                plan[size++] = rank;
+                break;
+            }
+        }
+        return Arrays.copyOf(plan, size);
+    }
+
+    /**
+     * Find the cycles of static redirects in a sort buffer: triggers that may
+     * redirect to themselves, until the recursion depth is reached.
+     * @param buffer The sort buffer of a topic.
+     * @return The cycles found, as "a -> b -> a"
+     */
+    public LinkedList<String> findCycles(SortBuffer buffer) {
+        // Redirects of each trigger of the topic to the triggers they match.
+        HashMap<Trigger, ArrayList<Trigger>> edges = new HashMap<Trigger, ArrayList<Trigger>>();
+        CompiledTrigger[] triggers = buffer.getTriggers();
+        for (int i = 0; i < triggers.length; i++) {
+            Trigger owner = triggers[i].getTrigger();
+            String[] found = owner == null ? null : targets.get(owner);
+            if (found == null || edges.containsKey(owner)) {
+                continue;
+            }
+            ArrayList<Trigger> next = new ArrayList<Trigger>();
+            for (int t = 0; t < found.length; t++) {
+                int[] plan = buffer.resolve(found[t]);
+                if (plan != null && plan.length > 0 && triggers[plan[plan.length - 1]].getTrigger() != null) {
+                    next.add(triggers[plan[plan.length - 1]].getTrigger());
+                }
+            }
+            edges.put(owner, next);
+        }
+
+        // Depth first walk, a trigger found again on the current path is a cycle.
+        LinkedList<String> cycles = new LinkedList<String>();
+        HashSet<Trigger> done = new HashSet<Trigger>();
+        for (Trigger start : edges.keySet()) {
+            walk(start, edges, new ArrayList<Trigger>(), done, cycles);
+        }
+        return cycles;
+    }
+
+    private static void walk(Trigger trigger, HashMap<Trigger, ArrayList<Trigger>> edges,
+            ArrayList<Trigger> path, HashSet<Trigger> done, LinkedList<String> cycles) {
+        int seen = path.indexOf(trigger);
+        if (seen > -1) {
+            StringBuilder cycle = new StringBuilder();
+            for (int i = seen; i < path.size(); i++) {
+                cycle.append(path.get(i).getPattern()).append(" -> ");
+            }
+            cycles.add(cycle.append(trigger.getPattern()).toString());
+            return;
+        }
+        if (done.contains(trigger) || !edges.containsKey(trigger)) {
+            return;
+        }
+        path.add(trigger);
+        for (Trigger next : edges.get(trigger)) {
+            walk(next, edges, path, done, cycles);
+        }
+        path.remove(path.size() - 1);
+        done.add(trigger);
+    }
+}
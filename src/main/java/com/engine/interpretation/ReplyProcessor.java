@@ -0,0 +1,275 @@
+package com.engine.interpretation;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A java.util.concurrent.Flow stage replying to the messages of a publisher and
+ * publishing the replies. The messages are replied to by an InterpreterPool: the
+ * messages of a user in the order they arrive, the users of different shards at
+ * the same time.<p>
+ * The demand is passed upstream: at most buffer messages are requested and not
+ * yet published, a new one is requested each time a reply is published. A reply
+ * is published when every subscriber has room for it (see SubmissionPublisher),
+ * so slow subscribers slow the messages down instead of piling them up.
+ */
+public class ReplyProcessor implements Flow.Processor<ReplyProcessor.Message, ReplyProcessor.Event> {
+
+    /**
+     * A message of a user.
+     */
+    public static class Message {
+        private String user     = null;     // User ID
+        private String text     = null;     // The message
+
+        /**
+         * Create a message.
+         * @param user The user ID.
+         * @param text The message of the user.
+         */
+        public Message(String user, String text) {
+            this.user = user;
+            this.text = text;
+        }
+
+        /**
+         * Get the user ID.
+         * @return String user
+         */
+        public String getUser() {
+            return user;
+        }
+
+        /**
+         * Get the message of the user.
+         * @return String text
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * The reply to a message.
+     */
+    public static class Event {
+        private Message message     = null;     // The message replied to
+        private String reply        = null;     // The reply, null if it failed
+        private Throwable failure   = null;     // Why the reply failed
+        private long latency        = 0;        // Nanoseconds from the arrival of the message to its reply
+
+        Event(Message message, String reply, Throwable failure, long latency) {
+            this.message    = message;
+            this.reply      = reply;
+            this.failure    = failure;
+            this.latency    = latency;
+        }
+
+        /**
+         * Get the user ID.
+         * @return String user
+         */
+        public String getUser() {
+            return message.getUser();
+        }
+
+        /**
+         * Get the message replied to.
+         * @return Message message
+         */
+        public Message getMessage() {
+            return message;
+        }
+
+        /**
+         * Get the reply.
+         * @return String reply, null if it failed
+         */
+        public String getReply() {
+            return reply;
+        }
+
+        /**
+         * Get the error of a reply that failed.
+         * @return Throwable failure, null if the reply was made
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * Get the time from the arrival of the message to its reply, time in the
+         * queue included.
+         * @param unit The unit of the result.
+         * @return long latency
+         */
+        public long getLatency(TimeUnit unit) {
+            return unit.convert(latency, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Variables
+    private InterpreterPool pool                    = null;     // Replies to the messages
+    private SubmissionPublisher<Event> publisher    = null;     // Publishes the replies
+    private int buffer                              = 0;        // Messages requested and not yet published
+    private Flow.Subscription subscription          = null;     // Subscription to the messages
+    private AtomicInteger pending                   = new AtomicInteger(); // Messages received and not yet published
+    private volatile boolean completed              = false;    // No more messages will come
+    private volatile Throwable error                = null;     // Error of the publisher of the messages
+    private AtomicBoolean closed                    = new AtomicBoolean(); // The replies are all published
+
+    //Log
+    private final static Logger LOG = Logger.getLogger(ReplyProcessor.class .getName());
+
+    /**
+     * Create a stage replying with an Interpreter, whose replies must be sorted.
+     * @param interpreter The Interpreter.
+     * @param concurrency The number of users replied to at the same time.
+     * @param buffer The number of messages requested and not yet published, and
+     * the number of replies buffered for each subscriber.
+     */
+    public ReplyProcessor(Interpreter interpreter, int concurrency, int buffer) {
+        this.buffer = Math.max(buffer, 1);
+        // A shard never has more messages than requested.
+        this.pool = new InterpreterPool(interpreter, concurrency, this.buffer, InterpreterPool.Rejection.ABORT);
+        this.publisher = new SubmissionPublisher<Event>(ForkJoinPool.commonPool(), this.buffer);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Event> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(buffer);
+    }
+
+    @Override
+    public void onNext(final Message message) {
+        final long arrival = System.nanoTime();
+        pending.incrementAndGet();
+        try {
+            pool.submit(message.getUser(), new Callable<Void>() {
+                @Override
+                public Void call() {
+                    String reply = null;
+                    Throwable failure = null;
+                    try {
+                        reply = pool.getInterpreter().reply(message.getUser(), message.getText());
+                    } catch (Throwable ex) {
+                        // Errors too (a redirect too deep for the stack...): the
+                        // message must be published or the stream stalls.
+                        LOG.log(Level.SEVERE, "Reply to " + message.getUser() + " failed", ex);
+                        failure = ex;
+                    }
+                    publish(new Event(message, reply, failure, System.nanoTime() - arrival));
+                    return null;
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // More messages than requested: the publisher broke the demand.
+            publish(new Event(message, null, ex, System.nanoTime() - arrival));
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        completed = true;
+        close();
+    }
+
+    @Override
+    public void onComplete() {
+        completed = true;
+        close();
+    }
+
+    /**
+     * Publish a reply, waiting for room in the buffers of the subscribers, and
+     * request the next message.
+     */
+    private void publish(Event event) {
+        try {
+            publisher.submit(event);
+        } catch (IllegalStateException ex) {
+            // Cancelled, the reply is dropped.
+        } finally {
+            pending.decrementAndGet();
+            if (completed) {
+                close();
+            } else {
+                subscription.request(1);
+            }
+        }
+    }
+
+    /**
+     * Close the replies once the last message received is replied to.
+     */
+    private void close() {
+        if (pending.get() > 0 || !closed.compareAndSet(false, true)) {
+            return;
+        }
+        pool.shutdown();
+        if (error == null) {
+            publisher.close();
+        } else {
+            publisher.closeExceptionally(error);
+        }
+    }
+
+    /**
+     * Stop replying: the messages are no longer requested and the subscribers
+     * of the replies are told it is over.
+     */
+    public void cancel() {
+        completed = true;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        if (closed.compareAndSet(false, true)) {
+            pool.shutdown();
+            publisher.close();
+        }
+    }
+
+    /**
+     * Get the number of messages received and not yet published.
+     * @return int number of messages
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Get the largest number of replies published and not yet consumed by a
+     * subscriber.
+     * @return int number of replies
+     */
+    public int getLag() {
+        return publisher.estimateMaximumLag();
+    }
+
+    /**
+     * Get the shards replying to the messages, to watch their queues.
+     * @return InterpreterPool pool
+     */
+    public InterpreterPool getPool() {
+        return pool;
+    }
+}
@@ -0,0 +1,725 @@
+package com.engine.interpretation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A reply (or condition) parsed once into literal text and tags, so it doesn't
+ * have to go through the regular expressions of every tag family at each reply.
+ * The tags are evaluated family by family in the order processTags always used:
+ * stars, inputs and replies, {random}, <bot>, <env>, {!stream}, {person}, the
+ * string transforms, <set>, the arithmetic tags, <get>, {topic}, {@redirect} and
+ * <call>; inside a family, from left to right. A tag nested in another one is
+ * thus evaluated first when its family comes first, and identical tags of a
+ * family share the text of the first one, like the replacements did.<p>
+ * A reply without tags is returned as is. Replies the regular expressions would
+ * read differently than the parser (unclosed or misnested tags, a tag inside a
+ * tag evaluated before it, stray backslashes...) are not compiled and keep
+ * going through processTags.<p>
+ * The redirects, then the calls, of a reply are given to the interpreter all at
+ * once, as they may be evaluated at the same time (see ConcurrentTags): a tag
+ * can't be inside a tag of its own family, so their arguments are known before
+ * the first one is evaluated.
+ */
+public class ReplyTemplate {
+
+    /**
+     * What the tags need from the interpreter.
+     */
+    public interface Context {
+        public String input(int index);
+        public String reply(int index);
+        public int random(int bound);
+        public String bot(String name);
+        public String env(String name);
+        public void stream(String code);
+        public String person(String text);
+        public String transform(String format, String text);
+        public String get(String name);
+        public void set(String name, String value);
+        public String redirect(String target);
+        public String call(String data);
+        public String[] redirect(String[] targets);
+        public String[] call(String[] data);
+    }
+
+    // Kinds of nodes, in evaluation order
+    private static final int TEXT       = -1;
+    private static final int ID         = 0;
+    private static final int STAR       = 1;
+    private static final int BOTSTAR    = 2;
+    private static final int INPUT      = 3;
+    private static final int REPLY      = 4;
+    private static final int RANDOM     = 5;
+    private static final int BOT        = 6;
+    private static final int ENV        = 7;
+    private static final int STREAM     = 8;
+    private static final int PERSON     = 9;
+    private static final int FORMAL     = 10;
+    private static final int SENTENCE   = 11;
+    private static final int UPPERCASE  = 12;
+    private static final int LOWERCASE  = 13;
+    private static final int SET        = 14;
+    private static final int ADD        = 15;
+    private static final int SUB        = 16;
+    private static final int MULT       = 17;
+    private static final int DIV        = 18;
+    private static final int GET        = 19;
+    private static final int TOPIC      = 20;
+    private static final int REDIRECT   = 21;
+    private static final int CALL       = 22;
+    private static final int KINDS      = 23;
+
+    // Names of the string transforms and arithmetic tags, by kind
+    private static final String[] NAMES = {null, null, null, null, null, null, null, null, null, null,
+        "formal", "sentence", "uppercase", "lowercase", null, "add", "sub", "mult", "div"};
+
+    // Variables
+    private String text         = null;     // The reply once the shortcut tags are expanded
+    private Node[] top          = null;     // Top level nodes
+    private Node[] tags         = null;     // Tag nodes by id, in document order
+    private int[][] families    = null;     // Ids of the tags of each kind, in document order
+
+    /**
+     * A piece of the reply: literal text, or a tag made of fixed text (glue)
+     * around its arguments (parts).
+     */
+    private static class Node {
+        private int kind;               // Kind of node
+        private int id;                 // Position in the tags
+        private String text;            // Literal text
+        private int index;              // Star, input or reply number
+        private String[] glue;          // Fixed text around the parts
+        private Node[][] parts;         // Arguments, alternatives of a {random}
+        private int choices;            // Number of alternatives a {random} picks from
+        private Node random;            // {random} this node is an alternative of
+        private int alternative;        // Which alternative
+    }
+
+    /**
+     * Thrown by the parser for a reply that must keep going through processTags.
+     */
+    private static class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Compile a reply.
+     * @param reply The reply, condition or condition half, as written.
+     * @return The compiled reply, null if it must be processed by processTags
+     */
+    public static ReplyTemplate compile(String reply) {
+        // Shortcut and quick tags.
+        String text = reply.replace("<person>", "{person}<star>{/person}")
+                .replace("<@>", "{@<star>}")
+                .replace("<formal>", "{formal}<star>{/formal}")
+                .replace("<sentence>", "{sentence}<star>{/sentence}")
+                .replace("<uppercase>", "{uppercase}<star>{/uppercase}")
+                .replace("<lowercase>", "{lowercase}<star>{/lowercase}");
+        if (text.indexOf("{weight=") > -1) {
+            text = text.replaceAll("\\{weight=\\d+\\}", "");
+        }
+        text = text.replace("<input>", "<input1>")
+                .replace("<reply>", "<reply1>")
+                .replace("\\s", " ")
+                .replace("\\n", "\n");
+        if (text.indexOf('\\') > -1) {
+            return null;
+        }
+
+        ReplyTemplate template = new ReplyTemplate();
+        template.text = text;
+        Parser parser = new Parser(text);
+        try {
+            template.top = parser.sequence(0, text.length(), KINDS, null, 0);
+        } catch (Unsupported ex) {
+            return null;
+        }
+        template.tags = parser.tags.toArray(new Node[parser.tags.size()]);
+
+        // Group the tags by kind, keeping the document order.
+        int[] counts = new int[KINDS];
+        for (int i = 0; i < template.tags.length; i++) {
+            counts[template.tags[i].kind]++;
+        }
+        template.families = new int[KINDS][];
+        for (int k = 0; k < KINDS; k++) {
+            template.families[k] = new int[counts[k]];
+            counts[k] = 0;
+        }
+        for (int i = 0; i < template.tags.length; i++) {
+            int kind = template.tags[i].kind;
+            template.families[kind][counts[kind]++] = i;
+        }
+        return template;
+    }
+
+    /**
+     * Test whether the reply has no tags at all.
+     * @return true if render() always returns getText()
+     */
+    public boolean isStatic() {
+        return tags.length == 0;
+    }
+
+    /**
+     * Get the reply with the shortcut tags expanded.
+     * @return String text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Evaluate the tags and build the reply.
+     * @param context The interpreter, for the user's data and the side effects.
+     * @param user The user ID.
+     * @param stars The stars of the trigger, padded like processTags does.
+     * @param botstars The stars of the %Previous, padded the same way.
+     * @return The reply
+     */
+    public String render(Context context, String user, Object[] stars, Object[] botstars) {
+        if (tags.length == 0) {
+            return text;
+        }
+        String[] values = new String[tags.length];
+        int[] chosen = new int[tags.length];
+
+        for (int kind = 0; kind < KINDS; kind++) {
+            int[] family = families[kind];
+            if (family.length == 0) {
+                continue;
+            }
+            // Identical tags are replaced at once with the text of the first one.
+            HashMap<String, String> first = null;
+            if ((kind == REDIRECT || kind == CALL) && family.length > 1) {
+                first = batch(kind, family, context, values, chosen);
+            }
+            boolean batched = first != null;
+            if (first == null) {
+                first = new HashMap<String, String>();
+            }
+            for (int f = 0; f < family.length; f++) {
+                Node node = tags[family[f]];
+                if (kind > RANDOM && !active(node, chosen)) {
+                    continue;
+                }
+                String[] args = new String[node.parts.length];
+                boolean empty = false;
+                for (int p = 0; p < args.length; p++) {
+                    args[p] = raw(node.parts[p], values, chosen);
+                    empty |= args[p].length() == 0;
+                }
+
+                if (kind == RANDOM) {
+                    // Empty alternatives at the end don't count, as with split().
+                    int choices = args.length;
+                    while (choices > 0 && args[choices - 1].length() == 0) {
+                        choices--;
+                    }
+                    if (choices == 0) {
+                        continue;
+                    }
+                    String key = raw(node, values, chosen);
+                    int choice = context.random(choices);
+                    if (first.containsKey(key)) {
+                        choice = Integer.parseInt(first.get(key));
+                    } else {
+                        first.put(key, Integer.toString(choice));
+                    }
+                    chosen[node.id] = choice + 1;
+                    continue;
+                }
+
+                // A tag with nothing in an argument isn't a tag anymore.
+                String key = raw(node, values, chosen);
+                if (empty) {
+                    values[node.id] = key;
+                    continue;
+                }
+                String value = batched ? null : evaluate(node, args, context, user, stars, botstars);
+                if (first.containsKey(key)) {
+                    value = first.get(key);
+                } else {
+                    first.put(key, value);
+                }
+                values[node.id] = value;
+            }
+        }
+
+        StringBuilder result = new StringBuilder(text.length() + 32);
+        append(result, top, values, chosen);
+        return result.toString();
+    }
+
+    /**
+     * Evaluate the redirects or the calls of the reply at once.
+     * @param kind REDIRECT or CALL.
+     * @param family The ids of the tags.
+     * @return The text of each tag, null if there are less than two to evaluate
+     */
+    private HashMap<String, String> batch(int kind, int[] family, Context context, String[] values, int[] chosen) {
+        ArrayList<String> keys = new ArrayList<String>();
+        ArrayList<String> args = new ArrayList<String>();
+        for (int f = 0; f < family.length; f++) {
+            Node node = tags[family[f]];
+            if (!active(node, chosen)) {
+                continue;
+            }
+            // The identical tags are evaluated too, only the first one is kept.
+            String arg = raw(node.parts[0], values, chosen);
+            if (arg.length() > 0) {
+                keys.add(raw(node, values, chosen));
+                args.add(kind == REDIRECT ? arg.trim() : arg);
+            }
+        }
+        if (keys.size() < 2) {
+            return null;
+        }
+        String[] array = args.toArray(new String[args.size()]);
+        String[] results = kind == REDIRECT ? context.redirect(array) : context.call(array);
+        HashMap<String, String> result = new HashMap<String, String>();
+        for (int k = 0; k < results.length; k++) {
+            if (!result.containsKey(keys.get(k))) {
+                result.put(keys.get(k), results[k]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evaluate one tag.
+     * @param node The tag.
+     * @param args Its arguments, with the tags inside them already evaluated.
+     * @return The text replacing the tag
+     */
+    private static String evaluate(Node node, String[] args, Context context, String user, Object[] stars, Object[] botstars) {
+        switch (node.kind) {
+            case ID:
+                return user;
+            case STAR:
+                return node.index >= 1 && node.index < stars.length ? stars[node.index].toString() : "";
+            case BOTSTAR:
+                return node.index >= 1 && node.index < botstars.length ? botstars[node.index].toString() : "";
+            case INPUT:
+                return context.input(node.index);
+            case REPLY:
+                return context.reply(node.index);
+            case BOT:
+                return context.bot(args[0]);
+            case ENV:
+                return context.env(args[0]);
+            case STREAM:
+                context.stream(args[0]);
+                return "";
+            case PERSON:
+                return context.person(args[0]);
+            case FORMAL:
+            case SENTENCE:
+            case UPPERCASE:
+            case LOWERCASE:
+                return context.transform(NAMES[node.kind], args[0]);
+            case SET:
+                context.set(args[0], args[1]);
+                return "";
+            case ADD:
+            case SUB:
+            case MULT:
+            case DIV:
+                return arithmetic(node.kind, args[0], args[1], context);
+            case GET:
+                return context.get(args[0]);
+            case TOPIC:
+                context.set("topic", args[0]);
+                return "";
+            case REDIRECT:
+                return context.redirect(args[0].trim());
+            default:
+                return context.call(args[0]);
+        }
+    }
+
+    /**
+     * Run an <add>, <sub>, <mult> or <div> tag.
+     * @return An empty string, or the error replacing the tag
+     */
+    private static String arithmetic(int kind, String var, String value, Context context) {
+        // Get the user var.
+        String curvalue = context.get(var);
+        int current = 0;
+        if (!curvalue.equals("undefined")) {
+            try {
+                current = Integer.parseInt(curvalue);
+            } catch (NumberFormatException e) {
+                return "[ERR: Can't \"" + NAMES[kind] + "\" non-numeric variable " + var + "]";
+            }
+        }
+
+        // Value must be a number too.
+        int modifier = 0;
+        try {
+            modifier = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return "[ERR: Can't \"" + NAMES[kind] + "\" non-numeric value " + value + "]";
+        }
+
+        // Run the operation.
+        if (kind == ADD) {
+            current += modifier;
+        } else if (kind == SUB) {
+            current -= modifier;
+        } else if (kind == MULT) {
+            current *= modifier;
+        } else {
+            // Don't divide by zero.
+            if (modifier == 0) {
+                return "[ERR: Can't divide by zero!]";
+            }
+            current /= modifier;
+        }
+
+        // Store the new value.
+        context.set(var, Integer.toString(current));
+        return "";
+    }
+
+    /**
+     * Test whether a tag is part of the reply: it isn't if it belongs to an
+     * alternative of a {random} that wasn't picked.
+     */
+    private static boolean active(Node node, int[] chosen) {
+        return node.random == null || chosen[node.random.id] == node.alternative;
+    }
+
+    /**
+     * Get the text of a tag as the regular expressions of its family would see
+     * it: the tags evaluated so far replaced by their text.
+     */
+    private static String raw(Node node, String[] values, int[] chosen) {
+        StringBuilder result = new StringBuilder();
+        result.append(node.glue[0]);
+        for (int p = 0; p < node.parts.length; p++) {
+            append(result, node.parts[p], values, chosen);
+            result.append(node.glue[p + 1]);
+        }
+        return result.toString();
+    }
+
+    private static String raw(Node[] nodes, String[] values, int[] chosen) {
+        StringBuilder result = new StringBuilder();
+        append(result, nodes, values, chosen);
+        return result.toString();
+    }
+
+    /**
+     * Append the current text of nodes.
+     */
+    private static void append(StringBuilder result, Node[] nodes, String[] values, int[] chosen) {
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = nodes[i];
+            if (node.kind == TEXT) {
+                result.append(node.text);
+            } else if (node.kind == RANDOM && node.choices > 0 && isChosen(node, chosen)) {
+                append(result, node.parts[chosen[node.id] - 1], values, chosen);
+            } else if (node.kind != RANDOM && values[node.id] != null) {
+                result.append(values[node.id]);
+            } else {
+                result.append(raw(node, values, chosen));
+            }
+        }
+    }
+
+    private static boolean isChosen(Node node, int[] chosen) {
+        return chosen[node.id] > 0;
+    }
+
+    /**
+     * Reads the text of a reply into nodes.
+     */
+    private static class Parser {
+        private String s;
+        private ArrayList<Node> tags = new ArrayList<Node>();
+        private int next;               // Where the last tag read ends
+
+        private Parser(String s) {
+            this.s = s;
+        }
+
+        /**
+         * Read a part of the text.
+         * @param from The start of the part.
+         * @param to The end of the part.
+         * @param parent The kind of the tag the part belongs to, KINDS at the top.
+         * @param random The {random} the part is an alternative of.
+         * @param alternative The number of the alternative.
+         * @return The nodes of the part
+         */
+        private Node[] sequence(int from, int to, int parent, Node random, int alternative) throws Unsupported {
+            ArrayList<Node> nodes = new ArrayList<Node>();
+            int literal = from;
+            int i = from;
+            while (i < to) {
+                char c = s.charAt(i);
+                Node tag = (c == '<' || c == '{') ? tag(i, to, parent, random, alternative) : null;
+                if (tag == null) {
+                    i++;
+                    continue;
+                }
+                if (literal < i) {
+                    nodes.add(text(s.substring(literal, i)));
+                }
+                nodes.add(tag);
+                i = next;
+                literal = i;
+            }
+            if (literal < to) {
+                nodes.add(text(s.substring(literal, to)));
+            }
+            return nodes.toArray(new Node[nodes.size()]);
+        }
+
+        /**
+         * Read the tag starting at a position.
+         * @return The tag, null if there is none there
+         */
+        private Node tag(int i, int to, int parent, Node random, int alternative) throws Unsupported {
+            if (s.startsWith("<botstar", i)) {
+                return star(BOTSTAR, i, i + 8, to, parent, random, alternative);
+            } else if (s.startsWith("<star", i)) {
+                return star(STAR, i, i + 5, to, parent, random, alternative);
+            } else if (s.startsWith("<id>", i) && i + 4 <= to) {
+                Node node = tag(ID, parent, random, alternative);
+                node.glue = new String[]{"<id>"};
+                next = i + 4;
+                return node;
+            } else if (s.startsWith("<input", i) || s.startsWith("<reply", i)) {
+                int d = i + 6;
+                if (d + 1 >= to || s.charAt(d) < '0' || s.charAt(d) > '9' || s.charAt(d + 1) != '>') {
+                    return null;
+                }
+                Node node = tag(s.charAt(i + 1) == 'i' ? INPUT : REPLY, parent, random, alternative);
+                node.index = s.charAt(d) - '0';
+                node.glue = new String[]{s.substring(i, d + 2)};
+                next = d + 2;
+                return node;
+            } else if (s.startsWith("{random}", i)) {
+                return random(i, to, parent, random, alternative);
+            } else if (s.startsWith("<bot ", i)) {
+                return arguments(BOT, i, to, new String[]{"<bot ", ">"}, parent, random, alternative);
+            } else if (s.startsWith("<env ", i)) {
+                return arguments(ENV, i, to, new String[]{"<env ", ">"}, parent, random, alternative);
+            } else if (s.startsWith("{!", i)) {
+                return arguments(STREAM, i, to, new String[]{"{!", "}"}, parent, random, alternative);
+            } else if (s.startsWith("{person}", i)) {
+                return body(PERSON, i, to, "{person}", "{/person}", parent, random, alternative);
+            } else if (s.startsWith("{formal}", i)) {
+                return body(FORMAL, i, to, "{formal}", "{/formal}", parent, random, alternative);
+            } else if (s.startsWith("{sentence}", i)) {
+                return body(SENTENCE, i, to, "{sentence}", "{/sentence}", parent, random, alternative);
+            } else if (s.startsWith("{uppercase}", i)) {
+                return body(UPPERCASE, i, to, "{uppercase}", "{/uppercase}", parent, random, alternative);
+            } else if (s.startsWith("{lowercase}", i)) {
+                return body(LOWERCASE, i, to, "{lowercase}", "{/lowercase}", parent, random, alternative);
+            } else if (s.startsWith("<set ", i)) {
+                return arguments(SET, i, to, new String[]{"<set ", "=", ">"}, parent, random, alternative);
+            } else if (s.startsWith("<add ", i)) {
+                return arguments(ADD, i, to, new String[]{"<add ", "=", ">"}, parent, random, alternative);
+            } else if (s.startsWith("<sub ", i)) {
+                return arguments(SUB, i, to, new String[]{"<sub ", "=", ">"}, parent, random, alternative);
+            } else if (s.startsWith("<mult ", i)) {
+                return arguments(MULT, i, to, new String[]{"<mult ", "=", ">"}, parent, random, alternative);
+            } else if (s.startsWith("<div ", i)) {
+                return arguments(DIV, i, to, new String[]{"<div ", "=", ">"}, parent, random, alternative);
+            } else if (s.startsWith("<get ", i)) {
+                return arguments(GET, i, to, new String[]{"<get ", ">"}, parent, random, alternative);
+            } else if (s.startsWith("{topic=", i)) {
+                return arguments(TOPIC, i, to, new String[]{"{topic=", "}"}, parent, random, alternative);
+            } else if (s.startsWith("{@", i)) {
+                return arguments(REDIRECT, i, to, new String[]{"{@", "}"}, parent, random, alternative);
+            } else if (s.startsWith("<call>", i)) {
+                return body(CALL, i, to, "<call>", "</call>", parent, random, alternative);
+            }
+            return null;
+        }
+
+        /**
+         * Create a tag node, checking it may appear where it is.
+         */
+        private Node tag(int kind, int parent, Node random, int alternative) throws Unsupported {
+            // A tag inside another one must be evaluated first.
+            if (parent != KINDS && kind >= parent) {
+                throw new Unsupported();
+            }
+            Node node = new Node();
+            node.kind = kind;
+            node.id = tags.size();
+            node.parts = new Node[0][];
+            node.random = random;
+            node.alternative = alternative;
+            tags.add(node);
+            return node;
+        }
+
+        /**
+         * Read <star>, <starN>, <botstar> or <botstarN>.
+         */
+        private Node star(int kind, int i, int digits, int to, int parent, Node random, int alternative) throws Unsupported {
+            int end = digits;
+            while (end < to && s.charAt(end) >= '0' && s.charAt(end) <= '9') {
+                end++;
+            }
+            if (end >= to || s.charAt(end) != '>') {
+                return null;
+            }
+            Node node = tag(kind, parent, random, alternative);
+            node.glue = new String[]{s.substring(i, end + 1)};
+            if (end == digits) {
+                node.index = 1;
+            } else {
+                // Only <star1>, <star2>... are replaced, <star0> or <star01> are removed.
+                String number = s.substring(digits, end);
+                node.index = number.charAt(0) == '0' || number.length() > 9 ? 0 : Integer.parseInt(number);
+            }
+            next = end + 1;
+            return node;
+        }
+
+        /**
+         * Read a tag with a body between an opening and a closing text.
+         */
+        private Node body(int kind, int i, int to, String open, String close, int parent, Node random, int alternative) throws Unsupported {
+            int start = i + open.length();
+            int end = s.indexOf(close, start);
+            if (end < 0 || end + close.length() > to || end == start || hasLineTerminator(start, end)) {
+                throw new Unsupported();
+            }
+            Node node = tag(kind, parent, random, alternative);
+            node.glue = new String[]{open, close};
+            node.parts = new Node[][]{sequence(start, end, kind, random, alternative)};
+            next = end + close.length();
+            return node;
+        }
+
+        /**
+         * Read a {random} tag, each alternative on its own.
+         */
+        private Node random(int i, int to, int parent, Node random, int alternative) throws Unsupported {
+            if (random != null) {
+                throw new Unsupported();
+            }
+            int start = i + 8;
+            int end = s.indexOf("{/random}", start);
+            if (end < 0 || end + 9 > to || end == start || hasLineTerminator(start, end)) {
+                throw new Unsupported();
+            }
+            Node node = tag(RANDOM, parent, random, alternative);
+            String body = s.substring(start, end);
+            node.choices = body.split("\\|").length;
+            if (node.choices == 0) {
+                throw new Unsupported();
+            }
+
+            // The alternatives are numbered from 1, 0 meaning none picked yet.
+            String[] pieces = body.split("\\|", -1);
+            node.glue = new String[pieces.length + 1];
+            node.parts = new Node[pieces.length][];
+            node.glue[0] = "{random}";
+            int from = start;
+            for (int p = 0; p < pieces.length; p++) {
+                node.parts[p] = sequence(from, from + pieces[p].length(), parent, node, p + 1);
+                from += pieces[p].length() + 1;
+                node.glue[p + 1] = p + 1 < pieces.length ? "|" : "{/random}";
+            }
+            next = end + 9;
+            return node;
+        }
+
+        /**
+         * Read a tag with arguments ending at given characters.
+         */
+        private Node arguments(int kind, int i, int to, String[] glue, int parent, Node random, int alternative) throws Unsupported {
+            Node node = tag(kind, parent, random, alternative);
+            node.glue = glue;
+            node.parts = new Node[glue.length - 1][];
+            int start = i + glue[0].length();
+            for (int p = 0; p < node.parts.length; p++) {
+                // The argument ends at the first end character, the tags inside it
+                // are replaced by then.
+                char end = glue[p + 1].charAt(0);
+                ArrayList<Node> nodes = new ArrayList<Node>();
+                int literal = start;
+                int j = start;
+                while (true) {
+                    if (j >= to || isLineTerminator(s.charAt(j))) {
+                        throw new Unsupported();
+                    }
+                    char c = s.charAt(j);
+                    if (c == end && j > start) {
+                        break;
+                    }
+                    Node child = (c == '<' || c == '{') ? tag(j, to, kind, random, alternative) : null;
+                    if (child == null) {
+                        j++;
+                        continue;
+                    }
+                    if (keeps(child, end)) {
+                        // The argument would end inside the text of the child.
+                        throw new Unsupported();
+                    }
+                    if (literal < j) {
+                        nodes.add(text(s.substring(literal, j)));
+                    }
+                    nodes.add(child);
+                    j = next;
+                    literal = j;
+                }
+                if (literal < j) {
+                    nodes.add(text(s.substring(literal, j)));
+                }
+                node.parts[p] = nodes.toArray(new Node[nodes.size()]);
+                start = j + 1;
+            }
+            next = start;
+            return node;
+        }
+
+        /**
+         * Test whether the text a tag is replaced by may hold a character of its
+         * own text, which the tags that pass it on keep.
+         */
+        private static boolean keeps(Node node, char c) {
+            if (node.kind != RANDOM && node.kind != PERSON && (node.kind < FORMAL || node.kind > LOWERCASE)) {
+                return false;
+            }
+            for (int p = 0; p < node.parts.length; p++) {
+                for (int n = 0; n < node.parts[p].length; n++) {
+                    Node child = node.parts[p][n];
+                    if (child.kind == TEXT ? child.text.indexOf(c) >= 0 : keeps(child, c)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean hasLineTerminator(int from, int to) {
+            for (int j = from; j < to; j++) {
+                if (isLineTerminator(s.charAt(j))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isLineTerminator(char c) {
+            return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+        }
+
+        private static Node text(String text) {
+            Node node = new Node();
+            node.kind = TEXT;
+            node.text = text;
+            return node;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.engine.interpretation;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * The profile of a user as seen by a tag evaluated out of order (see
+ * ConcurrentTags). The variables are read from the real profile, which doesn't
+ * change while the tags run, and the variables set are kept here until the tags
+ * before this one are done: they are then applied to the real profile in the
+ * order of the reply, unless this tag read a variable one of them set.<p>
+ * What can't be kept aside (streamed code, objects that aren't pure, learning
+ * triggers) stops the evaluation with an OutOfOrder, the tag is then evaluated
+ * again in order.
+ */
+public class SessionJournal extends Client {
+
+    /**
+     * Thrown when a tag evaluated out of order needs to be evaluated in order.
+     */
+    public static class OutOfOrder extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    // Variables
+    private Client profile                      = null;     // The real profile
+    private LinkedHashMap<String, String> writes = new LinkedHashMap<String, String>(); // Variables set, null when deleted
+    private HashSet<String> reads               = new HashSet<String>(); // Variables read from the real profile
+
+    /**
+     * Create a journal over a profile.
+     * @param profile The real profile of the user.
+     */
+    public SessionJournal(Client profile) {
+        super(profile.getId());
+        this.profile = profile;
+    }
+
+    /**
+     * Stop the evaluation of a tag if it isn't done in order.
+     * @param profile The profile the tag is evaluated with.
+     */
+    public static void requireOrder(Client profile) {
+        if (profile instanceof SessionJournal) {
+            throw new OutOfOrder();
+        }
+    }
+
+    @Override
+    public void set(String name, String value) {
+        writes.put(name, value);
+    }
+
+    @Override
+    public String get(String name) {
+        if (writes.containsKey(name)) {
+            String value = writes.get(name);
+            return value == null ? "undefined" : value;
+        }
+        reads.add(name);
+        return profile.get(name);
+    }
+
+    @Override
+    public void delete(String name) {
+        writes.put(name, null);
+    }
+
+    @Override
+    public HashMap<String, String> getData() {
+        HashMap<String, String> data = new HashMap<String, String>(profile.getData());
+        reads.addAll(data.keySet());
+        for (Map.Entry<String, String> write : writes.entrySet()) {
+            if (write.getValue() == null) {
+                data.remove(write.getKey());
+            } else {
+                data.put(write.getKey(), write.getValue());
+            }
+        }
+        return data;
+    }
+
+    @Override
+    public void setData(HashMap<String, String> newdata) {
+        throw new OutOfOrder();
+    }
+
+    @Override
+    public void addInput(String text) {
+        throw new OutOfOrder();
+    }
+
+    @Override
+    public void addReply(String text) {
+        throw new OutOfOrder();
+    }
+
+    @Override
+    public String getInput(int index) {
+        return profile.getInput(index);
+    }
+
+    @Override
+    public String getReply(int index) {
+        return profile.getReply(index);
+    }
+
+    // The patterns cached in the real profile may depend on variables set here,
+    // they are built again.
+    @Override
+    public TriggerMatcher getPattern(CompiledTrigger trigger) {
+        return null;
+    }
+
+    @Override
+    public void setPattern(CompiledTrigger trigger, TriggerMatcher pattern) {
+    }
+
+    @Override
+    public void invalidate(String key) {
+    }
+
+    @Override
+    public void clearPatterns() {
+    }
+
+    @Override
+    public LinkedList<PreviousMatch> getPrevious(String topic) {
+        return null;
+    }
+
+    @Override
+    public void setPrevious(String topic, LinkedList<PreviousMatch> matches, String[] depends) {
+    }
+
+    @Override
+    public void clearPrevious() {
+    }
+
+    /**
+     * Test whether the tag read a variable.
+     * @param names The variables set by the tags before it.
+     * @return true if it read one of them
+     */
+    public boolean readAny(HashSet<String> names) {
+        for (String name : reads) {
+            if (names.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply the variables set to the real profile, in the order they were first set.
+     * @return The names of the variables set
+     */
+    public HashSet<String> apply() {
+        for (Map.Entry<String, String> write : writes.entrySet()) {
+            if (write.getValue() == null) {
+                profile.delete(write.getKey());
+            } else {
+                profile.set(write.getKey(), write.getValue());
+            }
+        }
+        return new HashSet<String>(writes.keySet());
+    }
+}
@@ -0,0 +1,67 @@
+package com.engine.interpretation;
+
+import java.util.HashMap;
+
+/**
+ * The compiled sort buffer of a topic with its index. It is never modified once
+ * built: a new order of the triggers is published as a new SortBuffer, so a
+ * reply always sees the triggers and the ranks of the index that go together.
+ */
+public class SortBuffer {
+
+    // Variables
+    private CompiledTrigger[] triggers  = null;     // Compiled triggers, in sort order
+    private TriggerIndex index          = null;     // Index of the triggers, null to scan them all
+    private int[] groups                = null;     // Sizes of the groups of equivalent triggers
+    private HashMap<String, int[]> redirects = null; // Ranks left to try for each static redirect
+
+    /**
+     * Create a new sort buffer.
+     * @param triggers The compiled triggers, in sort order.
+     * @param index The index built from the triggers, null to scan them all.
+     * @param groups The sizes of the runs of triggers the sort can't tell apart
+     * (see Inheritance.dump), which may be tried in any order.
+     * @param redirects The ranks of the triggers left to try for each static
+     * redirect (see RedirectResolver.search).
+     */
+    public SortBuffer(CompiledTrigger[] triggers, TriggerIndex index, int[] groups, HashMap<String, int[]> redirects) {
+        this.triggers   = triggers;
+        this.index      = index;
+        this.groups     = groups;
+        this.redirects  = redirects;
+    }
+
+    /**
+     * Get the compiled triggers. The array is shared and must not be modified.
+     * @return Array of compiled triggers
+     */
+    public CompiledTrigger[] getTriggers() {
+        return this.triggers;
+    }
+
+    /**
+     * Get the index of the triggers.
+     * @return TriggerIndex index, null to scan every trigger
+     */
+    public TriggerIndex getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Get the sizes of the groups of equivalent triggers.
+     * @return Array of sizes, in sort order
+     */
+    public int[] getGroups() {
+        return this.groups;
+    }
+
+    /**
+     * Get the triggers a static redirect may match.
+     * @param message The target of the redirect.
+     * @return The ranks of the triggers to try, in order, null if the message
+     * isn't a static redirect. The array is shared and must not be modified.
+     */
+    public int[] resolve(String message) {
+        return this.redirects.get(message);
+    }
+}
@@ -0,0 +1,202 @@
+package com.engine.interpretation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton over the patterns of the substitutions of a bot
+ * (! sub or ! person). A text is read once, left to right: every pattern found
+ * between word boundaries is a candidate, and the text is rebuilt with the
+ * longest candidate starting at each position, the next one being looked for
+ * after the text it replaced.<p>
+ * A word boundary is the start or the end of the text or a character that isn't
+ * a letter, a digit or '_', like the \W of the regular expressions the
+ * substitutions used to be run with. The replacement texts are never read
+ * again, so a shorter pattern can't substitute the output of a longer one.
+ */
+public class SubstitutionAutomaton {
+
+    // Variables
+    private char[][] labels     = null;     // Characters leaving each state, sorted
+    private int[][] targets     = null;     // State reached by each of these characters
+    private int[] fail          = null;     // State of the longest proper suffix of each state
+    private int[] output        = null;     // Pattern ending at each state, -1 for none
+    private int[] dictionary    = null;     // Next state down the failure links with a pattern, -1 for none
+    private int[] lengths       = null;     // Length of each pattern
+    private String[] outputs    = null;     // Text replacing each pattern
+
+    /**
+     * Build the automaton of a set of substitutions.
+     * @param substitutions The patterns and the texts replacing them.
+     */
+    public SubstitutionAutomaton(HashMap<String, String> substitutions) {
+        ArrayList<TreeMap<Character, Integer>> edges = new ArrayList<TreeMap<Character, Integer>>();
+        ArrayList<Integer> ends = new ArrayList<Integer>();
+        edges.add(new TreeMap<Character, Integer>());
+        ends.add(Integer.valueOf(-1));
+
+        // Build the trie of the patterns.
+        ArrayList<String> texts = new ArrayList<String>();
+        ArrayList<Integer> sizes = new ArrayList<Integer>();
+        for (Map.Entry<String, String> entry : substitutions.entrySet()) {
+            String pattern = entry.getKey();
+            if (pattern.length() == 0 || entry.getValue() == null) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                Character c = Character.valueOf(pattern.charAt(i));
+                Integer next = edges.get(state).get(c);
+                if (next == null) {
+                    next = Integer.valueOf(edges.size());
+                    edges.get(state).put(c, next);
+                    edges.add(new TreeMap<Character, Integer>());
+                    ends.add(Integer.valueOf(-1));
+                }
+                state = next.intValue();
+            }
+            ends.set(state, Integer.valueOf(texts.size()));
+            texts.add(entry.getValue());
+            sizes.add(Integer.valueOf(pattern.length()));
+        }
+
+        int count = edges.size();
+        labels = new char[count][];
+        targets = new int[count][];
+        output = new int[count];
+        for (int s = 0; s < count; s++) {
+            TreeMap<Character, Integer> leaving = edges.get(s);
+            labels[s] = new char[leaving.size()];
+            targets[s] = new int[leaving.size()];
+            Iterator<Map.Entry<Character, Integer>> it = leaving.entrySet().iterator();
+            for (int e = 0; it.hasNext(); e++) {
+                Map.Entry<Character, Integer> edge = it.next();
+                labels[s][e] = edge.getKey().charValue();
+                targets[s][e] = edge.getValue().intValue();
+            }
+            output[s] = ends.get(s).intValue();
+        }
+        outputs = texts.toArray(new String[texts.size()]);
+        lengths = new int[sizes.size()];
+        for (int p = 0; p < lengths.length; p++) {
+            lengths[p] = sizes.get(p).intValue();
+        }
+
+        // Link the states breadth first, parents before their children.
+        fail = new int[count];
+        dictionary = new int[count];
+        dictionary[0] = -1;
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        queue.add(Integer.valueOf(0));
+        while (!queue.isEmpty()) {
+            int s = queue.removeFirst().intValue();
+            for (int e = 0; e < labels[s].length; e++) {
+                int t = targets[s][e];
+                int f = s == 0 ? -1 : fail[s];
+                int link = -1;
+                while (f >= 0 && (link = next(f, labels[s][e])) < 0) {
+                    f = f == 0 ? -1 : fail[f];
+                }
+                fail[t] = link < 0 ? 0 : link;
+                dictionary[t] = output[fail[t]] >= 0 ? fail[t] : dictionary[fail[t]];
+                queue.add(Integer.valueOf(t));
+            }
+        }
+    }
+
+    /**
+     * Test whether there is no substitution to run.
+     * @return true if there is none
+     */
+    public boolean isEmpty() {
+        return outputs.length == 0;
+    }
+
+    /**
+     * Run the substitutions on a text.
+     * @param text The text to apply the substitutions to.
+     * @return The text with the substitutions done, the same String if none was
+     */
+    public String apply(String text) {
+        if (outputs.length == 0) {
+            return text;
+        }
+        int n = text.length();
+        int[] bounded = null;       // Longest pattern starting after a boundary at each position
+        int[] any = null;           // Longest pattern starting at each position
+
+        int state = 0;
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            int t;
+            while ((t = next(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = t < 0 ? 0 : t;
+
+            // The patterns ending here must end on a boundary.
+            if (i + 1 < n && isWord(text.charAt(i + 1))) {
+                continue;
+            }
+            for (int s = output[state] >= 0 ? state : dictionary[state]; s >= 0; s = dictionary[s]) {
+                int pattern = output[s];
+                int start = i + 1 - lengths[pattern];
+                if (any == null) {
+                    bounded = new int[n];
+                    any = new int[n];
+                    Arrays.fill(bounded, -1);
+                    Arrays.fill(any, -1);
+                }
+                if (any[start] < 0 || lengths[any[start]] < lengths[pattern]) {
+                    any[start] = pattern;
+                }
+                if ((start == 0 || !isWord(text.charAt(start - 1)))
+                        && (bounded[start] < 0 || lengths[bounded[start]] < lengths[pattern])) {
+                    bounded[start] = pattern;
+                }
+            }
+        }
+        if (any == null) {
+            return text;
+        }
+
+        // Replace the longest pattern at each position, left to right. The end
+        // of a replaced pattern counts as a boundary.
+        StringBuilder result = new StringBuilder(n + 16);
+        int copied = 0;
+        int p = 0;
+        while (p < n) {
+            int pattern = p == copied && p > 0 ? any[p] : bounded[p];
+            if (pattern < 0) {
+                p++;
+                continue;
+            }
+            result.append(text, copied, p).append(outputs[pattern]);
+            p += lengths[pattern];
+            copied = p;
+        }
+        result.append(text, copied, n);
+        return result.toString();
+    }
+
+    /**
+     * Follow the edge of a state for a character.
+     * @return The state reached, -1 if there is no such edge
+     */
+    private int next(int state, char c) {
+        int e = Arrays.binarySearch(labels[state], c);
+        return e < 0 ? -1 : targets[state][e];
+    }
+
+    /**
+     * Test whether a character is part of a word, as \w does.
+     */
+    private static boolean isWord(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
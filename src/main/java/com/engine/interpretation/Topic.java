@@ -23,6 +23,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.TreeMap;
 import java.util.logging.Level;
@@ -41,7 +42,12 @@ public class Topic {
 	private TreeMap<String, LinkedList<String> > previous       = new TreeMap<String, LinkedList<String> >();       // Mapping of %Previous's to their triggers
 	private LinkedList<String> includes                         = new LinkedList<String>();                         // Included topics
 	private LinkedList<String> inherits                         = new LinkedList<String>();                         // Inherited topics
+	private Topic[] tree                                        = null;                                             // Flattened include/inherit tree
 	private LinkedList<String> sorted                           = null;                                             // Sorted trigger list
+	private LinkedList<Integer> groups                          = new LinkedList<Integer>();                        // Sizes of the groups of equivalent sorted triggers
+	private volatile SortBuffer buffer                          = null;                                             // Compiled sorted trigger list and its index
+	private HashMap<String, CompiledTrigger> compiledPrevious   = new HashMap<String, CompiledTrigger>();           // Compiled %Previous's
+	private HashMap<String, CompiledTrigger[]> compiledFollows  = new HashMap<String, CompiledTrigger[]>();         // Compiled triggers of each %Previous
 
 	// Currently selected topic.
 	String name = "";
@@ -55,6 +61,30 @@ public class Topic {
 		this.name = name;
 	}
 
+	/**
+	 * Copy the topic and its triggers, so a brain being served can be changed
+	 * without touching what the replies read. The compiled sort buffer is shared
+	 * until the copy is sorted; the include/inherit tree is flattened again then.
+	 */
+	public Topic copy () {
+		Topic copy = new Topic(this.name);
+		for (Map.Entry<String, com.engine.interpretation.Trigger> entry : triggers.entrySet()) {
+			copy.triggers.put(entry.getKey(), entry.getValue().copy());
+		}
+		copy.hasPrevious = this.hasPrevious;
+		for (Map.Entry<String, LinkedList<String>> entry : previous.entrySet()) {
+			copy.previous.put(entry.getKey(), new LinkedList<String>(entry.getValue()));
+		}
+		copy.includes.addAll(this.includes);
+		copy.inherits.addAll(this.inherits);
+		copy.sorted = this.sorted == null ? null : new LinkedList<String>(this.sorted);
+		copy.groups.addAll(this.groups);
+		copy.buffer = this.buffer;
+		copy.compiledPrevious = this.compiledPrevious;
+		copy.compiledFollows = this.compiledFollows;
+		return copy;
+	}
+
 	/**
 	 * Turn on or off debug mode statically. This debug mode is static so it will
 	 * be shared among all RiveScript instances and all Topics.
@@ -137,12 +167,71 @@ public class Topic {
 		return sorted.toArray();
 	}
 
+	/**
+	 * Fetch the compiled sort buffer, in the same order as listTriggers() unless the
+	 * triggers were reordered by how often they match. It is only available after
+	 * RiveScript.sortReplies() compiled the triggers of the topic. The returned array
+	 * is shared and must not be modified.
+	 */
+	public CompiledTrigger[] listCompiled () {
+		SortBuffer current = buffer;
+		if (current == null) {
+			System.err.println("You called listCompiled() for topic " + name + " before its replies have been sorted!");
+			return new CompiledTrigger [0];
+		}
+		return current.getTriggers();
+	}
+
+	/**
+	 * Fetch the word index of the compiled sort buffer.
+	 *
+	 * @return The index, null if the replies haven't been sorted or every
+	 * trigger is scanned.
+	 */
+	public TriggerIndex index () {
+		SortBuffer current = buffer;
+		return current == null ? null : current.getIndex();
+	}
+
+	/**
+	 * Fetch the compiled sort buffer with its index. Read it once per reply: the
+	 * buffer may be replaced at any time by a new order of the same triggers.
+	 *
+	 * @return The sort buffer, null if the replies haven't been sorted.
+	 */
+	public SortBuffer buffer () {
+		return buffer;
+	}
+
+	/**
+	 * Publish the compiled sort buffer of this topic.
+	 *
+	 * @param buffer The compiled triggers and their index.
+	 */
+	public void setBuffer (SortBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Fetch the sizes of the groups of triggers the sort can't tell apart, in the
+	 * order of listTriggers().
+	 */
+	public int[] listGroups () {
+		int[] result = new int[groups.size()];
+		int g = 0;
+		for (Integer size : groups) {
+			result[g++] = size.intValue();
+		}
+		return result;
+	}
+
 	/**
 	 * (Re)create the internal sort cache for this topic's triggers.
 	 */
 	public void sortTriggers (Object[] alltrigs) {
 		// Get our list of triggers.
 		LinkedList<String> sortedList   = new LinkedList<String>();
+		LinkedList<Integer> groupList   = new LinkedList<Integer>();
 
 		// Do multiple sorts, one for each inheritence level.
 		TreeMap<Integer, LinkedList<String> > heritage = new TreeMap<Integer, LinkedList<String> >();
@@ -309,7 +398,7 @@ public class Topic {
 
 				// Sort each inheritence level individually.
 				LOG.log(Level.INFO, "Dumping sort bucket !");
-				Collection<String> subsort = bucket.dump(new LinkedList<String>());
+				Collection<String> subsort = bucket.dump(new LinkedList<String>(), groupList);
 				for (Iterator<String> iter3=subsort.iterator();iter3.hasNext();) {  
                                     String item = (String) iter3.next(); 
                                     LOG.log(Level.INFO, "ADD TO SORT: {0}", item);
@@ -320,6 +409,7 @@ public class Topic {
 
 		// Turn the running sort buffer into a string array and store it.
 		this.sorted = sortedList;
+		this.groups = groupList;
 	}
 
 	/**
@@ -402,6 +492,37 @@ public class Topic {
 		this.previous = prev2trig;
 	}
 
+	/**
+	 * Store the compiled %Previous's of this topic and the compiled triggers that
+	 * follow them, as built by RiveScript.sortReplies().
+	 *
+	 * @param previous The compiled %Previous's, by %Previous pattern.
+	 * @param follows The compiled triggers of each %Previous, in the order of
+	 * listPreviousTriggers().
+	 */
+	public void setCompiledPrevious (HashMap<String, CompiledTrigger> previous, HashMap<String, CompiledTrigger[]> follows) {
+		this.compiledPrevious = previous;
+		this.compiledFollows = follows;
+	}
+
+	/**
+	 * Fetch a compiled %Previous.
+	 *
+	 * @param previous The %Previous pattern.
+	 */
+	public CompiledTrigger compiledPrevious (String previous) {
+		return this.compiledPrevious.get(previous);
+	}
+
+	/**
+	 * Fetch the compiled triggers associated with a %Previous.
+	 *
+	 * @param previous The %Previous pattern.
+	 */
+	public CompiledTrigger[] compiledFollows (String previous) {
+		return this.compiledFollows.get(previous);
+	}
+
 	/**
 	 * Query whether a %Previous is registered with this topic.
 	 *
@@ -459,4 +580,24 @@ public class Topic {
 	public Object[] inherits () {
 		return this.inherits.toArray();
 	}
+
+	/**
+	 * Retrieve this topic and every topic it includes or inherits, as flattened by
+	 * the TopicManager when the replies were sorted.
+	 *
+	 * @return The topics, starting with this one, null if the replies haven't
+	 * been sorted.
+	 */
+	public Topic[] listTree () {
+		return this.tree;
+	}
+
+	/**
+	 * Store the flattened include/inherit tree of this topic.
+	 *
+	 * @param tree The topics, starting with this topic.
+	 */
+	public void setTree (Topic[] tree) {
+		this.tree = tree;
+	}
 }
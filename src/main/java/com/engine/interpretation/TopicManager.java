@@ -22,6 +22,8 @@ package com.engine.interpretation;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 
 /**
  * A topic manager class for RiveScript.
@@ -40,6 +42,18 @@ public class TopicManager {
 		// Nothing to construct.
 	}
 
+	/**
+	 * Copy the topics and their triggers (see Topic.copy()).
+	 */
+	public TopicManager copy () {
+		TopicManager copy = new TopicManager();
+		for (String name : vTopics) {
+			copy.topics.put(name, topics.get(name).copy());
+			copy.vTopics.add(name);
+		}
+		return copy;
+	}
+
 	/**
 	 * Specify which topic any following operations will operate under.
 	 *
@@ -95,6 +109,53 @@ public class TopicManager {
 			// Make the topic update its %Previous buffer.
 			this.topic(topicsList[i].toString()).sortPrevious();
 		}
+
+		// Flatten the topic trees once, replies don't have to walk them again.
+		HashSet<String> reported = new HashSet<String>();
+		for (int i = 0; i < topicsList.length; i++) {
+			Collection<Topic> tree = new ArrayList<Topic>();
+			this.flattenTree(topicsList[i].toString(), 0, new LinkedList<String>(), tree, reported);
+			this.topic(topicsList[i].toString()).setTree(tree.toArray(new Topic[tree.size()]));
+		}
+	}
+
+	/**
+	 * Walk the inherit/include trees and list every topic found, in the order of
+	 * getTopicTree(). A topic that includes or inherits itself, directly or not,
+	 * is reported and not walked again, and so are trees deeper than 50 levels.
+	 *
+	 * @param topic    The name of the topic to start at.
+	 * @param depth    The current depth (starts at 0).
+	 * @param path     The topics walked to get here.
+	 * @param result   Receives the topics.
+	 * @param reported The problems already reported.
+	 */
+	private void flattenTree (String topic, int depth, LinkedList<String> path, Collection<Topic> result, HashSet<String> reported) {
+		if (path.contains(topic)) {
+			String cycle = path.subList(path.indexOf(topic), path.size()) + " -> " + topic;
+			if (reported.add(cycle)) {
+				System.err.println("Topic " + topic + " includes or inherits itself: " + cycle);
+			}
+			return;
+		}
+		if (depth >= 50) {
+			if (reported.add(topic)) {
+				System.err.println("Deep recursion while scanning topic inheritance (topic " + topic + " was involved)");
+			}
+			return;
+		}
+		result.add(this.topic(topic));
+
+		path.addLast(topic);
+		Object[] includes = this.topic(topic).includes();
+		for (int i = 0; i < includes.length; i++) {
+			this.flattenTree(includes[i].toString(), (depth+1), path, result, reported);
+		}
+		Object[] inherits = this.topic(topic).inherits();
+		for (int i = 0; i < inherits.length; i++) {
+			this.flattenTree(inherits[i].toString(), (depth+1), path, result, reported);
+		}
+		path.removeLast();
 	}
 
 	/**
@@ -248,11 +309,22 @@ public class TopicManager {
 
 	/**
 	 * Walk the inherit/include trees starting with one topic and list every topic we find.
+	 * Once the replies are sorted the tree flattened by sortReplies() is returned.
 	 *
 	 * @param topic   The name of the topic to start at.
 	 * @param depth   The current depth limit (should start at 0), for recursion.
 	 */
 	public Object[] getTopicTree (String topic, int depth) {
+		// Already flattened?
+		if (depth == 0 && this.exists(topic) && this.topic(topic).listTree() != null) {
+			Topic[] tree = this.topic(topic).listTree();
+			String[] names = new String[tree.length];
+			for (int i = 0; i < tree.length; i++) {
+				names[i] = tree[i].name;
+			}
+			return names;
+		}
+
 		// Avoid deep recursion.
 		if (depth >= 50) {
 			System.err.println("Deep recursion while scanning topic inheritance (topic " + topic + " was involved)");
@@ -275,7 +347,7 @@ public class TopicManager {
 		// Does it inherit?
 		Object[] inherits = this.topic(topic).inherits();
 		for (int i = 0; i < inherits.length; i++) {
-			Object[] children = this.getTopicTree(includes[i].toString(), (depth+1));
+			Object[] children = this.getTopicTree(inherits[i].toString(), (depth+1));
 			for (int j = 0; j < children.length; j++) {
 				result.add(children[j].toString());
 			}
@@ -1,20 +1,31 @@
 package com.engine.interpretation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A trigger class for Engine.
  */
 public class Trigger {
 
+    // The {weight} tag of a reply or a redirect
+    private static final Pattern WEIGHT = Pattern.compile("\\{weight=(\\d+?)\\}");
+
     // A trigger is a parent of everything that comes after it (redirect, reply and conditions).
     private String pattern                  = null;
     private String inTopic                  = null;
-    private Collection<String> redirect     = new ArrayList<String>();  // @Redirect
-    private Collection<String> reply        = new ArrayList<String>();  // -Reply
+    private ArrayList<String> redirect      = new ArrayList<String>();  // @Redirect
+    private ArrayList<String> reply         = new ArrayList<String>();  // -Reply
     private Collection<String> condition    = new ArrayList<String>();  // *Condition
+    private Collection<Condition> predicate = new ArrayList<Condition>(); // *Condition, parsed
     private Collection<Action> action       = new ArrayList<Action>();  // &Action
+    private ArrayList<Integer> redirectWeights = new ArrayList<Integer>(); // {weight} of each redirect
+    private ArrayList<Integer> replyWeights = new ArrayList<Integer>();    // {weight} of each reply
+    private long[] weights                  = new long[0];              // Cumulative weights, redirects then replies
     private boolean previous                = false;                    // has previous
     private boolean persistent              = true;                     // trigger must be refreshed on every query, for example "today's date"
 
@@ -40,6 +51,26 @@ public class Trigger {
         //source
     }
 
+    /**
+     * Copy the trigger, so a brain being served can be changed without touching
+     * the triggers the replies read.
+     * @return The copy
+     */
+    public Trigger copy() {
+        Trigger copy = new Trigger(this.inTopic, this.pattern);
+        copy.redirect.addAll(this.redirect);
+        copy.reply.addAll(this.reply);
+        copy.condition.addAll(this.condition);
+        copy.predicate.addAll(this.predicate);
+        copy.action.addAll(this.action);
+        copy.redirectWeights.addAll(this.redirectWeights);
+        copy.replyWeights.addAll(this.replyWeights);
+        copy.weights = this.weights;
+        copy.previous = this.previous;
+        copy.persistent = this.persistent;
+        return copy;
+    }
+
     /**
      * If you have the trigger object, this will tell you what topic it belongs
      * to.
@@ -70,7 +101,9 @@ public class Trigger {
      * @param reply The reply text.
      */
     public void addReply(String reply) {
-        this.reply.add(reply);
+        this.replyWeights.add(weight(reply));
+        this.reply.add(stripWeight(reply));
+        buildWeights();
     }
 
     /**
@@ -110,7 +143,9 @@ public class Trigger {
      * @param meant What the user "meant" to say.
      */
     public void addRedirect(String meant) {
-        this.redirect.add(meant);
+        this.redirectWeights.add(weight(meant));
+        this.redirect.add(stripWeight(meant));
+        buildWeights();
     }
 
     /**
@@ -120,12 +155,107 @@ public class Trigger {
         return redirect;
     }
 
+    /**
+     * Pick a redirect or a reply at random, taking their weights into account.
+     * A reply or redirect with {weight=N} is N times as likely to be picked as
+     * one without.
+     * @param rand The random number generator.
+     * @return The index of the choice: the redirects come first, then the
+     * replies. -1 if there is nothing to pick from
+     */
+    public int choose(Random rand) {
+        long[] cumulative = this.weights;
+        if (cumulative.length == 0) {
+            return -1;
+        }
+        long total = cumulative[cumulative.length - 1];
+        long draw;
+        if (total <= Integer.MAX_VALUE) {
+            draw = rand.nextInt((int) total);
+        } else {
+            // Too heavy for nextInt.
+            draw = Math.min((long) (rand.nextDouble() * total), total - 1);
+        }
+
+        // The first choice whose cumulative weight is over the draw.
+        int choice = Arrays.binarySearch(cumulative, draw + 1);
+        return choice >= 0 ? choice : -choice - 1;
+    }
+
+    /**
+     * Test whether a choice is a redirect.
+     * @param choice An index given by choose().
+     * @return true for a redirect, false for a reply
+     */
+    public boolean isRedirect(int choice) {
+        return choice < redirect.size();
+    }
+
+    /**
+     * Get the text of a choice, without its {weight} tag.
+     * @param choice An index given by choose().
+     * @return The redirect or the reply
+     */
+    public String getChoice(int choice) {
+        return choice < redirect.size() ? redirect.get(choice) : reply.get(choice - redirect.size());
+    }
+
+    /**
+     * Get the weight of a reply or a redirect: the first {weight} tag, 1 if it
+     * has none (or a weight under 1).
+     */
+    private static Integer weight(String text) {
+        if (text.indexOf("{weight=") > -1) {
+            Matcher mWeight = WEIGHT.matcher(text);
+            if (mWeight.find()) {
+                try {
+                    return Integer.valueOf(Math.max(1, Integer.parseInt(mWeight.group(1))));
+                } catch (NumberFormatException e) {
+                    return Integer.valueOf(1);
+                }
+            }
+        }
+        return Integer.valueOf(1);
+    }
+
+    /**
+     * Remove the {weight} tags of a reply or a redirect.
+     */
+    private static String stripWeight(String text) {
+        if (text.indexOf("{weight=") > -1) {
+            return text.replaceAll("\\{weight=\\d+\\}", "");
+        }
+        return text;
+    }
+
+    /**
+     * Rebuild the cumulative weights after a reply or a redirect was added.
+     */
+    private void buildWeights() {
+        long[] cumulative = new long[redirectWeights.size() + replyWeights.size()];
+        long total = 0;
+        int i = 0;
+        for (Integer w : redirectWeights) {
+            total += w.intValue();
+            cumulative[i++] = total;
+        }
+        for (Integer w : replyWeights) {
+            total += w.intValue();
+            cumulative[i++] = total;
+        }
+        this.weights = cumulative;
+    }
+
     /**
      * Add a new condition to a trigger.
      * @param condition The conditional line.
      */
     public void addCondition(String condition) {
         this.condition.add(condition);
+        Condition parsed = Condition.parse(condition);
+        if (parsed != null) {
+            this.predicate.add(parsed);
+        }
     }
 
     /**
@@ -135,6 +265,14 @@ public class Trigger {
         return condition;
     }
 
+    /**
+     * List the conditions under this trigger, parsed. The lines that aren't
+     * conditions are left out.
+     */
+    public Collection<Condition> listPredicates() {
+        return predicate;
+    }
+
     /**
      * @return the persistent
      */
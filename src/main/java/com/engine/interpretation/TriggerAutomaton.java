@@ -0,0 +1,319 @@
+package com.engine.interpretation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Multi-pattern automaton over the words of a message, built from the whole
+ * compiled sort buffer of a topic. The expansions of the triggers (see
+ * TriggerParser) become a nondeterministic automaton whose accepting states are
+ * tagged with the rank of their trigger. It is turned into a deterministic one
+ * lazily: each set of states reached is built the first time a message needs it
+ * and its transitions are cached, so a message is read once, word by word, and
+ * the final state gives the best (lowest) rank that accepts it.<p>
+ * Words that don't appear in any trigger only take wildcard transitions, so they
+ * share one cached transition per kind of word (number, letters or other). The
+ * cache is flushed when it grows over MAX_STATES.<p>
+ * The nondeterministic automaton doesn't change once built. The deterministic
+ * states and their transitions are published through concurrent maps, so many
+ * replies can read and extend the cache at once; two of them building the same
+ * state keep the first one published.<p>
+ * The caller runs the regular expression of the winning trigger to collect its
+ * stars. Triggers that can't be expanded are returned as candidates too.
+ */
+public class TriggerAutomaton implements TriggerIndex {
+
+    // Maximum number of deterministic states kept in the cache
+    public static final int MAX_STATES = 4096;
+
+    // Keys of the cached transitions for words that aren't in any trigger
+    private static final String NUMBER  = "\u0000#";
+    private static final String ALPHA   = "\u0000_";
+    private static final String OTHER   = "\u0000*";
+
+    // Variables
+    private ArrayList<State> states     = new ArrayList<State>();   // States of the nondeterministic automaton
+    private HashSet<String> vocabulary  = new HashSet<String>();    // Words used by the triggers
+    private BitSet unindexed            = new BitSet();             // Ranks of the triggers not in the automaton
+    private BitSet joins                = new BitSet();             // States reached by every item of an array
+    private volatile ConcurrentHashMap<Key, Deterministic> cache = new ConcurrentHashMap<Key, Deterministic>(); // Deterministic states built so far
+    private volatile Deterministic start = null;                    // Initial deterministic state
+
+    //Log
+    private final static Logger LOG = Logger.getLogger(TriggerAutomaton.class .getName());
+
+    /**
+     * A state of the nondeterministic automaton.
+     */
+    private static class State {
+        private HashMap<String, ArrayList<Integer>> words = null;  // Atomic words
+        private int star = -1;                  // * wildcard: any word
+        private int alpha = -1;                 // _ wildcard: a word of letters
+        private int number = -1;                // # wildcard: a number
+        private boolean loopAny = false;        // Reached with *, may take more words
+        private boolean loopAlpha = false;      // Reached with _, may take more words of letters
+        private int accept = Integer.MAX_VALUE; // Best rank of the triggers ending here
+    }
+
+    /**
+     * A state of the deterministic automaton, i.e. a set of states of the
+     * nondeterministic one.
+     */
+    private static class Deterministic {
+        private int[] states;                   // States of the nondeterministic automaton
+        private int accept = Integer.MAX_VALUE; // Best rank accepted here
+        private ConcurrentHashMap<String, Deterministic> next = new ConcurrentHashMap<String, Deterministic>(); // Cached transitions
+    }
+
+    /**
+     * Sorted set of states used to find the deterministic states in the cache.
+     */
+    private static class Key {
+        private int[] states;
+
+        private Key(int[] states) {
+            this.states = states;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(states);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(states, ((Key) other).states);
+        }
+    }
+
+    /**
+     * Build the automaton of a sort buffer.
+     * @param triggers The compiled triggers of the topic, in sort buffer order.
+     * @param arrays The compiled arrays of the interpreter (! array).
+     */
+    public TriggerAutomaton(CompiledTrigger[] triggers, HashMap<String, ArraySet> arrays) {
+        newState();
+        int indexed = 0;
+        for (int i = 0; i < triggers.length; i++) {
+            String[][] expansions = triggers[i].getExpansions();
+            if (expansions == null) {
+                unindexed.set(i);
+                continue;
+            }
+            for (int e = 0; e < expansions.length; e++) {
+                insert(expansions[e], i, arrays);
+            }
+            indexed++;
+        }
+        start = deterministic(new int[]{0});
+        LOG.log(Level.FINE, "Built automaton of {0} triggers out of {1} with {2} states", new Object[]{indexed, triggers.length, states.size()});
+    }
+
+    /**
+     * Add an expansion to the automaton. Expansions share their common prefix.
+     * @param tokens The tokens of the expansion.
+     * @param rank The position of the trigger in the sort buffer.
+     * @param arrays The compiled arrays of the interpreter.
+     */
+    private void insert(String[] tokens, int rank, HashMap<String, ArraySet> arrays) {
+        int current = 0;
+        for (int t = 0; t < tokens.length; t++) {
+            State state = states.get(current);
+            String token = tokens[t];
+            if (token.equals("*")) {
+                if (state.star < 0) {
+                    state.star = newState();
+                    states.get(state.star).loopAny = true;
+                }
+                current = state.star;
+            } else if (token.equals("_")) {
+                if (state.alpha < 0) {
+                    state.alpha = newState();
+                    states.get(state.alpha).loopAlpha = true;
+                }
+                current = state.alpha;
+            } else if (token.equals("#")) {
+                if (state.number < 0) {
+                    state.number = newState();
+                }
+                current = state.number;
+            } else if (TriggerParser.isArray(token)) {
+                // Every item of the array leads to the same state.
+                int target = newState();
+                joins.set(target);
+                for (String item : arrays.get(token.substring(1)).listItems()) {
+                    String[] words = item.split(" ");
+                    int from = current;
+                    for (int w = 0; w < words.length; w++) {
+                        int to = w == words.length - 1 ? target : newState();
+                        addWord(from, words[w], to);
+                        from = to;
+                    }
+                }
+                current = target;
+            } else {
+                // Share the state of the same word, unless other paths lead to it.
+                ArrayList<Integer> next = state.words == null ? null : state.words.get(token);
+                if (next != null && next.size() == 1 && !joins.get(next.get(0).intValue())) {
+                    current = next.get(0).intValue();
+                } else {
+                    int to = newState();
+                    addWord(current, token, to);
+                    current = to;
+                }
+            }
+        }
+        State end = states.get(current);
+        end.accept = Math.min(end.accept, rank);
+    }
+
+    /**
+     * Add a word transition.
+     * @param from The source state.
+     * @param word The word.
+     * @param to The target state.
+     */
+    private void addWord(int from, String word, int to) {
+        State state = states.get(from);
+        if (state.words == null) {
+            state.words = new HashMap<String, ArrayList<Integer>>();
+        }
+        ArrayList<Integer> next = state.words.get(word);
+        if (next == null) {
+            next = new ArrayList<Integer>(1);
+            state.words.put(word, next);
+        }
+        next.add(Integer.valueOf(to));
+        vocabulary.add(word);
+    }
+
+    /**
+     * Create a new state.
+     * @return The index of the state
+     */
+    private int newState() {
+        states.add(new State());
+        return states.size() - 1;
+    }
+
+    /**
+     * Find or build the deterministic state of a set of states.
+     * @param set The sorted states.
+     * @return Deterministic state
+     */
+    private Deterministic deterministic(int[] set) {
+        ConcurrentHashMap<Key, Deterministic> built = cache;
+        Key key = new Key(set);
+        Deterministic result = built.get(key);
+        if (result == null) {
+            Deterministic created = new Deterministic();
+            created.states = set;
+            for (int i = 0; i < set.length; i++) {
+                created.accept = Math.min(created.accept, states.get(set[i]).accept);
+            }
+            result = built.putIfAbsent(key, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Follow a word from a deterministic state, building the target the first
+     * time.
+     * @param from The deterministic state.
+     * @param word The word read.
+     * @return The target deterministic state
+     */
+    private Deterministic step(Deterministic from, String word) {
+        boolean known = vocabulary.contains(word);
+        boolean number = TriggerParser.isNumber(word);
+        boolean alpha = TriggerParser.isAlpha(word);
+        String key = known ? word : (number ? NUMBER : (alpha ? ALPHA : OTHER));
+        Deterministic result = from.next.get(key);
+        if (result != null) {
+            return result;
+        }
+
+        // Keep the cache bounded. The replies still walking the old states finish
+        // with them, the next ones start from the new cache.
+        if (cache.size() >= MAX_STATES) {
+            LOG.log(Level.FINE, "Flushing the automaton cache ({0} states)", cache.size());
+            cache = new ConcurrentHashMap<Key, Deterministic>();
+            start = deterministic(start.states);
+            from = deterministic(from.states);
+        }
+
+        BitSet target = new BitSet();
+        for (int i = 0; i < from.states.length; i++) {
+            State state = states.get(from.states[i]);
+            if (known && state.words != null) {
+                ArrayList<Integer> next = state.words.get(word);
+                if (next != null) {
+                    for (Integer to : next) {
+                        target.set(to.intValue());
+                    }
+                }
+            }
+            if (state.star >= 0) {
+                target.set(state.star);
+            }
+            if (state.loopAny) {
+                target.set(from.states[i]);
+            }
+            if (alpha && state.alpha >= 0) {
+                target.set(state.alpha);
+            }
+            if (alpha && state.loopAlpha) {
+                target.set(from.states[i]);
+            }
+            if (number && state.number >= 0) {
+                target.set(state.number);
+            }
+        }
+        int[] set = new int[target.cardinality()];
+        int s = 0;
+        for (int i = target.nextSetBit(0); i >= 0; i = target.nextSetBit(i + 1)) {
+            set[s++] = i;
+        }
+        result = deterministic(set);
+        Deterministic published = from.next.putIfAbsent(key, result);
+        return published == null ? result : published;
+    }
+
+    /**
+     * Find the triggers that may match a message: the best trigger accepted by
+     * the automaton and the triggers that aren't part of it.
+     * @param words The words of the formatted message.
+     * @return Ranks of the candidate triggers in ascending order, or null if the
+     * message can't be split in words and every trigger must be tried
+     */
+    @Override
+    public int[] candidates(String[] words) {
+        if (words == null) {
+            return null;
+        }
+        Deterministic current = start;
+        for (int i = 0; i < words.length && current.states.length > 0; i++) {
+            current = step(current, words[i]);
+        }
+
+        BitSet found = (BitSet) unindexed.clone();
+        if (current.accept != Integer.MAX_VALUE) {
+            found.set(current.accept);
+        }
+        int[] result = new int[found.cardinality()];
+        int r = 0;
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+            result[r++] = i;
+        }
+        return result;
+    }
+}
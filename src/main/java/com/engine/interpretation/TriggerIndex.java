@@ -0,0 +1,27 @@
+package com.engine.interpretation;
+
+/**
+ * Interface for the indexes of a topic's compiled sort buffer, used to find the
+ * triggers that may match a message without trying all of them.
+ */
+public interface TriggerIndex {
+
+	/**
+	 * The ways to search the triggers of a topic (see Interpreter.setEngine).
+	 */
+	public enum Engine {
+		SCAN, TRIE, AUTOMATON, PREFILTER, COMPILED
+	}
+
+	/**
+	 * Find the triggers that may match a message. The triggers are identified by
+	 * their position in the sort buffer, and the caller tries them in the order
+	 * given to collect the stars, so the first one that matches wins.
+	 *
+	 * @param words The words of the formatted message (see
+	 * MessageNormalizer.tokenize), null if it can't be split in words.
+	 * @return Ranks of the candidate triggers in ascending order, or null if
+	 * every trigger must be tried.
+	 */
+	public int[] candidates (String[] words);
+}
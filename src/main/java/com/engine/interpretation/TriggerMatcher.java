@@ -0,0 +1,767 @@
+package com.engine.interpretation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matcher for the regular expressions built from triggers, without backtracking.
+ * The expression is compiled into a small program that is run over the message
+ * with all its alternatives at once (a Pike virtual machine), so a match takes
+ * O(n*m) time for a message of n characters and a program of m instructions, no
+ * matter how many wildcards the trigger has.<p>
+ * The threads are kept in the order a backtracking engine would try them, so the
+ * captures are the same as the ones of java.util.regex for the same expression,
+ * anchored with "^" and "$". The supported syntax is the one triggerRegexp()
+ * produces: characters, ".", "\s", "\d", "\w", simple character classes, groups,
+ * alternations and the greedy or lazy "*", "+" and "?" quantifiers. Any other
+ * expression is handed to java.util.regex.<p>
+ * The arrays of the brain are referenced as "(?@name)" (see ArraySet): the items
+ * of the array are matched by walking its trie, one character per step like the
+ * other instructions, or with their alternation when the trie can't be used.<p>
+ * Captures are returned as offsets into the message: the start and end of group
+ * g are at index 2g and 2g+1, -1 if the group didn't take part in the match.
+ */
+public class TriggerMatcher {
+
+    // Instructions
+    private static final int CHAR   = 0;    // One character
+    private static final int ANY    = 1;    // Any character but a line terminator
+    private static final int CLASS  = 2;    // A character of a class
+    private static final int SPLIT  = 3;    // Go on with both targets, the first one first
+    private static final int JUMP   = 4;    // Go on with the target
+    private static final int SAVE   = 5;    // Store the position in a capture slot
+    private static final int MATCH  = 6;    // The whole expression matched
+    private static final int ARRAY  = 7;    // An item of an array, one character at a time
+
+    // Variables
+    private int[] op                = null; // Instruction codes
+    private int[] arg1              = null; // First argument (character, class, target or slot)
+    private int[] arg2              = null; // Second argument (other target of SPLIT)
+    private int[][] classes         = null; // Character classes as ranges, the first item tells if negated
+    private ArraySet[] sets         = null; // Arrays of the ARRAY instructions
+    private int extra               = 0;    // Threads that may be inside the arrays at once
+    private int groups              = 0;    // Number of capture groups
+    private Pattern pattern         = null; // Fallback for unsupported expressions
+
+    /**
+     * Compile the expression of a trigger.
+     * @param regexp The expression, without the "^" and "$" anchors.
+     * @return TriggerMatcher for the expression
+     * @throws PatternSyntaxException if the expression is invalid
+     */
+    public static TriggerMatcher compile(String regexp) throws PatternSyntaxException {
+        return compile(regexp, new HashMap<String, ArraySet>());
+    }
+
+    /**
+     * Compile the expression of a trigger with references to arrays.
+     * @param regexp The expression, without the "^" and "$" anchors.
+     * @param arrays The compiled arrays of the interpreter.
+     * @return TriggerMatcher for the expression
+     * @throws PatternSyntaxException if the expression is invalid
+     */
+    public static TriggerMatcher compile(String regexp, HashMap<String, ArraySet> arrays) throws PatternSyntaxException {
+        TriggerMatcher matcher = new TriggerMatcher();
+        Parser parser = new Parser(regexp, arrays);
+        Node tree = parser.parse();
+        if (tree == null) {
+            // Not our syntax, java.util.regex will do it (or tell what's wrong).
+            matcher.pattern = Pattern.compile("^" + expand(regexp, arrays) + "$");
+            matcher.groups = matcher.pattern.matcher("").groupCount();
+        } else {
+            matcher.groups = parser.groups;
+            matcher.sets = parser.sets.toArray(new ArraySet[parser.sets.size()]);
+            for (int i = 0; i < matcher.sets.length; i++) {
+                matcher.extra += matcher.sets[i].getDepth();
+            }
+            matcher.build(tree);
+        }
+        return matcher;
+    }
+
+    /**
+     * Replace the references to arrays with the alternations of their items.
+     * @param regexp The expression.
+     * @param arrays The compiled arrays of the interpreter.
+     * @return The expression for java.util.regex
+     */
+    private static String expand(String regexp, HashMap<String, ArraySet> arrays) {
+        int start = regexp.indexOf("(?@");
+        if (start < 0) {
+            return regexp;
+        }
+        StringBuilder result = new StringBuilder();
+        int done = 0;
+        while (start > -1) {
+            int end = regexp.indexOf(')', start);
+            if (end < 0) {
+                break;
+            }
+            ArraySet set = arrays.get(regexp.substring(start + 3, end));
+            result.append(regexp, done, start).append(set == null ? "" : set.getRegexp());
+            done = end + 1;
+            start = regexp.indexOf("(?@", done);
+        }
+        return result.append(regexp, done, regexp.length()).toString();
+    }
+
+    /**
+     * Get the number of capture groups of the expression.
+     * @return int group count
+     */
+    public int groupCount() {
+        return groups;
+    }
+
+    /**
+     * Test whether the expression runs without backtracking.
+     * @return false if it is handed to java.util.regex
+     */
+    public boolean isLinear() {
+        return pattern == null;
+    }
+
+    /**
+     * Get the text of a capture.
+     * @param text The text that was matched.
+     * @param spans The offsets returned by match().
+     * @param group The group number.
+     * @return String captured, null if the group didn't take part in the match
+     */
+    public static String group(String text, int[] spans, int group) {
+        if (spans[2 * group] < 0) {
+            return null;
+        }
+        return text.substring(spans[2 * group], spans[2 * group + 1]);
+    }
+
+    /**
+     * Match a whole text.
+     * @param text The text to match.
+     * @return Offsets of the captures, or null if the text doesn't match
+     */
+    public int[] match(String text) {
+        if (pattern != null) {
+            Matcher m = pattern.matcher(text);
+            if (!m.find()) {
+                return null;
+            }
+            int[] spans = new int[2 * (groups + 1)];
+            for (int g = 0; g <= groups; g++) {
+                spans[2 * g] = m.start(g);
+                spans[2 * g + 1] = m.end(g);
+            }
+            return spans;
+        }
+
+        int size = op.length;
+        int[] mark = new int[size];
+        int stamp = 1;
+        int[] clist = new int[size + extra];
+        int[][] ccaps = new int[size + extra][];
+        int[] cnodes = new int[size + extra];
+        int[] nlist = new int[size + extra];
+        int[][] ncaps = new int[size + extra][];
+        int[] nnodes = new int[size + extra];
+        int[] stack = new int[2 * size + 1];
+        int[][] stackCaps = new int[2 * size + 1][];
+
+        int[] caps = new int[2 * (groups + 1)];
+        Arrays.fill(caps, -1);
+        int ccount = addThread(clist, ccaps, cnodes, 0, 0, caps, 0, mark, stamp, stack, stackCaps);
+        int[] matched = null;
+        int length = text.length();
+        int pos = 0;
+        while (ccount > 0) {
+            int cp = pos < length ? text.codePointAt(pos) : -1;
+            int next = pos < length ? pos + Character.charCount(cp) : pos;
+            int ncount = 0;
+            stamp++;
+            for (int t = 0; t < ccount; t++) {
+                int pc = clist[t];
+                boolean step = false;
+                switch (op[pc]) {
+                    case MATCH:
+                        if (pos == length || finalTerminator(text, pos)) {
+                            // Threads after this one have a lower priority.
+                            matched = ccaps[t];
+                            t = ccount;
+                        }
+                        break;
+                    case CHAR:
+                        step = cp == arg1[pc];
+                        break;
+                    case ANY:
+                        step = cp >= 0 && !terminator(cp);
+                        break;
+                    case CLASS:
+                        step = cp >= 0 && inClass(classes[arg1[pc]], cp);
+                        break;
+                    case ARRAY:
+                        // The thread stays on the instruction while longer items go
+                        // on, and leaves it where an item ends, in the order of the items.
+                        ArraySet set = sets[arg1[pc]];
+                        int node = cp < 0 ? -1 : set.step(cnodes[t], cp);
+                        if (node < 0) {
+                            break;
+                        }
+                        step = set.isItem(node);
+                        if (step && set.isExitFirst(node)) {
+                            ncount = addThread(nlist, ncaps, nnodes, ncount, pc + 1, ccaps[t], next, mark, stamp, stack, stackCaps);
+                            step = false;
+                        }
+                        if (set.hasNext(node)) {
+                            nlist[ncount] = pc;
+                            nnodes[ncount] = node;
+                            ncaps[ncount++] = ccaps[t];
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                if (step) {
+                    ncount = addThread(nlist, ncaps, nnodes, ncount, pc + 1, ccaps[t], next, mark, stamp, stack, stackCaps);
+                }
+            }
+            if (pos == length) {
+                break;
+            }
+
+            // The next list becomes the current one.
+            int[] swap = clist;
+            clist = nlist;
+            nlist = swap;
+            int[][] swapCaps = ccaps;
+            ccaps = ncaps;
+            ncaps = swapCaps;
+            int[] swapNodes = cnodes;
+            cnodes = nnodes;
+            nnodes = swapNodes;
+            ccount = ncount;
+            pos = next;
+        }
+        return matched;
+    }
+
+    /**
+     * Add a thread to a list, following the jumps, splits and saves in priority
+     * order. A thread reaching an instruction already in the list is dropped, as
+     * one with a higher priority got there first.
+     * @return The new size of the list
+     */
+    private int addThread(int[] list, int[][] listCaps, int[] nodes, int count, int start, int[] caps, int pos,
+            int[] mark, int stamp, int[] stack, int[][] stackCaps) {
+        int top = 0;
+        stack[top] = start;
+        stackCaps[top++] = caps;
+        while (top > 0) {
+            int pc = stack[--top];
+            int[] current = stackCaps[top];
+            if (mark[pc] == stamp) {
+                continue;
+            }
+            mark[pc] = stamp;
+            switch (op[pc]) {
+                case JUMP:
+                    stack[top] = arg1[pc];
+                    stackCaps[top++] = current;
+                    break;
+                case SPLIT:
+                    stack[top] = arg2[pc];
+                    stackCaps[top++] = current;
+                    stack[top] = arg1[pc];
+                    stackCaps[top++] = current;
+                    break;
+                case SAVE:
+                    int[] copy = current.clone();
+                    copy[arg1[pc]] = pos;
+                    stack[top] = pc + 1;
+                    stackCaps[top++] = copy;
+                    break;
+                default:
+                    list[count] = pc;
+                    nodes[count] = 0;
+                    listCaps[count++] = current;
+                    break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Test whether a character ends a line for ".".
+     * @param cp The character.
+     * @return true for line terminators
+     */
+    private static boolean terminator(int cp) {
+        return cp == '\n' || cp == '\r' || cp == '\u0085' || cp == '\u2028' || cp == '\u2029';
+    }
+
+    /**
+     * Test whether the rest of a text is a single line terminator, before which
+     * "$" also matches (but not between "\r" and "\n").
+     * @param text The text.
+     * @param pos The position.
+     * @return true if only a final line terminator is left
+     */
+    private static boolean finalTerminator(String text, int pos) {
+        String rest = text.substring(pos);
+        if (rest.equals("\n") && pos > 0 && text.charAt(pos - 1) == '\r') {
+            return false;
+        }
+        return rest.equals("\r\n") || (rest.length() == 1 && terminator(rest.charAt(0)));
+    }
+
+    /**
+     * Test whether a character is in a class.
+     * @param ranges The class: negation flag, then pairs of bounds.
+     * @param cp The character.
+     * @return true if the class matches it
+     */
+    private static boolean inClass(int[] ranges, int cp) {
+        boolean found = false;
+        for (int i = 1; i < ranges.length && !found; i += 2) {
+            found = cp >= ranges[i] && cp <= ranges[i + 1];
+        }
+        return found != (ranges[0] == 1);
+    }
+
+    /**
+     * Turn the syntax tree into instructions.
+     * @param tree The parsed expression.
+     */
+    private void build(Node tree) {
+        Program program = new Program();
+        program.add(SAVE, 0, 0);
+        program.emit(tree);
+        program.add(SAVE, 1, 0);
+        program.add(MATCH, 0, 0);
+
+        int size = program.code.size();
+        op = new int[size];
+        arg1 = new int[size];
+        arg2 = new int[size];
+        for (int i = 0; i < size; i++) {
+            int[] instruction = program.code.get(i);
+            op[i] = instruction[0];
+            arg1[i] = instruction[1];
+            arg2[i] = instruction[2];
+        }
+        classes = program.classes.toArray(new int[program.classes.size()][]);
+    }
+
+    /**
+     * A node of the syntax tree.
+     */
+    private static class Node {
+        private static final int CHAR   = 0;    // value: the character
+        private static final int ANY    = 1;
+        private static final int CLASS  = 2;    // ranges: the class
+        private static final int CONCAT = 3;    // children: the sequence
+        private static final int ALTER  = 4;    // children: the alternatives
+        private static final int GROUP  = 5;    // value: the group number, children: the content
+        private static final int STAR   = 6;    // children: the repeated node
+        private static final int PLUS   = 7;
+        private static final int QUEST  = 8;
+        private static final int ARRAY  = 9;    // value: the index of the array
+
+        private int type;
+        private int value;
+        private boolean lazy = false;
+        private int[] ranges = null;
+        private ArrayList<Node> children = new ArrayList<Node>();
+
+        private Node(int type) {
+            this.type = type;
+        }
+
+        /**
+         * Test whether the node can match the empty string.
+         * @return true if it can
+         */
+        private boolean nullable() {
+            switch (type) {
+                case CONCAT:
+                    for (Node child : children) {
+                        if (!child.nullable()) {
+                            return false;
+                        }
+                    }
+                    return true;
+                case ALTER:
+                    for (Node child : children) {
+                        if (child.nullable()) {
+                            return true;
+                        }
+                    }
+                    return false;
+                case GROUP:
+                case PLUS:
+                    return children.get(0).nullable();
+                case STAR:
+                case QUEST:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Recursive descent parser for the supported syntax.
+     */
+    private static class Parser {
+        private String regexp;
+        private int pos = 0;
+        private int groups = 0;
+        private HashMap<String, ArraySet> arrays;
+        private ArrayList<ArraySet> sets = new ArrayList<ArraySet>();
+        private boolean nested = false;     // Parsing the alternation of an array
+
+        private Parser(String regexp, HashMap<String, ArraySet> arrays) {
+            this.regexp = regexp;
+            this.arrays = arrays;
+        }
+
+        /**
+         * Parse the whole expression.
+         * @return The syntax tree, null if the syntax isn't supported
+         */
+        private Node parse() {
+            Node tree = alternation();
+            if (tree == null || pos != regexp.length()) {
+                return null;
+            }
+            return tree;
+        }
+
+        private Node alternation() {
+            Node result = new Node(Node.ALTER);
+            do {
+                Node concat = concatenation();
+                if (concat == null) {
+                    return null;
+                }
+                result.children.add(concat);
+            } while (pos < regexp.length() && regexp.charAt(pos) == '|' && ++pos > 0);
+            return result.children.size() == 1 ? result.children.get(0) : result;
+        }
+
+        private Node concatenation() {
+            Node result = new Node(Node.CONCAT);
+            while (pos < regexp.length() && regexp.charAt(pos) != '|' && regexp.charAt(pos) != ')') {
+                Node atom = atom();
+                if (atom == null) {
+                    return null;
+                }
+                atom = quantifier(atom);
+                if (atom == null) {
+                    return null;
+                }
+                result.children.add(atom);
+            }
+            return result;
+        }
+
+        private Node quantifier(Node atom) {
+            if (pos >= regexp.length()) {
+                return atom;
+            }
+            char c = regexp.charAt(pos);
+            int type = c == '*' ? Node.STAR : (c == '+' ? Node.PLUS : (c == '?' ? Node.QUEST : -1));
+            if (type < 0) {
+                return atom;
+            }
+            pos++;
+            Node result = new Node(type);
+            result.children.add(atom);
+            if (pos < regexp.length() && regexp.charAt(pos) == '?') {
+                result.lazy = true;
+                pos++;
+            }
+            // Possessive or stacked quantifiers, and loops over the empty string
+            // don't behave the same without backtracking.
+            if (pos < regexp.length() && "*+?{".indexOf(regexp.charAt(pos)) > -1) {
+                return null;
+            }
+            if (type != Node.QUEST && atom.nullable()) {
+                return null;
+            }
+            return result;
+        }
+
+        private Node atom() {
+            char c = regexp.charAt(pos);
+            switch (c) {
+                case '(':
+                    pos++;
+                    Node result;
+                    if (regexp.startsWith("?:", pos)) {
+                        pos += 2;
+                        result = alternation();
+                    } else if (regexp.startsWith("?@", pos) && !nested) {
+                        return array();
+                    } else if (pos < regexp.length() && regexp.charAt(pos) == '?') {
+                        return null;
+                    } else {
+                        result = new Node(Node.GROUP);
+                        result.value = ++groups;
+                        Node content = alternation();
+                        if (content == null) {
+                            return null;
+                        }
+                        result.children.add(content);
+                    }
+                    if (result == null || pos >= regexp.length() || regexp.charAt(pos) != ')') {
+                        return null;
+                    }
+                    pos++;
+                    return result;
+                case '[':
+                    return characterClass();
+                case '.':
+                    pos++;
+                    return new Node(Node.ANY);
+                case '\\':
+                    return escape();
+                default:
+                    if ("*+?{}[]()^$|".indexOf(c) > -1) {
+                        return null;
+                    }
+                    Node ch = new Node(Node.CHAR);
+                    ch.value = regexp.codePointAt(pos);
+                    pos += Character.charCount(ch.value);
+                    return ch;
+            }
+        }
+
+        /**
+         * Parse a reference to an array, after its opening parenthesis.
+         * @return The node matching the items, null if the syntax isn't supported
+         */
+        private Node array() {
+            int end = regexp.indexOf(')', pos);
+            if (end < 0) {
+                return null;
+            }
+            ArraySet set = arrays.get(regexp.substring(pos + 2, end));
+            pos = end + 1;
+            if (set == null) {
+                // No array by this name.
+                return new Node(Node.CONCAT);
+            }
+            if (set.isLinear()) {
+                Node node = new Node(Node.ARRAY);
+                node.value = sets.size();
+                sets.add(set);
+                return node;
+            }
+
+            // The alternation of the items, as if it was written in the expression.
+            Parser items = new Parser(set.getRegexp(), arrays);
+            items.nested = true;
+            items.groups = groups;
+            items.sets = sets;
+            Node result = items.parse();
+            groups = items.groups;
+            return result;
+        }
+
+        private Node escape() {
+            if (pos + 1 >= regexp.length()) {
+                return null;
+            }
+            char c = regexp.charAt(pos + 1);
+            int[] ranges = namedClass(c);
+            if (ranges != null) {
+                pos += 2;
+                Node node = new Node(Node.CLASS);
+                node.ranges = ranges;
+                return node;
+            }
+            if (Character.isLetterOrDigit(c) || c >= 128) {
+                return null;
+            }
+            pos += 2;
+            Node node = new Node(Node.CHAR);
+            node.value = c;
+            return node;
+        }
+
+        /**
+         * Get the ranges of "\s", "\d", "\w" and their negations.
+         * @param c The letter after the backslash.
+         * @return The class, null if it isn't one of them
+         */
+        private static int[] namedClass(char c) {
+            switch (c) {
+                case 's':
+                    return new int[]{0, '\t', '\r', ' ', ' '};
+                case 'd':
+                    return new int[]{0, '0', '9'};
+                case 'w':
+                    return new int[]{0, '0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+                case 'S':
+                    return new int[]{1, '\t', '\r', ' ', ' '};
+                case 'D':
+                    return new int[]{1, '0', '9'};
+                case 'W':
+                    return new int[]{1, '0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+                default:
+                    return null;
+            }
+        }
+
+        private Node characterClass() {
+            pos++;
+            ArrayList<Integer> ranges = new ArrayList<Integer>();
+            ranges.add(Integer.valueOf(0));
+            if (pos < regexp.length() && regexp.charAt(pos) == '^') {
+                ranges.set(0, Integer.valueOf(1));
+                pos++;
+            }
+            if (pos < regexp.length() && regexp.charAt(pos) == ']') {
+                return null;
+            }
+            while (pos < regexp.length() && regexp.charAt(pos) != ']') {
+                char c = regexp.charAt(pos);
+                if (c == '[' || regexp.startsWith("&&", pos)) {
+                    return null;
+                }
+                int low;
+                if (c == '\\') {
+                    if (pos + 1 >= regexp.length()) {
+                        return null;
+                    }
+                    char e = regexp.charAt(pos + 1);
+                    int[] named = "sdw".indexOf(e) > -1 ? namedClass(e) : null;
+                    if (named != null) {
+                        for (int i = 1; i < named.length; i++) {
+                            ranges.add(Integer.valueOf(named[i]));
+                        }
+                        pos += 2;
+                        continue;
+                    }
+                    if (Character.isLetterOrDigit(e) || e >= 128) {
+                        return null;
+                    }
+                    low = e;
+                    pos += 2;
+                } else {
+                    low = regexp.codePointAt(pos);
+                    pos += Character.charCount(low);
+                }
+                int high = low;
+                if (pos + 1 < regexp.length() && regexp.charAt(pos) == '-' && regexp.charAt(pos + 1) != ']') {
+                    char h = regexp.charAt(pos + 1);
+                    if (h == '\\' || h == '[') {
+                        return null;
+                    }
+                    high = regexp.codePointAt(pos + 1);
+                    pos += 1 + Character.charCount(high);
+                    if (high < low) {
+                        return null;
+                    }
+                }
+                ranges.add(Integer.valueOf(low));
+                ranges.add(Integer.valueOf(high));
+            }
+            if (pos >= regexp.length()) {
+                return null;
+            }
+            pos++;
+            Node node = new Node(Node.CLASS);
+            node.ranges = new int[ranges.size()];
+            for (int i = 0; i < node.ranges.length; i++) {
+                node.ranges[i] = ranges.get(i).intValue();
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Instructions being generated from a syntax tree.
+     */
+    private static class Program {
+        private ArrayList<int[]> code = new ArrayList<int[]>();
+        private ArrayList<int[]> classes = new ArrayList<int[]>();
+
+        private int add(int op, int arg1, int arg2) {
+            code.add(new int[]{op, arg1, arg2});
+            return code.size() - 1;
+        }
+
+        private void emit(Node node) {
+            int split;
+            switch (node.type) {
+                case Node.CHAR:
+                    add(CHAR, node.value, 0);
+                    break;
+                case Node.ANY:
+                    add(ANY, 0, 0);
+                    break;
+                case Node.CLASS:
+                    classes.add(node.ranges);
+                    add(CLASS, classes.size() - 1, 0);
+                    break;
+                case Node.ARRAY:
+                    add(ARRAY, node.value, 0);
+                    break;
+                case Node.CONCAT:
+                    for (Node child : node.children) {
+                        emit(child);
+                    }
+                    break;
+                case Node.ALTER:
+                    ArrayList<Integer> jumps = new ArrayList<Integer>();
+                    for (int i = 0; i < node.children.size() - 1; i++) {
+                        split = add(SPLIT, code.size() + 1, 0);
+                        emit(node.children.get(i));
+                        jumps.add(Integer.valueOf(add(JUMP, 0, 0)));
+                        code.get(split)[2] = code.size();
+                    }
+                    emit(node.children.get(node.children.size() - 1));
+                    for (Integer jump : jumps) {
+                        code.get(jump.intValue())[1] = code.size();
+                    }
+                    break;
+                case Node.GROUP:
+                    add(SAVE, 2 * node.value, 0);
+                    emit(node.children.get(0));
+                    add(SAVE, 2 * node.value + 1, 0);
+                    break;
+                case Node.STAR:
+                    split = add(SPLIT, 0, 0);
+                    emit(node.children.get(0));
+                    add(JUMP, split, 0);
+                    branch(split, split + 1, code.size(), node.lazy);
+                    break;
+                case Node.PLUS:
+                    int start = code.size();
+                    emit(node.children.get(0));
+                    split = add(SPLIT, 0, 0);
+                    branch(split, start, code.size(), node.lazy);
+                    break;
+                case Node.QUEST:
+                    split = add(SPLIT, 0, 0);
+                    emit(node.children.get(0));
+                    branch(split, split + 1, code.size(), node.lazy);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Set the targets of a quantifier's split, the loop first if greedy.
+         */
+        private void branch(int split, int loop, int exit, boolean lazy) {
+            code.get(split)[1] = lazy ? exit : loop;
+            code.get(split)[2] = lazy ? loop : exit;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.engine.interpretation;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Splits triggers into word tokens for the trigger indexes. A trigger is turned
+ * into one or more expansions (one per combination of its optionals), each one
+ * being a sequence of tokens: atomic words, the wildcards "*", "_" and "#", and
+ * "@name" array references.<p>
+ * The expansions must accept exactly the messages the regular expression built
+ * by Interpreter.triggerRegexp() accepts, as long as the message itself is made
+ * of words separated by single spaces (see isTokenizable()). Triggers that can't
+ * be described that way (regular expression characters, user dependent tags,
+ * unusual spacing, optionals next to wildcards...) are not expanded at all and
+ * must always be matched with their regular expression.
+ */
+public class TriggerParser {
+
+    // Maximum number of expansions for a single trigger
+    public static final int MAX_EXPANSIONS = 64;
+
+    /**
+     * Expand a trigger into token sequences.
+     * @param pattern The trigger text as found in the sort buffer.
+     * @param arrays The compiled arrays of the interpreter (! array).
+     * @return Array of token sequences, or null if the trigger can't be expanded
+     */
+    public static String[][] expand(String pattern, HashMap<String, ArraySet> arrays) {
+        // Same cleanup as the regular expression: the {weight} tag goes away but
+        // the spaces around it don't.
+        String text = pattern.replaceAll("\\{weight=\\d+\\}", "");
+
+        // A lonely star also catches the empty string, and odd spacing can't be
+        // described with words.
+        if (text.equals("*") || !isTokenizable(text)) {
+            return null;
+        }
+
+        // Group the words into segments, an optional being a single segment.
+        String[] words = text.split(" ");
+        LinkedList<String[]> segments = new LinkedList<String[]>();
+        LinkedList<Boolean> optionals = new LinkedList<Boolean>();
+        for (int i = 0; i < words.length; i++) {
+            if (words[i].startsWith("[")) {
+                // Collect the optional until its closing bracket.
+                StringBuilder optional = new StringBuilder(words[i]);
+                while (optional.indexOf("]") < 0 && i + 1 < words.length) {
+                    optional.append(' ').append(words[++i]);
+                }
+                // Optionals are also filled in with a plain text replacement, so the
+                // same optional twice would get the spacing of the first one.
+                if (optional.indexOf("]") != optional.length() - 1 || optional.indexOf("[", 1) > -1
+                        || text.indexOf(optional.toString()) != text.lastIndexOf(optional.toString())) {
+                    return null;
+                }
+                String[] parts = optional.substring(1, optional.length() - 1).split("\\|", -1);
+                if (!validOptional(parts)) {
+                    return null;
+                }
+                segments.add(parts);
+                optionals.add(true);
+            } else if (isWildcard(words[i]) || validLiteral(words[i]) || validArray(words[i], arrays)) {
+                segments.add(new String[]{words[i]});
+                optionals.add(false);
+            } else {
+                return null;
+            }
+        }
+        // Arrays are filled in with a plain text replacement, which would also
+        // hit a longer name starting with the same letters.
+        for (int i = 0; i < words.length; i++) {
+            for (int j = 0; j < words.length; j++) {
+                if (isArray(words[i]) && isArray(words[j]) && words[j].length() > words[i].length()
+                        && words[j].startsWith(words[i])) {
+                    return null;
+                }
+            }
+        }
+
+        String[][] segs = segments.toArray(new String[segments.size()][]);
+        boolean[] opt = new boolean[segs.length];
+        for (int i = 0; i < opt.length; i++) {
+            opt[i] = optionals.get(i);
+        }
+
+        // Check the neighbours of the optionals. Between two atomic words the
+        // optional may also glue them together ("please [do] say" matches
+        // "pleasedosay"), which we can expand. Next to anything else it can't be
+        // described with words.
+        for (int i = 0; i < segs.length; i++) {
+            if (!opt[i]) {
+                continue;
+            }
+            boolean leftEdge = i == 0;
+            boolean rightEdge = i == segs.length - 1;
+            boolean leftWord = !leftEdge && isWord(segs, opt, i - 1);
+            boolean rightWord = !rightEdge && isWord(segs, opt, i + 1);
+            if ((leftEdge || leftWord) && (rightEdge || rightWord)) {
+                continue;
+            }
+            // A star (or an alpha wildcard) swallows whatever gets glued to it,
+            // but only if the other side is the edge of the trigger.
+            int other = leftEdge ? i + 1 : (rightEdge ? i - 1 : -1);
+            if (other > -1 && !opt[other] && (segs[other][0].equals("*")
+                    || (segs[other][0].equals("_") && alphabetic(segs[i])))) {
+                continue;
+            }
+            return null;
+        }
+
+        // Walk every combination of optionals and glued words.
+        LinkedList<String> results = new LinkedList<String>();
+        if (!combine(segs, opt, 0, false, new StringBuilder(), results)) {
+            return null;
+        }
+        String[][] expansions = new String[results.size()][];
+        int e = 0;
+        for (String result : results) {
+            expansions[e++] = result.split(" ");
+        }
+        return expansions;
+    }
+
+    /**
+     * Test whether a text is made of words separated by single spaces, which is
+     * the only shape of message the expansions describe exactly.
+     * @param text The text to check.
+     * @return true if the text can be split in words at its spaces
+     */
+    public static boolean isTokenizable(String text) {
+        int length = text.length();
+        if (length == 0 || text.charAt(0) == ' ' || text.charAt(length - 1) == ' ') {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == ' ') {
+                if (text.charAt(i - 1) == ' ') {
+                    return false;
+                }
+            } else if (Character.isWhitespace(c) || c == '\u0085') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test whether a token is a wildcard.
+     * @param token The token.
+     * @return true for "*", "_" and "#"
+     */
+    public static boolean isWildcard(String token) {
+        return token.equals("*") || token.equals("_") || token.equals("#");
+    }
+
+    /**
+     * Test whether a token is an array reference.
+     * @param token The token.
+     * @return true if the token starts with "@"
+     */
+    public static boolean isArray(String token) {
+        return token.startsWith("@");
+    }
+
+    /**
+     * Test whether a word of a message can be matched by the "#" wildcard.
+     * @param word The word.
+     * @return true if it's only made of digits
+     */
+    public static boolean isNumber(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return word.length() > 0;
+    }
+
+    /**
+     * Test whether a word of a message can be matched by the "_" wildcard.
+     * @param word The word.
+     * @return true if it's only made of lowercase letters
+     */
+    public static boolean isAlpha(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return word.length() > 0;
+    }
+
+    /**
+     * Test whether a word means the same for the regular expression engine, i.e.
+     * it's only made of letters, digits, apostrophes and dashes.
+     * @param word The word.
+     * @return true if the word is an atomic word
+     */
+    public static boolean validLiteral(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '\'' && c != '-') {
+                return false;
+            }
+        }
+        return word.length() > 0;
+    }
+
+    /**
+     * Test whether a token is a reference to an array made of atomic words.
+     * @param token The token.
+     * @param arrays The arrays of the interpreter.
+     * @return true if the array exists and all its items are atomic words
+     */
+    private static boolean validArray(String token, HashMap<String, ArraySet> arrays) {
+        if (!isArray(token) || token.length() < 2) {
+            return false;
+        }
+        // The name must end at a word boundary, and "_" is turned into a wildcard
+        // before the arrays are resolved.
+        String name = token.substring(1);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))) {
+                return false;
+            }
+        }
+        ArraySet items = arrays.get(name);
+        return items != null && items.isAtomic();
+    }
+
+    /**
+     * Test whether the alternatives of an optional are all atomic words.
+     * @param parts The alternatives.
+     * @return true if the optional can be expanded
+     */
+    private static boolean validOptional(String[] parts) {
+        for (int i = 0; i < parts.length; i++) {
+            if (!isTokenizable(parts[i])) {
+                return false;
+            }
+            String[] words = parts[i].split(" ");
+            for (int w = 0; w < words.length; w++) {
+                if (!validLiteral(words[w])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test whether the alternatives of an optional only use lowercase letters.
+     * @param parts The alternatives.
+     * @return true if the "_" wildcard can swallow them
+     */
+    private static boolean alphabetic(String[] parts) {
+        for (int i = 0; i < parts.length; i++) {
+            if (!isAlpha(parts[i].replace(" ", ""))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test whether a segment is an atomic word.
+     * @param segs The segments.
+     * @param opt Flags telling which segments are optionals.
+     * @param i The index to check.
+     * @return true for an atomic word
+     */
+    private static boolean isWord(String[][] segs, boolean[] opt, int i) {
+        return !opt[i] && validLiteral(segs[i][0]);
+    }
+
+    /**
+     * Build every expansion from a segment on.
+     * @param segs The segments.
+     * @param opt Flags telling which segments are optionals.
+     * @param i Current segment.
+     * @param loose true if an optional stands between the previous word and
+     * this segment, so both may be glued together.
+     * @param prefix Text of the expansion built so far.
+     * @param results Collected expansions.
+     * @return false if there are too many expansions
+     */
+    private static boolean combine(String[][] segs, boolean[] opt, int i, boolean loose, StringBuilder prefix, LinkedList<String> results) {
+        if (i == segs.length) {
+            if (prefix.length() > 0) {
+                results.add(prefix.toString());
+            }
+            return results.size() <= MAX_EXPANSIONS;
+        }
+        int mark = prefix.length();
+        if (!opt[i]) {
+            // A word after an optional may be glued to the previous one.
+            if (loose && mark > 0 && isWord(segs, opt, i) && prefix.charAt(mark - 1) != '*'
+                    && prefix.charAt(mark - 1) != '_' && prefix.charAt(mark - 1) != '#') {
+                if (!combine(segs, opt, i + 1, false, prefix.append(segs[i][0]), results)) {
+                    return false;
+                }
+                prefix.setLength(mark);
+            }
+            if (mark > 0) {
+                prefix.append(' ');
+            }
+            boolean result = combine(segs, opt, i + 1, false, prefix.append(segs[i][0]), results);
+            prefix.setLength(mark);
+            return result;
+        }
+
+        // The optional is absent: its neighbours may end up glued or separated.
+        if (!combine(segs, opt, i + 1, true, prefix, results)) {
+            return false;
+        }
+
+        // Or one of its alternatives is there, glued or not to the previous word.
+        for (int p = 0; p < segs[i].length; p++) {
+            if (mark > 0 && isWord(segs, opt, i - 1)) {
+                if (!combine(segs, opt, i + 1, true, prefix.append(segs[i][p]), results)) {
+                    return false;
+                }
+                prefix.setLength(mark);
+            }
+            if (mark > 0) {
+                prefix.append(' ');
+            }
+            if (!combine(segs, opt, i + 1, true, prefix.append(segs[i][p]), results)) {
+                return false;
+            }
+            prefix.setLength(mark);
+        }
+        return true;
+    }
+}
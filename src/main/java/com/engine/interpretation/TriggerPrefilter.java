@@ -0,0 +1,162 @@
+package com.engine.interpretation;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Inverted index of the words a message must contain for a trigger to match.
+ * The required words of a trigger are the atomic words found in all of its
+ * expansions (see TriggerParser), e.g. "what" and "is" for "what is *". Each
+ * trigger is listed under its least common required word only; at match time the
+ * lists of the words of the message give the candidates, which are kept if the
+ * message also contains their other required words.<p>
+ * Triggers without required words, or that can't be expanded, are always
+ * candidates. The candidates are returned in sort buffer order and the caller
+ * tries their regular expressions, so the priority of the sort buffer is kept.
+ */
+public class TriggerPrefilter implements TriggerIndex {
+
+    // Variables
+    private HashMap<String, int[]> postings = new HashMap<String, int[]>(); // Triggers listed under a word
+    private String[][] required     = null;             // Required words of each trigger
+    private BitSet always           = new BitSet();     // Ranks of the triggers that are always candidates
+
+    //Log
+    private final static Logger LOG = Logger.getLogger(TriggerPrefilter.class .getName());
+
+    /**
+     * Build the index of a sort buffer.
+     * @param triggers The compiled triggers of the topic, in sort buffer order.
+     */
+    public TriggerPrefilter(CompiledTrigger[] triggers) {
+        required = new String[triggers.length][];
+
+        // Find the required words and how many triggers need each one.
+        HashMap<String, Integer> frequency = new HashMap<String, Integer>();
+        for (int i = 0; i < triggers.length; i++) {
+            required[i] = requiredWords(triggers[i].getExpansions());
+            if (required[i] == null || required[i].length == 0) {
+                always.set(i);
+                continue;
+            }
+            for (int w = 0; w < required[i].length; w++) {
+                Integer count = frequency.get(required[i][w]);
+                frequency.put(required[i][w], Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+            }
+        }
+
+        // List each trigger under its least common word.
+        HashMap<String, LinkedList<Integer>> lists = new HashMap<String, LinkedList<Integer>>();
+        for (int i = 0; i < triggers.length; i++) {
+            if (always.get(i)) {
+                continue;
+            }
+            String rarest = required[i][0];
+            for (int w = 1; w < required[i].length; w++) {
+                if (frequency.get(required[i][w]).intValue() < frequency.get(rarest).intValue()) {
+                    rarest = required[i][w];
+                }
+            }
+            LinkedList<Integer> list = lists.get(rarest);
+            if (list == null) {
+                list = new LinkedList<Integer>();
+                lists.put(rarest, list);
+            }
+            list.add(Integer.valueOf(i));
+        }
+        for (String word : lists.keySet()) {
+            LinkedList<Integer> list = lists.get(word);
+            int[] ranks = new int[list.size()];
+            int r = 0;
+            for (Integer rank : list) {
+                ranks[r++] = rank.intValue();
+            }
+            postings.put(word, ranks);
+        }
+        LOG.log(Level.FINE, "Indexed {0} of {1} triggers under {2} words", new Object[]{triggers.length - always.cardinality(), triggers.length, postings.size()});
+    }
+
+    /**
+     * Find the atomic words common to every expansion of a trigger.
+     * @param expansions The expansions of the trigger.
+     * @return Array of words, null if the trigger can't be expanded
+     */
+    private static String[] requiredWords(String[][] expansions) {
+        if (expansions == null) {
+            return null;
+        }
+        HashSet<String> common = null;
+        for (int e = 0; e < expansions.length; e++) {
+            HashSet<String> words = new HashSet<String>();
+            for (int t = 0; t < expansions[e].length; t++) {
+                String token = expansions[e][t];
+                if (!TriggerParser.isWildcard(token) && !TriggerParser.isArray(token)) {
+                    words.add(token);
+                }
+            }
+            if (common == null) {
+                common = words;
+            } else {
+                common.retainAll(words);
+            }
+        }
+        return common.toArray(new String[common.size()]);
+    }
+
+    /**
+     * Find the triggers whose required words all appear in a message.
+     * @param split The words of the formatted message.
+     * @return Ranks of the candidate triggers in ascending order, or null if the
+     * message can't be split in words and every trigger must be tried
+     */
+    @Override
+    public int[] candidates(String[] split) {
+        if (split == null) {
+            return null;
+        }
+        HashSet<String> words = new HashSet<String>();
+        for (int i = 0; i < split.length; i++) {
+            words.add(split[i]);
+        }
+
+        BitSet found = (BitSet) always.clone();
+        for (Iterator<String> it = words.iterator(); it.hasNext(); ) {
+            int[] ranks = postings.get(it.next());
+            if (ranks == null) {
+                continue;
+            }
+            for (int r = 0; r < ranks.length; r++) {
+                if (containsAll(words, required[ranks[r]])) {
+                    found.set(ranks[r]);
+                }
+            }
+        }
+
+        int[] result = new int[found.cardinality()];
+        int r = 0;
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+            result[r++] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Test whether a message contains all the required words of a trigger.
+     * @param words The words of the message.
+     * @param required The required words.
+     * @return true if they are all there
+     */
+    private static boolean containsAll(HashSet<String> words, String[] required) {
+        for (int w = 0; w < required.length; w++) {
+            if (!words.contains(required[w])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
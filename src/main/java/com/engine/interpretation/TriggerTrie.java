@@ -0,0 +1,238 @@
+package com.engine.interpretation;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Word level index of a topic's sort buffer. The expansions of the triggers
+ * (see TriggerParser) are stored in a trie whose edges are atomic words, the
+ * wildcards "*" (one or more words), "_" (one or more words of letters) and "#"
+ * (one number) and array references. Walking the words of a message through it
+ * gives the triggers that match it without trying their regular expressions one
+ * by one, so the cost depends on the length of the message and not on the number
+ * of triggers.<p>
+ * Triggers that can't be expanded are always returned as candidates, along with
+ * the ones found in the trie, in sort buffer order. The caller still runs the
+ * regular expression of the candidates to make sure and to collect the stars.
+ */
+public class TriggerTrie implements TriggerIndex {
+
+    // Variables
+    private Node root                       = new Node();   // Root of the trie
+    private int nodes                       = 1;            // Number of nodes
+    private BitSet unindexed                = new BitSet(); // Ranks of the triggers not in the trie
+    private HashMap<String, ArraySet> arrays = new HashMap<String, ArraySet>(); // Arrays used by the trie
+
+    //Log
+    private final static Logger LOG = Logger.getLogger(TriggerTrie.class .getName());
+
+    /**
+     * A node of the trie.
+     */
+    static class Node {
+        int id;                                 // Unique id of the node
+        HashMap<String, Node> words = null;     // Atomic words
+        HashMap<String, Node> arrays = null;    // Array references
+        Node star = null;                       // * wildcard
+        Node alpha = null;                      // _ wildcard
+        Node number = null;                     // # wildcard
+        BitSet ends = null;                     // Ranks of the triggers ending here
+    }
+
+    /**
+     * Build the index of a sort buffer.
+     * @param triggers The compiled triggers of the topic, in sort buffer order.
+     * @param arrays The compiled arrays of the interpreter (! array).
+     */
+    public TriggerTrie(CompiledTrigger[] triggers, HashMap<String, ArraySet> arrays) {
+        int indexed = 0;
+        for (int i = 0; i < triggers.length; i++) {
+            String[][] expansions = triggers[i].getExpansions();
+            if (expansions == null) {
+                unindexed.set(i);
+                continue;
+            }
+            for (int e = 0; e < expansions.length; e++) {
+                insert(expansions[e], i, arrays);
+            }
+            indexed++;
+        }
+        LOG.log(Level.FINE, "Indexed {0} of {1} triggers in {2} nodes", new Object[]{indexed, triggers.length, nodes});
+    }
+
+    /**
+     * Add an expansion to the trie.
+     * @param tokens The tokens of the expansion.
+     * @param rank The position of the trigger in the sort buffer.
+     * @param arrays The compiled arrays of the interpreter.
+     */
+    private void insert(String[] tokens, int rank, HashMap<String, ArraySet> arrays) {
+        Node node = root;
+        for (int t = 0; t < tokens.length; t++) {
+            String token = tokens[t];
+            if (token.equals("*")) {
+                if (node.star == null) {
+                    node.star = newNode();
+                }
+                node = node.star;
+            } else if (token.equals("_")) {
+                if (node.alpha == null) {
+                    node.alpha = newNode();
+                }
+                node = node.alpha;
+            } else if (token.equals("#")) {
+                if (node.number == null) {
+                    node.number = newNode();
+                }
+                node = node.number;
+            } else if (TriggerParser.isArray(token)) {
+                String name = token.substring(1);
+                this.arrays.put(name, arrays.get(name));
+                if (node.arrays == null) {
+                    node.arrays = new HashMap<String, Node>();
+                }
+                Node next = node.arrays.get(name);
+                if (next == null) {
+                    next = newNode();
+                    node.arrays.put(name, next);
+                }
+                node = next;
+            } else {
+                if (node.words == null) {
+                    node.words = new HashMap<String, Node>();
+                }
+                Node next = node.words.get(token);
+                if (next == null) {
+                    next = newNode();
+                    node.words.put(token, next);
+                }
+                node = next;
+            }
+        }
+        if (node.ends == null) {
+            node.ends = new BitSet();
+        }
+        node.ends.set(rank);
+    }
+
+    /**
+     * Create a new node with a unique id.
+     * @return Node
+     */
+    private Node newNode() {
+        Node node = new Node();
+        node.id = nodes++;
+        return node;
+    }
+
+    /**
+     * Get the root of the trie, for the brain compiler.
+     * @return Node root
+     */
+    Node root() {
+        return root;
+    }
+
+    /**
+     * Get the number of nodes of the trie.
+     * @return int nodes
+     */
+    int size() {
+        return nodes;
+    }
+
+    /**
+     * Get the ranks of the triggers that are not in the trie.
+     * @return BitSet of ranks
+     */
+    BitSet unindexed() {
+        return unindexed;
+    }
+
+    /**
+     * Get the items of an array used by the trie, split in words.
+     * @param name The name of the array.
+     * @return Array of items
+     */
+    String[][] items(String name) {
+        String[] items = arrays.get(name).listItems();
+        String[][] split = new String[items.length][];
+        for (int i = 0; i < items.length; i++) {
+            split[i] = items[i].split(" ");
+        }
+        return split;
+    }
+
+    /**
+     * Find the triggers that may match a message.
+     * @param words The words of the formatted message.
+     * @return Ranks of the candidate triggers in ascending order, or null if the
+     * message can't be split in words and every trigger must be tried
+     */
+    @Override
+    public int[] candidates(String[] words) {
+        if (words == null) {
+            return null;
+        }
+        BitSet found = (BitSet) unindexed.clone();
+        walk(root, words, 0, found, new HashSet<Long>());
+
+        int[] result = new int[found.cardinality()];
+        int r = 0;
+        for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+            result[r++] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Walk the words of a message through the trie from a node.
+     * @param node The current node.
+     * @param words The words of the message.
+     * @param i The next word to consume.
+     * @param found Collects the ranks of the triggers reached.
+     * @param visited The (node, word) pairs already walked.
+     */
+    private void walk(Node node, String[] words, int i, BitSet found, HashSet<Long> visited) {
+        if (!visited.add(Long.valueOf((long) node.id * (words.length + 1) + i))) {
+            return;
+        }
+        if (i == words.length) {
+            if (node.ends != null) {
+                found.or(node.ends);
+            }
+            return;
+        }
+        if (node.words != null) {
+            Node next = node.words.get(words[i]);
+            if (next != null) {
+                walk(next, words, i + 1, found, visited);
+            }
+        }
+        if (node.number != null && TriggerParser.isNumber(words[i])) {
+            walk(node.number, words, i + 1, found, visited);
+        }
+        if (node.alpha != null) {
+            for (int j = i; j < words.length && TriggerParser.isAlpha(words[j]); j++) {
+                walk(node.alpha, words, j + 1, found, visited);
+            }
+        }
+        if (node.star != null) {
+            for (int j = i + 1; j <= words.length; j++) {
+                walk(node.star, words, j, found, visited);
+            }
+        }
+        if (node.arrays != null) {
+            for (Map.Entry<String, Node> entry : node.arrays.entrySet()) {
+                int[] spans = arrays.get(entry.getKey()).spans(words, i);
+                for (int a = 0; a < spans.length; a++) {
+                    walk(entry.getValue(), words, i + spans[a], found, visited);
+                }
+            }
+        }
+    }
+}
@@ -24,8 +24,6 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Utility methods.
@@ -154,57 +152,6 @@ public class Util {
 		return list;
 	}
 
-	/**
-	 * Run substitutions on a string.
-	 *
-	 * @param sorted The sorted list of substitution patterns to process.
-	 * @param hash   A hash that pairs the sorted list with the replacement texts.
-	 * @param text   The text to apply the substitutions to.
-	 */
-	public static String substitute (String[] sorted, HashMap<String, String> hash, String text) {
-		for (int i = 0; i < sorted.length; i++) {
-			String pattern = sorted[i];
-			String result  = hash.get(sorted[i]);
-			String rot13   = ROT13(result);
-
-			String quotemeta = Pattern.quote(pattern);
-			text = text.replaceAll("^" + quotemeta + "$", "<rot13sub>" + rot13 + "<bus31tor>");
-			text = text.replaceAll("^" + quotemeta + "(\\W+)", "<rot13sub>" + rot13 + "<bus31tor>$1");
-			text = text.replaceAll("(\\W+)" + quotemeta + "(\\W+)", "$1<rot13sub>" + rot13 + "<bus31tor>$2");
-			text = text.replaceAll("(\\W+)" + quotemeta + "$", "$1<rot13sub>" + rot13 + "<bus31tor>");
-		}
-		if (text.indexOf("<rot13sub>") > -1) {
-			Pattern re = Pattern.compile("<rot13sub>(.+?)<bus31tor>");
-			Matcher m  = re.matcher(text);
-			while (m.find()) {
-				String block = m.group(0);
-				String data  = ROT13(m.group(1));
-				text = text.replace(block, data);
-			}
-		}
-		return text;
-	}
-
-	/**
-	 * Simple ROT13 encoder.
-	 *
-	 * @param text Text to encode to ROT13.
-	 */
-	public static String ROT13 (String text) {
-		Collection<String> reply = new ArrayList<String>();
-		for (int i = 0; i < text.length(); i++) {
-			char c = text.charAt(i);
-			if ((c >= 'a' && c <= 'm') || (c >= 'A' && c <= 'M')) {
-				c += 13;
-			}
-			else if ((c >= 'n' && c <= 'z') || (c >= 'N' && c <= 'Z')) {
-				c -= 13;
-			}
-			reply.add(Character.toString(c));
-		}
-		return join(Sv2s(reply),"");
-	}
-
     public static String join(Collection<String> collection, String delim) {
         StringBuilder buff = new StringBuilder();
 
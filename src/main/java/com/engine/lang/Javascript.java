@@ -4,14 +4,16 @@
  */
 package com.engine.lang;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.script.Invocable;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
 
 /**
  *
@@ -20,8 +22,9 @@ import javax.script.ScriptException;
 public class Javascript implements com.engine.interpretation.ObjectHandler {
 
     private com.engine.interpretation.Interpreter parent;  // Parent RS object
-    private HashMap<String, String> codes = new HashMap<String, String>();       // Object codes
+    private ConcurrentHashMap<String, String> codes = new ConcurrentHashMap<String, String>(); // Object codes
     private ScriptEngine engine;
+    private boolean concurrent;     // The engine may run scripts at the same time
 
     /**
      * Create a Perl handler. Must take the path to the rsp4j script as its
@@ -34,6 +37,8 @@ public class Javascript implements com.engine.interpretation.ObjectHandler {
         this.parent = rivescript;
         ScriptEngineManager sem = new ScriptEngineManager();
         engine = sem.getEngineByName("javascript");
+        // A null THREADING means the scripts must run one at a time.
+        concurrent = engine != null && engine.getFactory().getParameter("THREADING") != null;
     }
 
     public boolean onLoad(String name, Object[] code) {
@@ -45,12 +50,27 @@ public class Javascript implements com.engine.interpretation.ObjectHandler {
         String result = null;
         try {
             
-            for (int i = 0; i < args.length; i++) {
-                engine.put("param"+i, args[i]);
-            }
             String expression = codes.get(name);
-            engine.eval(expression);
-            result = (String) engine.get("result");
+            if (concurrent && parent.isPure(name)) {
+                // The parameters get a scope of their own, the globals of the
+                // other objects are still seen through the engine's scope.
+                ScriptContext context = new SimpleScriptContext();
+                context.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+                context.setBindings(engine.getBindings(ScriptContext.ENGINE_SCOPE), ScriptContext.GLOBAL_SCOPE);
+                for (int i = 0; i < args.length; i++) {
+                    context.setAttribute("param"+i, args[i], ScriptContext.ENGINE_SCOPE);
+                }
+                engine.eval(expression, context);
+                result = (String) context.getAttribute("result");
+            } else {
+                synchronized (engine) {
+                    for (int i = 0; i < args.length; i++) {
+                        engine.put("param"+i, args[i]);
+                    }
+                    engine.eval(expression);
+                    result = (String) engine.get("result");
+                }
+            }
        
         } catch (Exception ex) {
             Logger.getLogger(Javascript.class.getName()).log(Level.SEVERE, null, ex);
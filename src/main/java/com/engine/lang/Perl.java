@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Perl programming language support for Interpreter-Java.
@@ -16,8 +17,8 @@ import java.util.Iterator;
 public class Perl implements com.engine.interpretation.ObjectHandler {
 	private String rsp4j;                      // Path to the Perl script
 	private com.engine.interpretation.Interpreter parent;  // Parent RS object
-	private HashMap<String, String> codes =
-		new HashMap<String, String>();       // Object codes
+	private ConcurrentHashMap<String, String> codes =
+		new ConcurrentHashMap<String, String>();       // Object codes
 
 	/**
 	 * Create a Perl handler. Must take the path to the rsp4j script as
@@ -2,7 +2,9 @@ package com.engine.util;
 
 import com.engine.interpretation.Action;
 import com.engine.interpretation.Interpreter;
+import com.engine.interpretation.MessageNormalizer;
 import com.engine.interpretation.ObjectHandler;
+import com.engine.interpretation.TopicManager;
 import com.memetix.mst.language.Language;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
@@ -11,7 +13,6 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,6 +36,18 @@ public class Parser {
      * @return              Operation status
      */
     public static boolean parseRS(Interpreter interpreter, String filename, LinkedList<String> code) {
+        return parseRS(interpreter, interpreter.topics, filename, code);
+    }
+
+    /**
+     * Parser for RiveScript files, into given topics
+     * @param interpreter   Instance of the interpreter target
+     * @param topics        Topics receiving the triggers
+     * @param filename      File source
+     * @param code          List of lines
+     * @return              Operation status
+     */
+    public static boolean parseRS(Interpreter interpreter, TopicManager topics, String filename, LinkedList<String> code) {
         
         // Track some state variables for this parsing round.
         String topic                = "random"; // Default topic = random
@@ -43,6 +56,7 @@ public class Parser {
         boolean inobj               = false;    // In an object
         String objName              = "";       // Name of the current object
         String objLang              = "";       // Programming language of the object
+        boolean objPure             = false;    // The object's result only depends on its arguments
         LinkedList<String> objBuff  = null;     // Buffer for the current object
         String onTrig               = "";       // Trigger we're on
         String isThat               = "";       // Is a %Previous trigger
@@ -66,11 +80,13 @@ public class Parser {
                         objHandler.onLoad(objName, objBuff.toArray());
 
                         // Map the name to the language.
-                        interpreter.objects.put(objName, objLang.toUpperCase());
+                        interpreter.setObject(objName, objLang.toUpperCase());
+                        interpreter.setPure(objName, objPure);
                     }
 
                     objName = "";
                     objLang = "";
+                    objPure = false;
                     objBuff = null;
                     inobj = false;
                     continue;
@@ -146,8 +162,8 @@ public class Parser {
                     // If the current command is a +, see if the following is a %.
                     if (cmd.equals(Interpreter.CMD_TRIGGER)) {
                         if (peekCmd.equals(Interpreter.CMD_PREVIOUS)) {
-                            // It has a %Previous!
-                            isThat = peek;
+                            // It has a %Previous! Matched against a folded reply.
+                            isThat = MessageNormalizer.fold(peek);
                             break;
                         } else {
                             isThat = "";
@@ -254,7 +270,7 @@ public class Parser {
 
                     // Deleting it?
                     if (delete) {
-                        interpreter.arrays.remove(var);
+                        interpreter.setArray(var, null);
                         continue;
                     }
 
@@ -269,11 +285,13 @@ public class Parser {
                         } else {
                             pieces = parts[a].split("\\s+");
                         }
-                        items.addAll(Arrays.asList(pieces));
+                        for (int p = 0; p < pieces.length; p++) {
+                            items.add(MessageNormalizer.fold(pieces[p]));
+                        }
                     }
 
                     // Store this array.
-                    interpreter.arrays.put(var, items);
+                    interpreter.setArray(var, items);
                 } else if (type.equals("sub")) {
                     // Set a substitution.
                     LOG.log(Level.INFO, "\tSubstitution {0} => {1}", new Object[]{var, value});
@@ -327,9 +345,9 @@ public class Parser {
                             } else if (mode > 0) {
                                 // This topic is either inherited or included.
                                 if (mode == mode_includes) {
-                                    interpreter.topics.topic(topic).includes(label[a]);
+                                    topics.topic(topic).includes(label[a]);
                                 } else if (mode == mode_inherits) {
-                                    interpreter.topics.topic(topic).inherits(label[a]);
+                                    topics.topic(topic).inherits(label[a]);
                                 }
                             }
                         }
@@ -354,9 +372,16 @@ public class Parser {
                         continue;
                     }
 
+                    // Pure objects have their results cached: > object name lang pure
+                    boolean pure = false;
+                    for (int a = 3; a < label.length; a++) {
+                        pure |= label[a].trim().equalsIgnoreCase("pure");
+                    }
+
                     // Start collecting its code!
                     objName = name;
                     objLang = lang;
+                    objPure = pure;
                     objBuff = new LinkedList<String>();
                     inobj = true;
                 }
@@ -378,12 +403,15 @@ public class Parser {
                 // + TRIGGER
                 LOG.log(Level.INFO, "\t+ TRIGGER: {0}", line);
 
+                // Messages have their accents folded, so do the triggers.
+                line = MessageNormalizer.fold(line);
+
                 if (isThat.length() > 0) {
                     // This trigger had a %Previous. To prevent conflict, tag the
                     // trigger with the "that" text.
                     onTrig = line + "{previous}" + isThat;
-                    interpreter.topics.topic(topic).trigger(line).hasPrevious(true);
-                    interpreter.topics.topic(topic).addPrevious(line, isThat);
+                    topics.topic(topic).trigger(line).hasPrevious(true);
+                    topics.topic(topic).addPrevious(line, isThat);
                 } else {
                     // Set the current trigger to this.
                     onTrig = line;
@@ -399,7 +427,7 @@ public class Parser {
                 }
 
                 // Add the reply to the trigger.
-                interpreter.topics.topic(topic).trigger(onTrig).addReply(line);
+                topics.topic(topic).trigger(onTrig).addReply(line);
             } else if (cmd.equals(Interpreter.CMD_ACTION)) {
                 // & ACTION
                 LOG.log(Level.INFO, "\t- ACTION: {0}", line);
@@ -412,7 +440,7 @@ public class Parser {
 
                 // Add the action to the trigger for now just knowledge search.
                 Action action = new Action(Action.type.KNOWLEDGE_SEARCH,line);
-                interpreter.topics.topic(topic).trigger(onTrig).addAction(action);
+                topics.topic(topic).trigger(onTrig).addAction(action);
             } else if (cmd.equals(Interpreter.CMD_LEARN)) {
                 // = LEARN
                 LOG.log(Level.INFO, "\t- LEARN: {0}", line);
@@ -424,8 +452,8 @@ public class Parser {
                 }
 
                 // Add the action to the trigger for now just knowledge search.
-                interpreter.topics.topic(topic).trigger(onTrig).setPersistent(false);
-                interpreter.topics.topic(topic).trigger(onTrig).addReply(line);
+                topics.topic(topic).trigger(onTrig).setPersistent(false);
+                topics.topic(topic).trigger(onTrig).addReply(line);
             }else if (cmd.equals(Interpreter.CMD_PREVIOUS)) {
                 // % PREVIOUS
                 // This was handled above.
@@ -444,7 +472,7 @@ public class Parser {
 
                 // Add the redirect to the trigger.
                 // TODO: this extends Interpreter, not compat w/ Perl yet
-                interpreter.topics.topic(topic).trigger(onTrig).addRedirect(line);
+                topics.topic(topic).trigger(onTrig).addRedirect(line);
             } else if (cmd.equals(Interpreter.CMD_CONDITION)) {
                 // * CONDITION
                 LOG.log(Level.INFO, "\t* CONDITION: {0}", line);
@@ -456,7 +484,7 @@ public class Parser {
                 }
 
                 // Add the condition to the trigger.
-                interpreter.topics.topic(topic).trigger(onTrig).addCondition(line);
+                topics.topic(topic).trigger(onTrig).addCondition(line);
             } else {
                 LOG.log(Level.SEVERE, "Unrecognized command {0} in {1} at {2}", new Object[]{cmd, filename, lineno});
             }
@@ -517,6 +545,6 @@ public class Parser {
 
         }
         // Send the code to the parser.
-        return Parser.parseRS(interpreter, file, lines);
+        return interpreter.parse(file, lines);
     }
 }
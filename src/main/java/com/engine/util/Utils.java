@@ -20,23 +20,4 @@ public class Utils {
         
         return result;
     }
-    
-    /**
- * Funcin que elimina acentos y caracteres especiales de
- * una cadena de texto.
- * @param input
- * @return cadena de texto limpia de acentos y caracteres especiales.
- */
-public static String removeAccents(String input) {
-    // Cadena de caracteres original a sustituir.
-    String original = "u";
-    // Cadena de caracteres ASCII que reemplazarn los originales.
-    String ascii = "aaaeeeiiiooouuunAAAEEEIIIOOOUUUNcC";
-    String output = input;
-    for (int i=0; i<original.length(); i++) {
-        // Reemplazamos los caracteres especiales.
-        output = output.replace(original.charAt(i), ascii.charAt(i));
-    }//for i
-    return output;
-}//remove1
 }
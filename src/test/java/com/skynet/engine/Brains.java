@@ -0,0 +1,89 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.Interpreter;
+import com.engine.interpretation.ObjectHandler;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Interpreters for the tests: quiet, with their replies sorted and a stub
+ * handler for the JavaScript objects.
+ */
+final class Brains
+{
+    private Brains()
+    {
+    }
+
+    /**
+     * Load a brain with stub objects.
+     *
+     * @param code the lines of the brain
+     * @return the interpreter, replies sorted
+     */
+    static Interpreter load( String... code ) throws Exception
+    {
+        return load( new Objects(), code );
+    }
+
+    /**
+     * Load a brain whose JavaScript objects are run by a stub.
+     *
+     * @param objects the stub running the objects
+     * @param code the lines of the brain
+     * @return the interpreter, replies sorted
+     */
+    static Interpreter load( Objects objects, String... code ) throws Exception
+    {
+        Logger.getLogger( "" ).setLevel( Level.OFF );
+        Interpreter interpreter = new Interpreter();
+        interpreter.setLogLevel( Level.OFF );
+        interpreter.setHandler( "javascript", objects );
+        interpreter.stream( code );
+        interpreter.sortReplies();
+        return interpreter;
+    }
+
+    /**
+     * Runs the objects by their name: "fail" throws an IllegalStateException,
+     * "overflow" a StackOverflowError, "thread" gives the name of the thread
+     * calling it, and the others their name and arguments.
+     */
+    static class Objects implements ObjectHandler
+    {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        public boolean onLoad( String name, Object[] code )
+        {
+            return true;
+        }
+
+        public String onCall( String name, String user, Object[] args )
+        {
+            calls.incrementAndGet();
+            if ( name.equals( "fail" ) )
+            {
+                throw new IllegalStateException( "fail" );
+            }
+            if ( name.equals( "overflow" ) )
+            {
+                throw new StackOverflowError( "too deep" );
+            }
+            if ( name.equals( "thread" ) )
+            {
+                return Thread.currentThread().getName();
+            }
+            return name + Arrays.toString( args );
+        }
+
+        /**
+         * @return the number of objects run
+         */
+        int getCalls()
+        {
+            return calls.get();
+        }
+    }
+}
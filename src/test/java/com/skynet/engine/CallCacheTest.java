@@ -0,0 +1,128 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.CallCache;
+import com.engine.interpretation.Interpreter;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The results of the pure objects are kept until the least recently used ones
+ * need the room, and the interpreter only runs a pure object for new arguments.
+ */
+public class CallCacheTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public CallCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( CallCacheTest.class );
+    }
+
+    public void testLeastRecentlyUsedIsEvicted()
+    {
+        CallCache cache = new CallCache( 2 );
+        cache.put( "add 1 2", "3" );
+        cache.put( "add 2 2", "4" );
+        assertEquals( "3", cache.get( "add 1 2" ) );
+        cache.put( "add 3 2", "5" );
+
+        assertEquals( 2, cache.size() );
+        assertEquals( 1, cache.getEvictions() );
+        assertNull( cache.get( "add 2 2" ) );
+        assertEquals( "3", cache.get( "add 1 2" ) );
+        assertEquals( "5", cache.get( "add 3 2" ) );
+    }
+
+    public void testStatistics()
+    {
+        CallCache cache = new CallCache( 10 );
+        assertEquals( 0.0, cache.getHitRate(), 0.0 );
+        cache.get( "upper hi" );
+        cache.put( "upper hi", "HI" );
+        cache.get( "upper hi" );
+        cache.get( "upper hi" );
+        cache.get( "upper ho" );
+
+        assertEquals( 2, cache.getHits() );
+        assertEquals( 2, cache.getMisses() );
+        assertEquals( 0.5, cache.getHitRate(), 1e-9 );
+        assertEquals( 0, cache.getEvictions() );
+    }
+
+    public void testRemoveForgetsOneObject()
+    {
+        CallCache cache = new CallCache( 10 );
+        cache.put( "time", "noon" );
+        cache.put( "time zone", "UTC" );
+        cache.put( "timer 5", "started" );
+        cache.put( "date today", "monday" );
+        cache.remove( "time" );
+
+        assertNull( cache.get( "time" ) );
+        assertNull( cache.get( "time zone" ) );
+        assertEquals( "started", cache.get( "timer 5" ) );
+        assertEquals( "monday", cache.get( "date today" ) );
+    }
+
+    public void testCapacity()
+    {
+        CallCache cache = new CallCache( 4 );
+        for ( int i = 0; i < 4; i++ )
+        {
+            cache.put( "square " + i, String.valueOf( i * i ) );
+        }
+        cache.get( "square 0" );
+        cache.setCapacity( 2 );
+        assertEquals( 2, cache.getCapacity() );
+        assertEquals( 2, cache.size() );
+        assertEquals( 2, cache.getEvictions() );
+        assertEquals( "0", cache.get( "square 0" ) );
+        assertEquals( "9", cache.get( "square 3" ) );
+
+        // No capacity, nothing is kept.
+        cache.setCapacity( 0 );
+        cache.put( "square 5", "25" );
+        assertEquals( 0, cache.size() );
+        assertNull( cache.get( "square 5" ) );
+
+        // Nor are the calls without a result.
+        cache.setCapacity( 4 );
+        cache.put( "square x", null );
+        assertEquals( 0, cache.size() );
+    }
+
+    public void testPureObjectsRunOncePerArguments() throws Exception
+    {
+        Brains.Objects objects = new Brains.Objects();
+        Interpreter interpreter = Brains.load( objects,
+            "> object double javascript pure", "return 2 * args[0];", "< object",
+            "> object clock javascript", "return new Date();", "< object",
+            "+ double #", "- <call>double <star></call>",
+            "+ clock", "- <call>clock</call>" );
+        assertTrue( interpreter.isPure( "double" ) );
+        assertFalse( interpreter.isPure( "clock" ) );
+
+        assertEquals( "double[4]", interpreter.reply( "alice", "double 4" ) );
+        assertEquals( "double[4]", interpreter.reply( "bob", "double 4" ) );
+        assertEquals( "double[5]", interpreter.reply( "alice", "double 5" ) );
+        assertEquals( 2, objects.getCalls() );
+        assertEquals( 1, interpreter.getCallCache().getHits() );
+
+        interpreter.reply( "alice", "clock" );
+        interpreter.reply( "alice", "clock" );
+        assertEquals( 4, objects.getCalls() );
+    }
+}
@@ -0,0 +1,102 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.ArraySet;
+import com.engine.interpretation.CompiledBrain;
+import com.engine.interpretation.CompiledTrigger;
+import com.engine.interpretation.TriggerIndex;
+import com.engine.interpretation.TriggerParser;
+import com.engine.interpretation.TriggerTrie;
+import java.util.Arrays;
+import java.util.HashMap;
+import javax.tools.ToolProvider;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The class generated for a topic must give the candidates of the word trie it
+ * is written from, and the trie must be kept when the topic can't be compiled.
+ */
+public class CompiledBrainTest 
+    extends TestCase
+{
+    private HashMap<String, ArraySet> arrays = new HashMap<String, ArraySet>();
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public CompiledBrainTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( CompiledBrainTest.class );
+    }
+
+    private CompiledTrigger[] compile( String[][] sorted )
+    {
+        CompiledTrigger[] triggers = new CompiledTrigger[sorted.length];
+        for ( int i = 0; i < sorted.length; i++ )
+        {
+            triggers[i] = new CompiledTrigger( sorted[i][0], null, sorted[i][1],
+                    TriggerParser.expand( sorted[i][0], arrays ), arrays );
+        }
+        return triggers;
+    }
+
+    public void testSameCandidatesAsTheTrie()
+    {
+        if ( ToolProvider.getSystemJavaCompiler() == null )
+        {
+            // Running on a JRE, the trie is used and tested on its own.
+            return;
+        }
+        arrays.put( "drinks", new ArraySet( Arrays.asList( "tea", "caf\u00e9", "hot chocolate" ) ) );
+        CompiledTrigger[] triggers = compile( new String[][] {
+            { "i want [a] @drinks", "i want (?:\\s*a\\s*|\\s*)(?@drinks)" },
+            { "* is my favorite", "(.+?) is my favorite" },
+            { "i have # cats", "i have (\\d+?) cats" },
+            { "i am _ _", "i am ([a-z ]+?) ([a-z ]+?)" },
+            { "o\u00f9 est *", "o\u00f9 est (.+?)" },
+            { "do you like <get drink>", "do you like <get drink>" },
+            { "i *", "i (.+?)" },
+            { "*", "(.*?)" },
+        } );
+        TriggerIndex compiled = CompiledBrain.compile( "random", triggers, arrays );
+        assertTrue( compiled instanceof CompiledBrain );
+        TriggerTrie trie = new TriggerTrie( triggers, arrays );
+
+        String[] messages = {
+            "i want a caf\u00e9", "i want hot chocolate", "i want a hot", "tea is my favorite",
+            "hot chocolate is my favorite", "is my favorite", "i have 3 cats", "i have three cats",
+            "i am john smith", "i am 12 34", "o\u00f9 est la gare", "o\u00f9 est", "do you like tea",
+            "i", "hello", "i want a tea please",
+        };
+        for ( String message : messages )
+        {
+            String[] words = message.split( " " );
+            assertEquals( message, Arrays.toString( trie.candidates( words ) ),
+                    Arrays.toString( compiled.candidates( words ) ) );
+        }
+        assertNull( compiled.candidates( null ) );
+    }
+
+    public void testTopicsTooBigForAClassKeepTheTrie()
+    {
+        String[][] sorted = new String[CompiledBrain.MAX_NODES + 1][];
+        for ( int i = 0; i < sorted.length; i++ )
+        {
+            sorted[i] = new String[] { "word" + i, "word" + i };
+        }
+        TriggerIndex index = CompiledBrain.compile( "huge", compile( sorted ), arrays );
+        assertTrue( index instanceof TriggerTrie );
+        assertEquals( "[42]", Arrays.toString( index.candidates( new String[] { "word42" } ) ) );
+    }
+}
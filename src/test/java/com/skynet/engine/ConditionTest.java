@@ -0,0 +1,104 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.Condition;
+import com.engine.interpretation.Condition.Operator;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * A *Condition line is parsed once and tested with its rendered operands, the
+ * way the interpreter used to compare them on every reply.
+ */
+public class ConditionTest 
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ConditionTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ConditionTest.class );
+    }
+
+    private static boolean test( String left, String symbol, String right )
+    {
+        return new Condition( "", Operator.forSymbol( symbol ), "", "" ).test( left, right );
+    }
+
+    public void testParseKeepsTheTags()
+    {
+        Condition condition = Condition.parse( "<get age> >= <bot voting>   =>  You can vote, <get name>." );
+        assertEquals( "<get age>", condition.getLeft() );
+        assertEquals( Operator.GREATER_OR_EQUAL, condition.getOperator() );
+        assertEquals( "<bot voting>", condition.getRight() );
+        assertEquals( "You can vote, <get name>.", condition.getReply() );
+
+        assertEquals( Operator.LESS_OR_EQUAL, Condition.parse( "<get age> <= 12 => kid" ).getOperator() );
+        assertEquals( Operator.DIFFERENT, Condition.parse( "<get age> <> 12 => not twelve" ).getOperator() );
+        assertEquals( Operator.STARTS_WITH, Condition.parse( "<star> startsWith a => a word" ).getOperator() );
+        assertEquals( "my name is", Condition.parse( "<star> == my name is => same" ).getRight() );
+    }
+
+    public void testParseRejectsOtherLines()
+    {
+        assertNull( Condition.parse( "<get age> >= 18" ) );
+        assertNull( Condition.parse( "<get age> is 18 => adult" ) );
+        assertNull( Condition.parse( "<get age>>=18 => adult" ) );
+        assertNull( Condition.parse( " => adult" ) );
+    }
+
+    public void testOperatorSymbols()
+    {
+        for ( Operator operator : Operator.values() )
+        {
+            assertSame( operator, Operator.forSymbol( operator.getSymbol() ) );
+        }
+        assertNull( Operator.forSymbol( "=" ) );
+    }
+
+    public void testStringsAndNumbers()
+    {
+        // == and != are true if they are for the strings or for the numbers,
+        // eq and ne only compare the strings.
+        assertTrue( test( "007", "==", "7" ) );
+        assertFalse( test( "007", "eq", "7" ) );
+        assertTrue( test( "007", "ne", "7" ) );
+        assertTrue( test( "007", "!=", "7" ) );
+        assertFalse( test( "7", "!=", "7" ) );
+        assertTrue( test( "+7", "==", "7" ) );
+        assertTrue( test( "cat", "==", "cat" ) );
+        assertTrue( test( "cat", "<>", "dog" ) );
+        assertTrue( test( "catalog", "startsWith", "cat" ) );
+        assertFalse( test( "cat", "startsWith", "catalog" ) );
+    }
+
+    public void testInequalitiesNeedNumbers()
+    {
+        assertTrue( test( "-3", "<", "2" ) );
+        assertTrue( test( "10", ">", "9" ) );
+        assertTrue( test( "9", "<=", "9" ) );
+        assertFalse( test( "9", ">=", "10" ) );
+        assertFalse( test( "b", ">", "a" ) );
+        assertFalse( test( "-", "<", "2" ) );
+        assertFalse( test( "99999999999", ">", "1" ) );
+    }
+
+    public void testEmptyOperandsAreUndefined()
+    {
+        assertTrue( test( "", "==", "undefined" ) );
+        assertTrue( test( "", "eq", "" ) );
+        assertFalse( test( "", "!=", "undefined" ) );
+        assertFalse( test( "", "<", "1" ) );
+    }
+}
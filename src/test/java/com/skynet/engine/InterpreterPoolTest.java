@@ -0,0 +1,225 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.Interpreter;
+import com.engine.interpretation.InterpreterPool;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The shards of a pool reply to each user in the order of the messages, over
+ * the clients of the Interpreter, and apply their policy when a queue is full.
+ */
+public class InterpreterPoolTest 
+    extends TestCase
+{
+    private Interpreter interpreter;
+    private InterpreterPool pool;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public InterpreterPoolTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( InterpreterPoolTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        interpreter = Brains.load(
+            "+ count", "- <add n=1><get n>",
+            "+ *", "- You said <star>." );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        if ( pool != null )
+        {
+            pool.shutdown();
+            pool.awaitTermination( 10, TimeUnit.SECONDS );
+        }
+    }
+
+    /**
+     * Keep the only shard of the pool busy until the latch is released.
+     */
+    private Future<Void> block( final CountDownLatch latch )
+    {
+        return pool.submit( "anyone", new Callable<Void>()
+        {
+            public Void call() throws InterruptedException
+            {
+                latch.await();
+                return null;
+            }
+        } );
+    }
+
+    public void testEachUserInTheOrderOfTheMessages() throws Exception
+    {
+        pool = new InterpreterPool( interpreter, 4, 1000, InterpreterPool.Rejection.BLOCK );
+        List<List<Future<String>>> replies = new ArrayList<List<Future<String>>>();
+        for ( int m = 0; m < 50; m++ )
+        {
+            for ( int u = 0; u < 12; u++ )
+            {
+                if ( m == 0 )
+                {
+                    replies.add( new ArrayList<Future<String>>() );
+                }
+                replies.get( u ).add( pool.reply( "user" + u, "count" ) );
+            }
+        }
+        for ( int u = 0; u < 12; u++ )
+        {
+            for ( int m = 0; m < 50; m++ )
+            {
+                assertEquals( String.valueOf( m + 1 ), replies.get( u ).get( m ).get() );
+            }
+        }
+
+        // The clients are the Interpreter's own.
+        assertEquals( "50", interpreter.getUservar( "user3", "n" ) );
+        assertEquals( "51", interpreter.reply( "user3", "count" ) );
+        assertEquals( "52", pool.reply( "user3", "count" ).get() );
+    }
+
+    public void testUsersStayOnTheirShard()
+    {
+        pool = new InterpreterPool( interpreter, 3, 10, InterpreterPool.Rejection.ABORT );
+        assertEquals( 3, pool.countShards() );
+        for ( int u = 0; u < 100; u++ )
+        {
+            int shard = pool.shard( "user" + u );
+            assertTrue( shard >= 0 && shard < 3 );
+            assertEquals( shard, pool.shard( "user" + u ) );
+        }
+        assertEquals( 1, new InterpreterPool( interpreter, 0, 10, InterpreterPool.Rejection.ABORT ).countShards() );
+    }
+
+    public void testAbortWhenTheQueueIsFull() throws Exception
+    {
+        pool = new InterpreterPool( interpreter, 1, 1, InterpreterPool.Rejection.ABORT );
+        CountDownLatch latch = new CountDownLatch( 1 );
+        Future<Void> running = block( latch );
+        while ( pool.getQueued( 0 ) > 0 )
+        {
+            Thread.sleep( 1 );
+        }
+        Future<String> queued = pool.reply( "alice", "hello" );
+        assertEquals( 1, pool.getQueued( 0 ) );
+        try
+        {
+            pool.reply( "alice", "too many" );
+            fail( "the queue is full" );
+        }
+        catch ( RejectedExecutionException expected )
+        {
+        }
+        latch.countDown();
+        running.get();
+        assertEquals( "You said hello.", queued.get() );
+    }
+
+    public void testDiscardOldestCancelsIt() throws Exception
+    {
+        pool = new InterpreterPool( interpreter, 1, 1, InterpreterPool.Rejection.DISCARD_OLDEST );
+        CountDownLatch latch = new CountDownLatch( 1 );
+        block( latch );
+        while ( pool.getQueued( 0 ) > 0 )
+        {
+            Thread.sleep( 1 );
+        }
+        Future<String> oldest = pool.reply( "alice", "first" );
+        Future<String> newest = pool.reply( "alice", "second" );
+        assertTrue( oldest.isCancelled() );
+        latch.countDown();
+        assertEquals( "You said second.", newest.get() );
+    }
+
+    public void testBlockedMessageIsNotLostByAShutdown() throws Exception
+    {
+        pool = new InterpreterPool( interpreter, 1, 1, InterpreterPool.Rejection.BLOCK );
+        CountDownLatch latch = new CountDownLatch( 1 );
+        block( latch );
+        while ( pool.getQueued( 0 ) > 0 )
+        {
+            Thread.sleep( 1 );
+        }
+        pool.reply( "alice", "first" );
+
+        // Waits for room in the queue while the pool shuts down.
+        final AtomicReference<Object> outcome = new AtomicReference<Object>();
+        Thread waiting = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    outcome.set( pool.reply( "alice", "second" ) );
+                }
+                catch ( RejectedExecutionException ex )
+                {
+                    outcome.set( ex );
+                }
+            }
+        };
+        waiting.start();
+        while ( waiting.getState() != Thread.State.WAITING )
+        {
+            Thread.sleep( 1 );
+        }
+        pool.shutdown();
+        latch.countDown();
+        waiting.join( 10000 );
+        assertTrue( pool.awaitTermination( 10, TimeUnit.SECONDS ) );
+
+        // Either refused, or replied to: never left in the queue of a dead shard.
+        if ( outcome.get() instanceof Future )
+        {
+            assertEquals( "You said second.", ( (Future<?>) outcome.get() ).get( 10, TimeUnit.SECONDS ) );
+        }
+        else
+        {
+            assertTrue( outcome.get() instanceof RejectedExecutionException );
+        }
+    }
+
+    public void testNoMessagesAfterShutdown() throws Exception
+    {
+        pool = new InterpreterPool( interpreter, 2, 10, InterpreterPool.Rejection.BLOCK );
+        Future<String> reply = pool.reply( "alice", "count" );
+        pool.shutdown();
+        try
+        {
+            pool.reply( "alice", "count" );
+            fail( "the pool is shut down" );
+        }
+        catch ( RejectedExecutionException expected )
+        {
+        }
+        assertTrue( pool.awaitTermination( 10, TimeUnit.SECONDS ) );
+        assertEquals( "1", reply.get() );
+    }
+}
@@ -0,0 +1,138 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.ArraySet;
+import com.engine.interpretation.CompiledTrigger;
+import com.engine.interpretation.ParallelSearch;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * A search split over many threads must stop at the trigger the sequential
+ * scan stops at, and hand back the user dependent triggers ranked before it.
+ */
+public class ParallelSearchTest 
+    extends TestCase
+{
+    private static final int COUNT = 4 * ParallelSearch.CHUNK + 100;
+
+    private ForkJoinPool pool;
+    private ParallelSearch search;
+    private CompiledTrigger[] triggers;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ParallelSearchTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ParallelSearchTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+        pool = new ForkJoinPool( 4 );
+        search = new ParallelSearch( pool, 0 );
+
+        // Every seventh trigger catches any message ending with its number's
+        // last digit, so several chunks find a match at once.
+        HashMap<String, ArraySet> arrays = new HashMap<String, ArraySet>();
+        triggers = new CompiledTrigger[COUNT];
+        for ( int i = 0; i < COUNT; i++ )
+        {
+            String regexp = i % 7 == 6 ? "(.+?) ends with " + ( i % 10 ) : "number " + i;
+            if ( i == 100 || i == 5000 || i == 7000 )
+            {
+                regexp = "number " + i + " is <get favorite>";
+            }
+            triggers[i] = new CompiledTrigger( regexp, null, regexp, null, arrays );
+        }
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    private int scan( int[] candidates, String message )
+    {
+        int count = candidates == null ? triggers.length : candidates.length;
+        for ( int c = 0; c < count; c++ )
+        {
+            CompiledTrigger trigger = triggers[candidates == null ? c : candidates[c]];
+            if ( !trigger.isDynamic() && trigger.getCompiled().match( message ) != null )
+            {
+                return candidates == null ? c : candidates[c];
+            }
+        }
+        return -1;
+    }
+
+    private int last( int[] ranks )
+    {
+        return ranks.length == 0 ? -1 : ranks[ranks.length - 1];
+    }
+
+    public void testStopsWhereTheScanStops()
+    {
+        String[] messages = {
+            "number 3", "number 4000", "number " + ( COUNT - 1 ), "it ends with 6",
+            "it ends with 0", "number 8001 ends with 5", "nothing at all",
+        };
+        for ( String message : messages )
+        {
+            int[] found = search.search( triggers, null, message );
+            int expected = scan( null, message );
+            if ( expected < 0 )
+            {
+                // No match, only the dynamic triggers are left to try.
+                assertEquals( message, "[100, 5000, 7000]", Arrays.toString( found ) );
+            }
+            else
+            {
+                assertEquals( message, expected, last( found ) );
+            }
+        }
+    }
+
+    public void testReturnsTheDynamicTriggersBeforeTheMatch()
+    {
+        assertEquals( "[100, 5000, 6000]", Arrays.toString( search.search( triggers, null, "number 6000" ) ) );
+        assertEquals( "[99]", Arrays.toString( search.search( triggers, null, "number 99" ) ) );
+    }
+
+    public void testCandidatesAreMappedBackToRanks()
+    {
+        int[] candidates = new int[COUNT / 2];
+        for ( int c = 0; c < candidates.length; c++ )
+        {
+            candidates[c] = 2 * c + 1;
+        }
+        // Even ranks aren't candidates, the dynamic ones included.
+        assertEquals( "[7001]", Arrays.toString( search.search( triggers, candidates, "number 7001" ) ) );
+        assertEquals( -1, last( search.search( triggers, candidates, "number 4000" ) ) );
+        assertEquals( scan( candidates, "x ends with 3" ), last( search.search( triggers, candidates, "x ends with 3" ) ) );
+    }
+
+    public void testSmallSearchesStaySequential()
+    {
+        assertFalse( search.worthIt( ParallelSearch.CHUNK - 1 ) );
+        assertTrue( search.worthIt( ParallelSearch.CHUNK ) );
+        ParallelSearch large = new ParallelSearch( pool, 10 * ParallelSearch.CHUNK );
+        assertFalse( large.worthIt( COUNT ) );
+    }
+}
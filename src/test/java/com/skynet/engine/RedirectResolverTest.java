@@ -0,0 +1,127 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.ArraySet;
+import com.engine.interpretation.CompiledTrigger;
+import com.engine.interpretation.RedirectResolver;
+import com.engine.interpretation.SortBuffer;
+import com.engine.interpretation.Trigger;
+import com.engine.interpretation.TriggerParser;
+import com.engine.interpretation.TriggerTrie;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The redirects known when the replies are sorted are resolved to their
+ * triggers once, and the ones that come back to their own trigger are found.
+ */
+public class RedirectResolverTest 
+    extends TestCase
+{
+    private HashMap<String, ArraySet> arrays = new HashMap<String, ArraySet>();
+    private ArrayList<Trigger> owners = new ArrayList<Trigger>();
+    private ArrayList<CompiledTrigger> sorted = new ArrayList<CompiledTrigger>();
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RedirectResolverTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RedirectResolverTest.class );
+    }
+
+    private Trigger add( String pattern, String regexp )
+    {
+        Trigger trigger = new Trigger( "random", pattern );
+        owners.add( trigger );
+        sorted.add( new CompiledTrigger( pattern, trigger, regexp, TriggerParser.expand( pattern, arrays ), arrays ) );
+        return trigger;
+    }
+
+    private CompiledTrigger[] triggers()
+    {
+        return sorted.toArray( new CompiledTrigger[sorted.size()] );
+    }
+
+    private SortBuffer buffer( RedirectResolver resolver )
+    {
+        CompiledTrigger[] triggers = triggers();
+        TriggerTrie index = new TriggerTrie( triggers, arrays );
+        return new SortBuffer( triggers, index, new int[] { triggers.length }, resolver.resolve( triggers, index ) );
+    }
+
+    public void testOnlyStaticTargetsAreResolved()
+    {
+        add( "hi", "hi" ).addRedirect( "hello" );
+        add( "hey", "hey" ).addReply( "{@hello} {@how are you} {@<star>} {@ }" );
+        add( "yo", "yo" ).addCondition( "<get name> == undefined => {@hello}" );
+        add( "hello", "hello" ).addReply( "Hello!" );
+        add( "how are you", "how are you" ).addReply( "Good." );
+
+        SortBuffer buffer = buffer( new RedirectResolver( owners ) );
+        assertEquals( "[3]", Arrays.toString( buffer.resolve( "hello" ) ) );
+        assertEquals( "[4]", Arrays.toString( buffer.resolve( "how are you" ) ) );
+        assertNull( buffer.resolve( "<star>" ) );
+        assertNull( buffer.resolve( "hey" ) );
+    }
+
+    public void testUserDependentTriggersAreKeptBeforeTheMatch()
+    {
+        add( "i am <get name>", "i am <get name>" );
+        add( "i am bob", "i am bob" );
+        add( "i am <bot name>", "i am <bot name>" );
+        add( "i am *", "i am (.+?)" );
+        add( "*", "(.*?)" );
+        CompiledTrigger[] triggers = triggers();
+        TriggerTrie index = new TriggerTrie( triggers, arrays );
+
+        assertEquals( "[0, 1]", Arrays.toString( RedirectResolver.search( triggers, null, "i am bob" ) ) );
+        assertEquals( "[0, 2, 3]", Arrays.toString( RedirectResolver.search( triggers, null, "i am tom" ) ) );
+        assertEquals( "[0, 2, 4]", Arrays.toString( RedirectResolver.search( triggers, null, "hello" ) ) );
+        for ( String message : new String[] { "i am bob", "i am tom", "hello" } )
+        {
+            assertEquals( message, Arrays.toString( RedirectResolver.search( triggers, null, message ) ),
+                    Arrays.toString( RedirectResolver.search( triggers, index, message ) ) );
+        }
+    }
+
+    public void testCyclesAreFound()
+    {
+        add( "ping", "ping" ).addRedirect( "pong" );
+        add( "pong", "pong" ).addReply( "{@ping}" );
+        add( "again", "again" ).addRedirect( "again" );
+        add( "first", "first" ).addRedirect( "second" );
+        add( "second", "second" ).addCondition( "<get x> == 1 => {@third}" );
+        add( "third", "third" ).addReply( "Done." );
+
+        RedirectResolver resolver = new RedirectResolver( owners );
+        LinkedList<String> cycles = resolver.findCycles( buffer( resolver ) );
+        assertEquals( cycles.toString(), 2, cycles.size() );
+        assertTrue( cycles.contains( "again -> again" ) );
+        assertTrue( cycles.contains( "ping -> pong -> ping" ) || cycles.contains( "pong -> ping -> pong" ) );
+    }
+
+    public void testNoCycleWithoutStaticRedirects()
+    {
+        add( "echo *", "echo (.+?)" ).addReply( "{@echo <star>}" );
+        add( "hello", "hello" ).addRedirect( "hi" );
+        add( "hi", "hi" ).addReply( "Hi!" );
+
+        RedirectResolver resolver = new RedirectResolver( owners );
+        assertTrue( resolver.findCycles( buffer( resolver ) ).isEmpty() );
+    }
+}
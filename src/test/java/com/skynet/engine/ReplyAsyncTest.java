@@ -0,0 +1,159 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.Interpreter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The asynchronous replies of a user are made one after the other in the order
+ * they were asked, a failed one doesn't hold the next ones back, and asking for
+ * them never deadlocks with the Interpreter being changed.
+ */
+public class ReplyAsyncTest 
+    extends TestCase
+{
+    private Interpreter interpreter;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ReplyAsyncTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ReplyAsyncTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        interpreter = Brains.load(
+            "> object fail javascript", "throw 'fail';", "< object",
+            "> object thread javascript", "return 'thread';", "< object",
+            "+ count", "- <add n=1><get n>",
+            "+ boom", "- <call>fail</call>",
+            "+ thread", "- <call>thread</call>" );
+    }
+
+    public void testRepliesOfAUserInOrder() throws Exception
+    {
+        List<List<CompletableFuture<String>>> replies = new ArrayList<List<CompletableFuture<String>>>();
+        for ( int u = 0; u < 20; u++ )
+        {
+            replies.add( new ArrayList<CompletableFuture<String>>() );
+        }
+        for ( int m = 0; m < 30; m++ )
+        {
+            for ( int u = 0; u < 20; u++ )
+            {
+                replies.get( u ).add( interpreter.replyAsync( "user" + u, "count" ) );
+            }
+        }
+        for ( int u = 0; u < 20; u++ )
+        {
+            for ( int m = 0; m < 30; m++ )
+            {
+                assertEquals( String.valueOf( m + 1 ), replies.get( u ).get( m ).get( 10, TimeUnit.SECONDS ) );
+            }
+        }
+    }
+
+    public void testFailureDoesNotStopTheNextReplies() throws Exception
+    {
+        CompletableFuture<String> first = interpreter.replyAsync( "alice", "count" );
+        CompletableFuture<String> failed = interpreter.replyAsync( "alice", "boom" );
+        CompletableFuture<String> next = interpreter.replyAsync( "alice", "count" );
+        assertEquals( "1", first.get( 10, TimeUnit.SECONDS ) );
+        try
+        {
+            failed.get( 10, TimeUnit.SECONDS );
+            fail( "the object failed" );
+        }
+        catch ( ExecutionException expected )
+        {
+            assertTrue( expected.getCause() instanceof IllegalStateException );
+        }
+        assertEquals( "2", next.get( 10, TimeUnit.SECONDS ) );
+    }
+
+    public void testRunsOnTheExecutorSet() throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable task )
+            {
+                return new Thread( task, "test-replies" );
+            }
+        } );
+        try
+        {
+            interpreter.setAsyncExecutor( executor );
+            assertEquals( "test-replies", interpreter.replyAsync( "alice", "thread" ).get( 10, TimeUnit.SECONDS ) );
+            interpreter.setAsyncExecutor( null );
+            assertFalse( "test-replies".equals( interpreter.replyAsync( "alice", "thread" ).get( 10, TimeUnit.SECONDS ) ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    public void testNoDeadlockWithTheInterpreterChanging() throws Exception
+    {
+        Thread changes = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for ( int i = 0; i < 200; i++ )
+                {
+                    interpreter.stream( new String[] { "+ extra " + i, "- Extra " + i + "." } );
+                    interpreter.sortReplies();
+                    interpreter.setUservar( "alice", "seen", String.valueOf( i ) );
+                }
+            }
+        };
+        final List<CompletableFuture<String>> replies = new ArrayList<CompletableFuture<String>>();
+        Thread asks = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                for ( int m = 0; m < 500; m++ )
+                {
+                    replies.add( interpreter.replyAsync( "alice", "count" ) );
+                }
+            }
+        };
+        // A deadlock must fail the test, not keep the JVM alive.
+        changes.setDaemon( true );
+        asks.setDaemon( true );
+        changes.start();
+        asks.start();
+        asks.join( 60000 );
+        assertFalse( "replyAsync is stuck", asks.isAlive() );
+        for ( int m = 0; m < replies.size(); m++ )
+        {
+            assertEquals( String.valueOf( m + 1 ), replies.get( m ).get( 60, TimeUnit.SECONDS ) );
+        }
+        changes.join( 60000 );
+        assertFalse( "the changes are stuck", changes.isAlive() );
+    }
+}
@@ -0,0 +1,221 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.Interpreter;
+import com.engine.interpretation.ReplyProcessor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * A Flow stage replying to a stream of messages: each user in order, every
+ * message published (failed replies included), no more messages in flight than
+ * the buffer, and the end of the stream passed on.
+ */
+public class ReplyProcessorTest 
+    extends TestCase
+{
+    private Interpreter interpreter;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ReplyProcessorTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ReplyProcessorTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        interpreter = Brains.load(
+            "> object overflow javascript", "return deep();", "< object",
+            "+ count", "- <add n=1><get n>",
+            "+ deep", "- <call>overflow</call>" );
+    }
+
+    /**
+     * Collects the replies, one at a time, as slowly as asked.
+     */
+    private static class Collector implements Flow.Subscriber<ReplyProcessor.Event>
+    {
+        private final ReplyProcessor processor;
+        private final long pause;
+        private Flow.Subscription subscription;
+        final List<ReplyProcessor.Event> events = Collections.synchronizedList( new ArrayList<ReplyProcessor.Event>() );
+        final CountDownLatch done = new CountDownLatch( 1 );
+        volatile Throwable error;
+        volatile int maxPending;
+
+        Collector( ReplyProcessor processor, long pause )
+        {
+            this.processor = processor;
+            this.pause = pause;
+        }
+
+        public void onSubscribe( Flow.Subscription subscription )
+        {
+            this.subscription = subscription;
+            subscription.request( 1 );
+        }
+
+        public void onNext( ReplyProcessor.Event event )
+        {
+            events.add( event );
+            maxPending = Math.max( maxPending, processor.getPending() );
+            try
+            {
+                Thread.sleep( pause );
+            }
+            catch ( InterruptedException ex )
+            {
+                Thread.currentThread().interrupt();
+            }
+            subscription.request( 1 );
+        }
+
+        public void onError( Throwable throwable )
+        {
+            error = throwable;
+            done.countDown();
+        }
+
+        public void onComplete()
+        {
+            done.countDown();
+        }
+    }
+
+    private Collector run( ReplyProcessor processor, long pause, String[][] messages, Throwable end )
+        throws InterruptedException
+    {
+        Collector collector = new Collector( processor, pause );
+        processor.subscribe( collector );
+        SubmissionPublisher<ReplyProcessor.Message> input = new SubmissionPublisher<ReplyProcessor.Message>();
+        input.subscribe( processor );
+        for ( String[] message : messages )
+        {
+            input.submit( new ReplyProcessor.Message( message[0], message[1] ) );
+        }
+        if ( end == null )
+        {
+            input.close();
+        }
+        else
+        {
+            // The input drops the messages it hasn't delivered when it fails.
+            while ( collector.events.size() < messages.length )
+            {
+                Thread.sleep( 1 );
+            }
+            input.closeExceptionally( end );
+        }
+        assertTrue( "the stream never ended", collector.done.await( 60, TimeUnit.SECONDS ) );
+        return collector;
+    }
+
+    public void testEachUserInOrder() throws Exception
+    {
+        String[][] messages = new String[40 * 10][];
+        for ( int m = 0; m < 40; m++ )
+        {
+            for ( int u = 0; u < 10; u++ )
+            {
+                messages[m * 10 + u] = new String[] { "user" + u, "count" };
+            }
+        }
+        ReplyProcessor processor = new ReplyProcessor( interpreter, 4, 16 );
+        Collector collector = run( processor, 0, messages, null );
+
+        assertNull( collector.error );
+        assertEquals( messages.length, collector.events.size() );
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        for ( ReplyProcessor.Event event : collector.events )
+        {
+            Integer count = counts.get( event.getUser() );
+            count = Integer.valueOf( count == null ? 1 : count.intValue() + 1 );
+            counts.put( event.getUser(), count );
+            assertEquals( count.toString(), event.getReply() );
+            assertEquals( "count", event.getMessage().getText() );
+            assertTrue( event.getLatency( TimeUnit.NANOSECONDS ) >= 0 );
+        }
+        assertEquals( 0, processor.getPending() );
+    }
+
+    public void testFailedRepliesArePublished() throws Exception
+    {
+        ReplyProcessor processor = new ReplyProcessor( interpreter, 2, 4 );
+        Collector collector = run( processor, 0, new String[][] {
+            { "alice", "count" }, { "alice", "deep" }, { "alice", "count" }, { "bob", "deep" },
+        }, null );
+
+        assertNull( collector.error );
+        assertEquals( 4, collector.events.size() );
+        int failed = 0;
+        for ( ReplyProcessor.Event event : collector.events )
+        {
+            if ( event.getFailure() != null )
+            {
+                failed++;
+                assertTrue( event.getFailure() instanceof StackOverflowError );
+                assertNull( event.getReply() );
+            }
+        }
+        assertEquals( 2, failed );
+        assertEquals( "3", interpreter.reply( "alice", "count" ) );
+    }
+
+    public void testNoMoreMessagesInFlightThanTheBuffer() throws Exception
+    {
+        String[][] messages = new String[60][];
+        for ( int m = 0; m < messages.length; m++ )
+        {
+            messages[m] = new String[] { "user" + ( m % 6 ), "count" };
+        }
+        ReplyProcessor processor = new ReplyProcessor( interpreter, 3, 4 );
+        Collector collector = run( processor, 2, messages, null );
+
+        assertEquals( messages.length, collector.events.size() );
+        assertTrue( "pending " + collector.maxPending, collector.maxPending <= 4 );
+    }
+
+    public void testUpstreamErrorIsPassedOn() throws Exception
+    {
+        IllegalStateException broken = new IllegalStateException( "broken input" );
+        ReplyProcessor processor = new ReplyProcessor( interpreter, 2, 8 );
+        Collector collector = run( processor, 0, new String[][] {
+            { "alice", "count" }, { "bob", "count" },
+        }, broken );
+
+        assertSame( broken, collector.error );
+        assertEquals( 2, collector.events.size() );
+    }
+
+    public void testCancelEndsTheReplies() throws Exception
+    {
+        ReplyProcessor processor = new ReplyProcessor( interpreter, 2, 8 );
+        Collector collector = new Collector( processor, 0 );
+        processor.subscribe( collector );
+        processor.cancel();
+        assertTrue( collector.done.await( 10, TimeUnit.SECONDS ) );
+        assertNull( collector.error );
+        assertTrue( collector.events.isEmpty() );
+    }
+}
@@ -0,0 +1,130 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.Interpreter;
+import com.engine.interpretation.ReplyTemplate;
+import java.util.Random;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The replies rendered from their ReplyTemplate must be the ones the regular
+ * expressions of every tag family give, side effects included.
+ */
+public class ReplyTemplateTest 
+    extends TestCase
+{
+    private static final String[] BRAIN = {
+        "! var name = Iris",
+        "! person i = you",
+        "! person you = me",
+        "> object echo javascript", "return args.join(' ');", "< object",
+        "+ my name is *", "- <set name=<formal>>Nice to meet you, <get name>.",
+        "+ i am # years old", "- <set age=<star>>You are <get age>, next year <add age=1><get age>.",
+        "+ count", "- <add n=1><mult n=3><sub n=1><div n=2>n is <get n>",
+        "+ * and *", "- <star2> and <star1>, <uppercase><star1></uppercase>",
+        "+ pick", "- {random}one|two|three{/random} and {random}a b|c d|e f{/random}",
+        "+ pick a word", "- {random}alpha beta gamma delta{/random}",
+        "+ hello", "- Hi, <get name>!",
+        "+ greet", "- {@hello} {@my name is bob} <@>",
+        "+ yes", "% n is *", "- You agreed to <botstar>.",
+        "+ call *", "- <call>echo <star> <get n></call>",
+        "+ nested *", "- {uppercase}<bot name> says {person}<star>{/person}{/uppercase}",
+        "+ what did i say", "- <input1> / <reply1> / <input2>",
+        "+ mix", "- <set x=<get name><bot name>>{sentence}<get x> is {random}here|there{/random}{/sentence}",
+        "+ topic", "- Topic set.{topic=random} <get topic>",
+        "+ weighted", "- Heavy.{weight=5}",
+        "+ unclosed", "- An {uppercase}unclosed tag.",
+        "+ misnested", "- {uppercase}a{lowercase}b{/uppercase}c{/lowercase}",
+        "+ *", "- You said <star>.",
+    };
+
+    private static final String[] CONVERSATION = {
+        "my name is john smith", "i am 30 years old", "count", "count", "cats and dogs",
+        "pick", "pick", "pick a word", "greet", "count", "yes", "call hello world", "nested i love you",
+        "what did i say", "mix", "mix", "topic", "weighted", "unclosed", "misnested",
+        "something else",
+    };
+
+    private Interpreter compiled;
+    private Interpreter regex;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ReplyTemplateTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ReplyTemplateTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        compiled = Brains.load( BRAIN );
+        regex = Brains.load( BRAIN );
+        regex.setCompileReplies( false );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        Interpreter.rand = new Random();
+    }
+
+    /**
+     * Reply with both interpreters, drawing the same random numbers.
+     */
+    private void assertSameReply( String user, String message, long seed )
+    {
+        Interpreter.rand = new Random( seed );
+        String expected = regex.reply( user, message );
+        Interpreter.rand = new Random( seed );
+        assertEquals( message, expected, compiled.reply( user, message ) );
+    }
+
+    public void testSameRepliesAsTheRegularExpressions()
+    {
+        for ( String user : new String[] { "alice", "bob" } )
+        {
+            for ( int m = 0; m < CONVERSATION.length; m++ )
+            {
+                assertSameReply( user, CONVERSATION[m], user.hashCode() + m );
+            }
+            for ( String name : new String[] { "name", "age", "n", "x", "topic" } )
+            {
+                assertEquals( name, regex.getUservar( user, name ), compiled.getUservar( user, name ) );
+            }
+        }
+    }
+
+    public void testRandomPicksTheSameAlternatives()
+    {
+        for ( int seed = 0; seed < 50; seed++ )
+        {
+            assertSameReply( "alice", "pick", seed );
+            assertSameReply( "alice", "pick a word", seed );
+        }
+    }
+
+    public void testRepliesThatCantBeCompiledKeepTheRegularExpressions()
+    {
+        assertNull( ReplyTemplate.compile( "An {uppercase}unclosed tag." ) );
+        assertNull( ReplyTemplate.compile( "{uppercase}a{lowercase}b{/uppercase}c{/lowercase}" ) );
+        assertNull( ReplyTemplate.compile( "A tab\\t and <get name>." ) );
+        assertNotNull( ReplyTemplate.compile( "{uppercase}<bot name> says {person}<star>{/person}{/uppercase}" ) );
+        assertTrue( ReplyTemplate.compile( "Hi there!" ).isStatic() );
+
+        assertSameReply( "alice", "unclosed", 1 );
+        assertSameReply( "alice", "misnested", 1 );
+    }
+}
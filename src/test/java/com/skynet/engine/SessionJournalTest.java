@@ -0,0 +1,166 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.Client;
+import com.engine.interpretation.ConcurrentTags;
+import com.engine.interpretation.SessionJournal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tags evaluated out of order keep their writes in a journal, applied in the
+ * order of the reply, so the profile ends up as if they ran one after the other.
+ */
+public class SessionJournalTest 
+    extends TestCase
+{
+    private ExecutorService executor;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SessionJournalTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SessionJournalTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+        executor = Executors.newFixedThreadPool( 4 );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        executor.shutdown();
+    }
+
+    public void testWritesWaitForApply()
+    {
+        Client profile = new Client( "alice" );
+        profile.set( "name", "Alice" );
+        profile.set( "mood", "happy" );
+
+        SessionJournal journal = new SessionJournal( profile );
+        journal.set( "name", "Bob" );
+        journal.delete( "mood" );
+        journal.set( "age", "30" );
+        assertEquals( "Bob", journal.get( "name" ) );
+        assertEquals( "undefined", journal.get( "mood" ) );
+        assertFalse( journal.getData().containsKey( "mood" ) );
+        assertEquals( "Alice", profile.get( "name" ) );
+        assertEquals( "happy", profile.get( "mood" ) );
+
+        assertEquals( new HashSet<String>( Arrays.asList( "name", "mood", "age" ) ), journal.apply() );
+        assertEquals( "Bob", profile.get( "name" ) );
+        assertEquals( "undefined", profile.get( "mood" ) );
+        assertEquals( "30", profile.get( "age" ) );
+    }
+
+    public void testReadsAreTracked()
+    {
+        Client profile = new Client( "alice" );
+        SessionJournal journal = new SessionJournal( profile );
+        journal.set( "topic", "games" );
+        journal.get( "topic" );
+        journal.get( "name" );
+
+        // Reading its own write isn't a read of the profile.
+        assertFalse( journal.readAny( new HashSet<String>( Arrays.asList( "topic" ) ) ) );
+        assertTrue( journal.readAny( new HashSet<String>( Arrays.asList( "name", "age" ) ) ) );
+
+        SessionJournal all = new SessionJournal( profile );
+        profile.set( "age", "30" );
+        all.getData();
+        assertTrue( all.readAny( new HashSet<String>( Arrays.asList( "age" ) ) ) );
+    }
+
+    public void testHistoryNeedsOrder()
+    {
+        SessionJournal journal = new SessionJournal( new Client( "alice" ) );
+        try
+        {
+            journal.addInput( "hello" );
+            fail( "addInput out of order" );
+        }
+        catch ( SessionJournal.OutOfOrder expected )
+        {
+        }
+        try
+        {
+            SessionJournal.requireOrder( journal );
+            fail( "requireOrder on a journal" );
+        }
+        catch ( SessionJournal.OutOfOrder expected )
+        {
+        }
+        SessionJournal.requireOrder( new Client( "alice" ) );
+    }
+
+    private static ConcurrentTags.Tag set( final String name, final String value )
+    {
+        return new ConcurrentTags.Tag()
+        {
+            public String evaluate( Client profile )
+            {
+                profile.set( name, value );
+                return "";
+            }
+        };
+    }
+
+    private static ConcurrentTags.Tag get( final String name )
+    {
+        return new ConcurrentTags.Tag()
+        {
+            public String evaluate( Client profile )
+            {
+                return profile.get( name );
+            }
+        };
+    }
+
+    public void testConcurrentTagsKeepTheOrderOfTheReply()
+    {
+        ConcurrentTags.Tag[] tags = {
+            set( "color", "red" ),
+            get( "color" ),
+            set( "color", "blue" ),
+            get( "color" ),
+            set( "size", "big" ),
+            new ConcurrentTags.Tag()
+            {
+                public String evaluate( Client profile )
+                {
+                    // Only evaluated in order.
+                    SessionJournal.requireOrder( profile );
+                    profile.addInput( "learned" );
+                    return profile.get( "size" );
+                }
+            },
+        };
+        for ( int run = 0; run < 50; run++ )
+        {
+            Client profile = new Client( "alice" );
+            String[] results = new ConcurrentTags( executor ).evaluate( profile, tags );
+            assertEquals( "[, red, , blue, , big]", Arrays.toString( results ) );
+            assertEquals( "blue", profile.get( "color" ) );
+            assertEquals( "learned", profile.getInput( 1 ) );
+        }
+    }
+}
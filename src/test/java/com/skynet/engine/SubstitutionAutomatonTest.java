@@ -0,0 +1,94 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.SubstitutionAutomaton;
+import java.util.HashMap;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The substitutions of a bot run in one pass: whole words only, the longest
+ * pattern first, and never on the text a substitution wrote.
+ */
+public class SubstitutionAutomatonTest 
+    extends TestCase
+{
+    private HashMap<String, String> substitutions = new HashMap<String, String>();
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SubstitutionAutomatonTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SubstitutionAutomatonTest.class );
+    }
+
+    private String apply( String text )
+    {
+        return new SubstitutionAutomaton( substitutions ).apply( text );
+    }
+
+    public void testWholeWordsOnly()
+    {
+        substitutions.put( "i", "you" );
+        assertEquals( "you think it is", apply( "i think it is" ) );
+        assertEquals( "hi, you said: you", apply( "hi, i said: i" ) );
+        assertEquals( "i_am ii", apply( "i_am ii" ) );
+    }
+
+    public void testLongestPatternWins()
+    {
+        substitutions.put( "i", "you" );
+        substitutions.put( "i'm", "i am" );
+        substitutions.put( "what's", "what is" );
+        substitutions.put( "what's up", "how are you" );
+        assertEquals( "i am fine", apply( "i'm fine" ) );
+        assertEquals( "how are you buddy", apply( "what's up buddy" ) );
+        assertEquals( "what is upstairs", apply( "what's upstairs" ) );
+    }
+
+    public void testReplacementsAreNotReadAgain()
+    {
+        substitutions.put( "i", "you" );
+        substitutions.put( "you", "me" );
+        substitutions.put( "me", "you" );
+        assertEquals( "you like me", apply( "i like you" ) );
+        assertEquals( "you told me", apply( "me told you" ) );
+    }
+
+    public void testOverlappingPatterns()
+    {
+        substitutions.put( "new york", "NY" );
+        substitutions.put( "york city", "YC" );
+        // The leftmost pattern wins, the next one is looked for after it.
+        assertEquals( "NY city", apply( "new york city" ) );
+        assertEquals( "old YC", apply( "old york city" ) );
+    }
+
+    public void testNothingToSubstitute()
+    {
+        SubstitutionAutomaton none = new SubstitutionAutomaton( substitutions );
+        assertTrue( none.isEmpty() );
+        String text = "hello there";
+        assertSame( text, none.apply( text ) );
+
+        substitutions.put( "", "nothing" );
+        substitutions.put( "there", null );
+        assertTrue( new SubstitutionAutomaton( substitutions ).isEmpty() );
+
+        substitutions.put( "bye", "goodbye" );
+        SubstitutionAutomaton some = new SubstitutionAutomaton( substitutions );
+        assertFalse( some.isEmpty() );
+        assertSame( text, some.apply( text ) );
+    }
+}
@@ -0,0 +1,152 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.ArraySet;
+import com.engine.interpretation.CompiledTrigger;
+import com.engine.interpretation.TriggerAutomaton;
+import com.engine.interpretation.TriggerParser;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The whole-topic automaton must give the best ranked trigger accepting the
+ * message, from any number of threads, across flushes of its state cache.
+ */
+public class TriggerAutomatonTest 
+    extends TestCase
+{
+    private static final HashMap<String, ArraySet> NO_ARRAYS = new HashMap<String, ArraySet>();
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TriggerAutomatonTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( TriggerAutomatonTest.class );
+    }
+
+    private static CompiledTrigger trigger( String pattern, String regexp )
+    {
+        return new CompiledTrigger( pattern, null, regexp, TriggerParser.expand( pattern, NO_ARRAYS ), NO_ARRAYS );
+    }
+
+    private static String[] words( String message )
+    {
+        return message.split( " " );
+    }
+
+    public void testBestRankAccepted()
+    {
+        TriggerAutomaton automaton = new TriggerAutomaton( new CompiledTrigger[] {
+            trigger( "what is *", "what is (.+?)" ),
+            trigger( "what is love", "what is love" ),
+            trigger( "what", "what" ),
+        }, NO_ARRAYS );
+        assertEquals( "[0]", Arrays.toString( automaton.candidates( words( "what is love" ) ) ) );
+        assertEquals( "[2]", Arrays.toString( automaton.candidates( words( "what" ) ) ) );
+        assertEquals( "[]", Arrays.toString( automaton.candidates( words( "what is" ) ) ) );
+    }
+
+    public void testWildcardKinds()
+    {
+        TriggerAutomaton automaton = new TriggerAutomaton( new CompiledTrigger[] {
+            trigger( "i am # years old", "i am (\\d+?) years old" ),
+            trigger( "i am _ years old", "i am ([a-z ]+?) years old" ),
+            trigger( "i am *", "i am (.+?)" ),
+        }, NO_ARRAYS );
+        assertEquals( "[0]", Arrays.toString( automaton.candidates( words( "i am 12 years old" ) ) ) );
+        assertEquals( "[1]", Arrays.toString( automaton.candidates( words( "i am twelve years old" ) ) ) );
+        assertEquals( "[2]", Arrays.toString( automaton.candidates( words( "i am 1b years old" ) ) ) );
+        assertEquals( "[]", Arrays.toString( automaton.candidates( words( "you are" ) ) ) );
+    }
+
+    public void testTriggersLeftOutOfTheAutomatonAreAlwaysCandidates()
+    {
+        TriggerAutomaton automaton = new TriggerAutomaton( new CompiledTrigger[] {
+            trigger( "my name is <get name>", "my name is <get name>" ),
+            trigger( "hello", "hello" ),
+            trigger( "*", "(.*?)" ),
+        }, NO_ARRAYS );
+        assertEquals( "[0, 1, 2]", Arrays.toString( automaton.candidates( words( "hello" ) ) ) );
+        assertEquals( "[0, 2]", Arrays.toString( automaton.candidates( words( "bye" ) ) ) );
+        assertNull( automaton.candidates( null ) );
+    }
+
+    public void testConcurrentLookupsAcrossCacheFlushes() throws Exception
+    {
+        // Enough distinct states to flush the cache several times.
+        int count = TriggerAutomaton.MAX_STATES;
+        List<CompiledTrigger> triggers = new ArrayList<CompiledTrigger>();
+        final List<String> messages = new ArrayList<String>();
+        for ( int i = 0; i < count; i++ )
+        {
+            triggers.add( trigger( "k" + i + " z", "k" + i + " z" ) );
+            triggers.add( trigger( "k" + i + " *", "k" + i + " (.+?)" ) );
+            messages.add( "k" + i + " z" );
+            messages.add( "k" + i + " q" );
+        }
+        CompiledTrigger[] sorted = triggers.toArray( new CompiledTrigger[triggers.size()] );
+
+        TriggerAutomaton reference = new TriggerAutomaton( sorted, NO_ARRAYS );
+        final HashMap<String, String> expected = new HashMap<String, String>();
+        for ( String message : messages )
+        {
+            expected.put( message, Arrays.toString( reference.candidates( words( message ) ) ) );
+        }
+
+        final TriggerAutomaton shared = new TriggerAutomaton( sorted, NO_ARRAYS );
+        ExecutorService threads = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for ( int t = 0; t < 4; t++ )
+            {
+                final List<String> order = new ArrayList<String>( messages );
+                Collections.shuffle( order, new Random( t ) );
+                results.add( threads.submit( new Callable<Integer>()
+                {
+                    public Integer call()
+                    {
+                        int wrong = 0;
+                        for ( String message : order )
+                        {
+                            if ( !expected.get( message ).equals( Arrays.toString( shared.candidates( words( message ) ) ) ) )
+                            {
+                                wrong++;
+                            }
+                        }
+                        return Integer.valueOf( wrong );
+                    }
+                } ) );
+            }
+            for ( Future<Integer> result : results )
+            {
+                assertEquals( 0, result.get().intValue() );
+            }
+        }
+        finally
+        {
+            threads.shutdown();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.ArraySet;
+import com.engine.interpretation.TriggerMatcher;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The linear matcher must capture the same spans as java.util.regex did for the
+ * expressions built from the triggers.
+ */
+public class TriggerMatcherTest 
+    extends TestCase
+{
+    // Expressions as triggerRegexp() builds them
+    private static final String[] EXPRESSIONS = {
+        "hello bot",
+        "my name is (.+?)",
+        "(.+?) is (.+?)",
+        "(.+?)(.+?)",
+        "(.*?)",
+        "i am (\\d+?) years old",
+        "call me ([a-z ]+?)",
+        "(.+?) (\\d+?) ([a-z ]+?)",
+        "how (?:\\s*are\\s*|\\s*is\\s*|\\s*)you",
+        "what(?:\\s*is\\s*|\\s*)your name",
+        "i (?:\\s*really\\s*|\\s*)like (.+?)",
+        "(?:\\s*please\\s*|\\s*)tell me (?:\\s*(?:.+?)\\s*|\\s*)now",
+        "i like (?@colors)",
+        "(?@colors) or (?@colors)",
+        "(.+?) (?@colors) (.+?)",
+        "(what|who) is (.+?)",
+    };
+
+    // Messages, formatted
+    private static final String[] MESSAGES = {
+        "hello bot", "hello", "my name is iris", "my name is", "sky is blue",
+        "a is b is c", "ab", "abc", "", "x", "i am 25 years old", "i am old years old",
+        "call me maybe", "call me 42", "go 12 home", "a b 1 c", "how are you",
+        "how you", "howyou", "how is you", "what is your name", "whatyour name",
+        "i really like cheese", "i like cheese", "please tell me now", "tell me now",
+        "tell me something now", "i like red", "i like light green", "i like green",
+        "red or blue", "light green or red", "the red car", "my light green house",
+        "what is love", "who is there", "why is that",
+    };
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TriggerMatcherTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( TriggerMatcherTest.class );
+    }
+
+    private static HashMap<String, ArraySet> arrays()
+    {
+        HashMap<String, ArraySet> arrays = new HashMap<String, ArraySet>();
+        arrays.put( "colors", new ArraySet( Arrays.asList( "red", "blue", "light green" ) ) );
+        return arrays;
+    }
+
+    /**
+     * The spans java.util.regex finds for the expression, anchored.
+     */
+    private static int[] regex( String expression, HashMap<String, ArraySet> arrays, String message )
+    {
+        for ( String name : arrays.keySet() )
+        {
+            expression = expression.replace( "(?@" + name + ")", arrays.get( name ).getRegexp() );
+        }
+        Matcher m = Pattern.compile( "^" + expression + "$" ).matcher( message );
+        if ( !m.find() )
+        {
+            return null;
+        }
+        int[] spans = new int[2 * ( m.groupCount() + 1 )];
+        for ( int g = 0; g <= m.groupCount(); g++ )
+        {
+            spans[2 * g] = m.start( g );
+            spans[2 * g + 1] = m.end( g );
+        }
+        return spans;
+    }
+
+    public void testSameSpansAsJavaRegex()
+    {
+        HashMap<String, ArraySet> arrays = arrays();
+        for ( String expression : EXPRESSIONS )
+        {
+            TriggerMatcher matcher = TriggerMatcher.compile( expression, arrays );
+            for ( String message : MESSAGES )
+            {
+                assertTrue( "Spans of " + expression + " on \"" + message + "\"",
+                        Arrays.equals( regex( expression, arrays, message ), matcher.match( message ) ) );
+            }
+        }
+    }
+
+    public void testTriggerExpressionsRunWithoutBacktracking()
+    {
+        HashMap<String, ArraySet> arrays = arrays();
+        for ( String expression : EXPRESSIONS )
+        {
+            assertTrue( expression, TriggerMatcher.compile( expression, arrays ).isLinear() );
+        }
+    }
+
+    public void testGluedStarsCaptureLikeBacktracking()
+    {
+        int[] spans = TriggerMatcher.compile( "(.+?)(.+?)" ).match( "abc" );
+        assertEquals( "a", TriggerMatcher.group( "abc", spans, 1 ) );
+        assertEquals( "bc", TriggerMatcher.group( "abc", spans, 2 ) );
+    }
+
+    public void testOptionalGroupDoesNotCapture()
+    {
+        TriggerMatcher matcher = TriggerMatcher.compile( "i (?:\\s*really\\s*|\\s*)like (.+?)" );
+        assertEquals( 1, matcher.groupCount() );
+        int[] spans = matcher.match( "i like tea" );
+        assertEquals( "tea", TriggerMatcher.group( "i like tea", spans, 1 ) );
+    }
+
+    public void testUnknownSyntaxFallsBackToJavaRegex()
+    {
+        TriggerMatcher matcher = TriggerMatcher.compile( "a(?=b)b" );
+        assertFalse( matcher.isLinear() );
+        assertNotNull( matcher.match( "ab" ) );
+    }
+
+    public void testLongMessageDoesNotBlowUp()
+    {
+        StringBuilder message = new StringBuilder();
+        for ( int i = 0; i < 2000; i++ )
+        {
+            message.append( "a " );
+        }
+        message.append( "z" );
+        assertNull( TriggerMatcher.compile( "(.+?) (.+?) (.+?) (.+?) b" ).match( message.toString() ) );
+    }
+}
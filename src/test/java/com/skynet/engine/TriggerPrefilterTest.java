@@ -0,0 +1,90 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.ArraySet;
+import com.engine.interpretation.CompiledTrigger;
+import com.engine.interpretation.TriggerParser;
+import com.engine.interpretation.TriggerPrefilter;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The prefilter keeps a trigger only when the message has all the words every
+ * expansion of the trigger needs, whatever their order.
+ */
+public class TriggerPrefilterTest 
+    extends TestCase
+{
+    private HashMap<String, ArraySet> arrays = new HashMap<String, ArraySet>();
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TriggerPrefilterTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( TriggerPrefilterTest.class );
+    }
+
+    private int[] candidates( String[] patterns, String message )
+    {
+        CompiledTrigger[] triggers = new CompiledTrigger[patterns.length];
+        for ( int i = 0; i < patterns.length; i++ )
+        {
+            // The prefilter only reads the expansions.
+            triggers[i] = new CompiledTrigger( patterns[i], null, patterns[i],
+                    TriggerParser.expand( patterns[i], arrays ), arrays );
+        }
+        return new TriggerPrefilter( triggers ).candidates( message.split( " " ) );
+    }
+
+    public void testEveryRequiredWordMustAppear()
+    {
+        String[] patterns = { "what is *", "who is *" };
+        assertEquals( "[0]", Arrays.toString( candidates( patterns, "what is up" ) ) );
+        assertEquals( "[1]", Arrays.toString( candidates( patterns, "who is there" ) ) );
+        assertEquals( "[]", Arrays.toString( candidates( patterns, "what up" ) ) );
+        // Word order is left to the regular expression.
+        assertEquals( "[0]", Arrays.toString( candidates( patterns, "is what" ) ) );
+    }
+
+    public void testWordsNextToAnOptionalAreNotRequired()
+    {
+        // An optional may be glued to its neighbours ("howyou", "doyoufeel"), so
+        // only the words that stand alone in every expansion are required.
+        String[] patterns = { "how [are] you", "how do [you] feel", "say [hi] to me" };
+        assertEquals( "[0, 1]", Arrays.toString( candidates( patterns, "how" ) ) );
+        assertEquals( "[0]", Arrays.toString( candidates( patterns, "do feel" ) ) );
+        assertEquals( "[0]", Arrays.toString( candidates( patterns, "say to" ) ) );
+        assertEquals( "[0, 2]", Arrays.toString( candidates( patterns, "me" ) ) );
+    }
+
+    public void testTriggersListedUnderTheirRarestWord()
+    {
+        // "i" is common to all three, so each one is listed under its other word.
+        String[] patterns = { "i like cats", "i like dogs", "i own cats" };
+        assertEquals( "[0, 2]", Arrays.toString( candidates( patterns, "cats like own i" ) ) );
+        assertEquals( "[1]", Arrays.toString( candidates( patterns, "i like dogs" ) ) );
+        assertEquals( "[]", Arrays.toString( candidates( patterns, "i like" ) ) );
+    }
+
+    public void testTriggersWithoutRequiredWordsAreAlwaysCandidates()
+    {
+        arrays.put( "colors", new ArraySet( Arrays.asList( "red", "blue" ) ) );
+        String[] patterns = { "hello", "@colors", "* *", "*", "my name is <get name>" };
+        assertEquals( "[1, 2, 3, 4]", Arrays.toString( candidates( patterns, "goodbye" ) ) );
+        assertEquals( "[0, 1, 2, 3, 4]", Arrays.toString( candidates( patterns, "hello" ) ) );
+        assertNull( new TriggerPrefilter( new CompiledTrigger[0] ).candidates( null ) );
+    }
+}
@@ -0,0 +1,110 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.Trigger;
+import java.util.Random;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * A trigger picks among its redirects and replies in proportion to their
+ * {weight} tags.
+ */
+public class TriggerTest 
+    extends TestCase
+{
+    private static final int DRAWS = 100000;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TriggerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( TriggerTest.class );
+    }
+
+    private static int[] draw( Trigger trigger, int choices )
+    {
+        int[] counts = new int[choices];
+        Random rand = new Random( 42 );
+        for ( int i = 0; i < DRAWS; i++ )
+        {
+            counts[trigger.choose( rand )]++;
+        }
+        return counts;
+    }
+
+    private static void assertShare( double expected, int count )
+    {
+        assertEquals( expected, (double) count / DRAWS, 0.01 );
+    }
+
+    public void testWeightIsAProbability()
+    {
+        Trigger trigger = new Trigger( "random", "hello" );
+        trigger.addReply( "Hi!{weight=3}" );
+        trigger.addReply( "Hello." );
+        trigger.addReply( "Hey.{weight=6}" );
+        int[] counts = draw( trigger, 3 );
+        assertShare( 0.3, counts[0] );
+        assertShare( 0.1, counts[1] );
+        assertShare( 0.6, counts[2] );
+        assertEquals( "Hi!", trigger.getChoice( 0 ) );
+    }
+
+    public void testOnlyTheFirstWeightCounts()
+    {
+        Trigger trigger = new Trigger( "random", "hello" );
+        trigger.addReply( "Hi!{weight=4}{weight=1}" );
+        trigger.addReply( "Hello.{weight=0}" );
+        int[] counts = draw( trigger, 2 );
+        assertShare( 0.8, counts[0] );
+        assertShare( 0.2, counts[1] );
+        assertEquals( "Hi!", trigger.getChoice( 0 ) );
+        assertEquals( "Hello.", trigger.getChoice( 1 ) );
+    }
+
+    public void testRedirectsComeBeforeReplies()
+    {
+        Trigger trigger = new Trigger( "random", "hey" );
+        trigger.addReply( "Hey you.{weight=2}" );
+        trigger.addRedirect( "hello{weight=2}" );
+        trigger.addReply( "Yo." );
+        assertTrue( trigger.isRedirect( 0 ) );
+        assertFalse( trigger.isRedirect( 1 ) );
+        assertEquals( "hello", trigger.getChoice( 0 ) );
+        assertEquals( "Hey you.", trigger.getChoice( 1 ) );
+        assertEquals( "Yo.", trigger.getChoice( 2 ) );
+        int[] counts = draw( trigger, 3 );
+        assertShare( 0.4, counts[0] );
+        assertShare( 0.4, counts[1] );
+        assertShare( 0.2, counts[2] );
+    }
+
+    public void testHugeWeights()
+    {
+        Trigger trigger = new Trigger( "random", "hello" );
+        trigger.addReply( "Hi!{weight=2000000000}" );
+        trigger.addReply( "Hello.{weight=2000000000}" );
+        trigger.addReply( "Hey.{weight=1000000000}" );
+        int[] counts = draw( trigger, 3 );
+        assertShare( 0.4, counts[0] );
+        assertShare( 0.4, counts[1] );
+        assertShare( 0.2, counts[2] );
+    }
+
+    public void testNothingToChoose()
+    {
+        assertEquals( -1, new Trigger( "random", "hello" ).choose( new Random( 42 ) ) );
+    }
+}
@@ -0,0 +1,120 @@
+package com.skynet.engine;
+
+import com.engine.interpretation.ArraySet;
+import com.engine.interpretation.CompiledTrigger;
+import com.engine.interpretation.MessageNormalizer;
+import com.engine.interpretation.TriggerParser;
+import com.engine.interpretation.TriggerTrie;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * The word trie of a topic must keep the trigger a full scan would find among
+ * its candidates, and leave out the triggers that can't match.
+ */
+public class TriggerTrieTest 
+    extends TestCase
+{
+    private HashMap<String, ArraySet> arrays;
+    private CompiledTrigger[] triggers;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TriggerTrieTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( TriggerTrieTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+        arrays = new HashMap<String, ArraySet>();
+        arrays.put( "colors", new ArraySet( Arrays.asList( "red", "blue", "light green" ) ) );
+
+        // Sort buffer order, pattern and expression
+        String[][] sorted = {
+            { "i am # years old", "i am (\\d+?) years old" },
+            { "i like @colors", "i like (?@colors)" },
+            { "my name is *", "my name is (.+?)" },
+            { "how [are] you", "how (?:\\s*are\\s*|\\s*)you" },
+            { "call me _", "call me ([a-z ]+?)" },
+            { "hello bot", "hello bot" },
+            { "i am *", "i am (.+?)" },
+            { "*", "(.*?)" },
+        };
+        triggers = new CompiledTrigger[sorted.length];
+        for ( int i = 0; i < sorted.length; i++ )
+        {
+            triggers[i] = new CompiledTrigger( sorted[i][0], null, sorted[i][1],
+                    TriggerParser.expand( sorted[i][0], arrays ), arrays );
+        }
+    }
+
+    private int scan( String message )
+    {
+        for ( int i = 0; i < triggers.length; i++ )
+        {
+            if ( triggers[i].getCompiled().match( message ) != null )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int search( int[] candidates, String message )
+    {
+        for ( int c = 0; c < candidates.length; c++ )
+        {
+            if ( triggers[candidates[c]].getCompiled().match( message ) != null )
+            {
+                return candidates[c];
+            }
+        }
+        return -1;
+    }
+
+    public void testFindsTheTriggerOfAFullScan()
+    {
+        TriggerTrie trie = new TriggerTrie( triggers, arrays );
+        String[] messages = { "hello bot", "i am 12 years old", "i am twelve years old",
+            "i like light green", "i like green", "my name is iris", "how are you", "how you",
+            "call me maybe", "call me 42", "anything at all" };
+        for ( String message : messages )
+        {
+            int[] candidates = trie.candidates( MessageNormalizer.tokenize( message ) );
+            assertEquals( message, scan( message ), search( candidates, message ) );
+        }
+    }
+
+    public void testLeavesOutTriggersThatCantMatch()
+    {
+        int[] candidates = new TriggerTrie( triggers, arrays ).candidates( new String[] { "hello", "bot" } );
+        assertEquals( "[5, 7]", Arrays.toString( candidates ) );
+    }
+
+    public void testMultiWordArrayItems()
+    {
+        int[] candidates = new TriggerTrie( triggers, arrays ).candidates( new String[] { "i", "like", "light", "green" } );
+        assertEquals( 1, candidates[0] );
+    }
+
+    public void testMessagesThatArentWordsAreLeftToTheScan()
+    {
+        assertNull( new TriggerTrie( triggers, arrays ).candidates( MessageNormalizer.tokenize( "two  spaces" ) ) );
+    }
+}